@@ -0,0 +1,74 @@
+package twentyFortyEight;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Benchmarks BatchEngine with the lane-wise and the scalar kernel so the two can be compared.
+ *
+ * Every invocation moves every board of the batch in the next direction in turn. The time is reported per board. The batch is
+ * reset before every iteration so most boards are still being played while they are measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchEngineBenchmark
+{
+	private static final int TOTAL_BOARDS = 4096;
+	private static final long SEED = 2048;					//Boards are the same on every run
+	private static final Direction DIRECTIONS[] = Direction.values();
+
+	@State(Scope.Thread)
+	public static class Batch
+	{
+		//State holds a batch of boards for one size and kernel
+		@Param({"4", "8", "16"})
+		public int size;
+
+		@Param({"true", "false"})
+		public boolean isLaneWise;
+
+		BatchEngine batch;
+		SplittableRandom random;
+		int moveNumber;
+
+		@Setup(Level.Iteration)
+		public void reset()
+		{
+			batch = new BatchEngine(size, size, TOTAL_BOARDS, isLaneWise);
+			random = new SplittableRandom(SEED);
+			batch.reset(random);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TOTAL_BOARDS)
+	public int move(Batch state)
+	{
+		return state.batch.move(DIRECTIONS[state.moveNumber ++ & 3]);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(TOTAL_BOARDS)
+	public int moveAndSpawn(Batch state)
+	{
+		state.batch.move(DIRECTIONS[state.moveNumber ++ & 3]);
+		return state.batch.spawn(state.random);
+	}
+}
@@ -0,0 +1,25 @@
+package twentyFortyEight;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+/*
+ * Entry point of the benchmark jar. Runs the benchmarks with the gc profiler enabled so every result includes the allocation
+ * rate. Any JMH command line option (benchmark regex, -p size=4, -f 1, ...) is passed through.
+ */
+public class BenchmarkMain
+{
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException
+	{
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		if(commandLine.getIncludes().isEmpty())
+		{
+			builder.include(Twenty48GameBenchmark.class.getSimpleName());
+			builder.include(BatchEngineBenchmark.class.getSimpleName());
+		}
+		new Runner(builder.parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+	}
+}
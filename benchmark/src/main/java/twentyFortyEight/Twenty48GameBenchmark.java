@@ -0,0 +1,315 @@
+package twentyFortyEight;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import twentyFortyEight.Twenty48Game.Direction;
+import twentyFortyEight.Twenty48Game.GameStatus;
+/*
+ * Benchmarks every public operation of Twenty48Game plus spawn.
+ *
+ * Every benchmark runs on square boards from 3x3 to 16x16 filled to a density with random tiles. The tiles are no larger than
+ * 1024 so no board is won and getGameStatus never changes the game. At least one cell is always left empty and at least one
+ * cell is always filled so spawn has somewhere to go and some move is always possible.
+ *
+ * Operations that change the game (moves, applyMoves, spawn and undo) use one game for the whole trial and put its board, score
+ * and saved states back to the start at the beginning of every invocation. A Level.Invocation setup is not used since timing
+ * it costs more than a move and it would count a new game in gc.alloc.rate.norm. Putting the game back copies the board into
+ * the arrays it already has, so nothing is allocated, but it is measured. resetFreshGame and resetUndoableGame measure it alone
+ * so it can be taken off the other results. getGameStatus, canMove, previewMove, getCanonicalHash, fork and the serialization
+ * round trips do not change the game and share one copy for the whole trial. Each game is first made by reading the board with
+ * the Twenty48Game(ObjectInputStream) constructor.
+ *
+ * The benchmark package is the same as the game so spawn and the methods that put a game back, which are not public, can be
+ * used.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Twenty48GameBenchmark
+{
+	private static final int MAX_TILE_EXPONENT = 10;		//Largest random tile is 1024 so no board is won
+	private static final long SEED = 2048;					//Boards are the same on every run
+	private static final byte MOVE_SEQUENCE[] = {0, 2, 1, 3, 0, 3, 1, 2};	//Direction ordinals made by applyMoves
+	private static final byte NO_BOARDS[][] = {};
+	private static final int NO_SCORES[] = {};
+	private static final GameStatus NO_STATUSES[] = {};
+
+	@State(Scope.Thread)
+	public static class Board
+	{
+		//State holds the serialized board and the exponent of every cell for one size and density
+		@Param({"3", "4", "5", "6", "7", "8", "9", "10", "11", "12", "13", "14", "15", "16"})
+		public int size;
+
+		@Param({"0.1", "0.5", "0.9"})
+		public double density;
+
+		byte serializedBoard[];
+		byte position[];
+
+		@Setup(Level.Trial)
+		public void createBoard() throws IOException
+		{
+			/*
+			 * Fills random cells with random tiles and writes the board in the stream format read by Twenty48Game
+			 */
+			Random random = new Random(SEED);
+			int totalCells = size * size;
+			int filledCells = Math.max(1, Math.min(totalCells - 1, (int)Math.round(density * totalCells)));
+			int board[][] = new int[size][size];
+			position = new byte[totalCells];
+			for(int filled = 0; filled < filledCells; )
+			{
+				int cell = random.nextInt(totalCells);
+				if(position[cell] != 0)	continue;
+				position[cell] = (byte)(1 + random.nextInt(MAX_TILE_EXPONENT));
+				board[cell / size][cell % size] = 1 << position[cell];
+				filled ++;
+			}
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream outputStream = new ObjectOutputStream(bytes);
+			outputStream.writeObject(board);
+			outputStream.writeInt(0);								//No saved states
+			outputStream.writeInt(0);								//Move count
+			outputStream.writeInt(0);								//Score
+			outputStream.writeObject(GameStatus.PLAYABLE);
+			outputStream.close();
+			serializedBoard = bytes.toByteArray();
+		}
+
+		Twenty48Game load()
+		{	//Returns a new game with the board
+			try
+			{
+				return new Twenty48Game(new ObjectInputStream(new ByteArrayInputStream(serializedBoard)));
+			}
+			catch(IOException | ClassNotFoundException e)
+			{
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class FreshGame
+	{
+		//State holds one copy of the board that is put back to the start by every invocation
+		Twenty48Game game;
+		byte position[];
+		final int results[] = new int[MOVE_SEQUENCE.length * Twenty48Game.MOVE_RESULT_SIZE];
+
+		@Setup(Level.Trial)
+		public void load(Board board)
+		{
+			game = board.load();
+			position = board.position;
+		}
+
+		Twenty48Game reset()
+		{	//Puts the board back and clears the saved states without allocating. Returns the game
+			game.loadPosition(position, 0, 0, GameStatus.PLAYABLE);
+			game.loadSavedStates(NO_BOARDS, NO_SCORES, NO_STATUSES);
+			return game;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class UndoableGame
+	{
+		//State holds one copy of the board with one move made that is put back by every invocation
+		Twenty48Game game;
+		byte position[];
+		int score, moveCount;
+		GameStatus status;
+		byte savedBoards[][];
+		final int savedScores[] = {0};
+		final GameStatus savedStatuses[] = {GameStatus.PLAYABLE};
+
+		@Setup(Level.Trial)
+		public void load(Board board)
+		{
+			/*
+			 * Makes one move and keeps the position after it. The board from before the move is the only saved state
+			 */
+			game = board.load();
+			makeMoves(game, 1);
+			position = new byte[board.position.length];
+			game.getPosition(position);
+			score = game.getScore();
+			moveCount = game.getMoveCount();
+			status = game.getCurrentStatus();
+			savedBoards = new byte[][] {board.position};
+		}
+
+		Twenty48Game reset()
+		{	//Puts the position after the move and its saved state back without allocating. Returns the game
+			game.loadPosition(position, score, moveCount, status);
+			game.loadSavedStates(savedBoards, savedScores, savedStatuses);
+			return game;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class SharedGame
+	{
+		//State holds one copy of the board with a full undo history for the whole trial
+		Twenty48Game game;
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ByteBuffer buffer;
+		final MovePreview preview = new MovePreview();
+
+		@Setup(Level.Trial)
+		public void load(Board board)
+		{
+			game = board.load();
+			makeMoves(game, 10);
+		}
+	}
+
+	@Benchmark
+	public boolean moveLeft(FreshGame state)
+	{
+		return state.reset().moveLeft();
+	}
+
+	@Benchmark
+	public boolean moveRight(FreshGame state)
+	{
+		return state.reset().moveRight();
+	}
+
+	@Benchmark
+	public boolean moveUp(FreshGame state)
+	{
+		return state.reset().moveUp();
+	}
+
+	@Benchmark
+	public boolean moveDown(FreshGame state)
+	{
+		return state.reset().moveDown();
+	}
+
+	@Benchmark
+	public int applyMoves(FreshGame state)
+	{
+		return state.reset().applyMoves(MOVE_SEQUENCE, 0, MOVE_SEQUENCE.length, state.results);
+	}
+
+	@Benchmark
+	public Twenty48Game spawn(FreshGame state)
+	{
+		Twenty48Game game = state.reset();
+		game.spawn();
+		return game;
+	}
+
+	@Benchmark
+	public boolean undo(UndoableGame state)
+	{
+		return state.reset().undo();
+	}
+
+	@Benchmark
+	public Twenty48Game resetFreshGame(FreshGame state)
+	{
+		return state.reset();
+	}
+
+	@Benchmark
+	public Twenty48Game resetUndoableGame(UndoableGame state)
+	{
+		return state.reset();
+	}
+
+	@Benchmark
+	public boolean canMove(SharedGame state)
+	{
+		return state.game.canMove(Direction.LEFT);
+	}
+
+	@Benchmark
+	public MovePreview previewMove(SharedGame state)
+	{
+		state.game.previewMove(Direction.LEFT, state.preview);
+		return state.preview;
+	}
+
+	@Benchmark
+	public Twenty48Game fork(SharedGame state)
+	{
+		return state.game.fork();
+	}
+
+	@Benchmark
+	public long getCanonicalHash(SharedGame state)
+	{
+		return state.game.getCanonicalHash();
+	}
+
+	@Benchmark
+	public GameStatus getGameStatus(SharedGame state)
+	{
+		return state.game.getGameStatus();
+	}
+
+	@Benchmark
+	public Twenty48Game serializationRoundTrip(SharedGame state) throws IOException, ClassNotFoundException
+	{
+		/*
+		 * Writes the game with serializeToStream and reads it back with the Twenty48Game(ObjectInputStream) constructor
+		 */
+		state.bytes.reset();
+		ObjectOutputStream outputStream = new ObjectOutputStream(state.bytes);
+		state.game.serializeToStream(outputStream);
+		outputStream.flush();
+		return new Twenty48Game(new ObjectInputStream(new ByteArrayInputStream(state.bytes.toByteArray())));
+	}
+
+	@Benchmark
+	public Twenty48Game binaryRoundTrip(SharedGame state) throws IOException
+	{
+		/*
+		 * Writes the game with serializeToBuffer and reads it back with deserializeFromBuffer
+		 */
+		if(state.buffer == null || state.buffer.capacity() < state.game.getSerializedSize())
+			state.buffer = ByteBuffer.allocate(state.game.getSerializedSize());
+		state.buffer.clear();
+		state.game.serializeToBuffer(state.buffer);
+		state.buffer.flip();
+		return Twenty48Game.deserializeFromBuffer(state.buffer);
+	}
+
+	private static void makeMoves(Twenty48Game game, int totalMoves)
+	{	//Makes up to totalMoves possible moves, trying the directions in order
+		for(int made = 0; made < totalMoves; made ++)
+		{
+			boolean moved = false;
+			for(Direction direction : Direction.values())
+				if(moved = game.move(direction))	break;
+			if(!moved)	return;
+		}
+	}
+}
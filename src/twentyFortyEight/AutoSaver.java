@@ -0,0 +1,276 @@
+package twentyFortyEight;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class keeps a save file of a Twenty48Game up to date as it is played, without the thread playing the game waiting for the disk.
+ * The file is in the binary format of saveToFile and is read with Twenty48Game.loadFromFile.
+ *
+ * Every move and undo of the game is made through the saver. After every snapshotInterval changes the game is written into one of
+ * two buffers with serializeToBuffer and handed to a writer thread, which writes it to a temporary file next to the save file,
+ * forces it to the disk and renames it over the save file. The rename is atomic, so the save file always holds a whole game. The
+ * directory holding the save file is then forced so the rename is on the disk too. Platforms that can not open a directory
+ * (Windows) skip that step, and there a crash right after a write may leave the save file holding the snapshot before it.
+ *
+ * While the writer thread writes one buffer the game thread fills the other. A snapshot taken before the writer thread has
+ * started on the previous one replaces it, so the game thread never waits and the writer thread always writes the newest game.
+ * A snapshot is only safe from a crash once its write has finished. With a snapshot interval of 1 a crash loses the moves made
+ * since the snapshot of the last finished write, which is one or two moves unless the moves come faster than the disk can
+ * write. close and flush wait for the newest snapshot to be written.
+ *
+ * A saver is not thread safe, the game and the saver must only be used by one thread.
+ */
+public class AutoSaver implements Closeable
+{
+	public AutoSaver(Twenty48Game game, Path path) throws IOException
+	{
+		/*
+		 * Constructor saves the game to the file after every change
+		 */
+		this(game, path, 1);
+	}
+
+	public AutoSaver(Twenty48Game game, Path path, int snapshotInterval) throws IOException
+	{
+		/*
+		 * Constructor saves the game to the file after every snapshotInterval changes, starts the writer thread and takes the first
+		 * snapshot
+		 */
+		if(snapshotInterval < 1)	throw new IllegalArgumentException("snapshotInterval must be at least 1");
+		this.game = game;
+		this.path = path.toAbsolutePath();
+		this.temporaryPath = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+		this.snapshotInterval = snapshotInterval;
+		int size = game.getSerializedSize();
+		buffers = new ByteBuffer[] {ByteBuffer.allocate(size), ByteBuffer.allocate(size)};
+
+		//The writer thread is a daemon so a saver that is never closed does not keep the JVM running
+		thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeSnapshots();
+			}
+		}, "AutoSaver " + this.path.getFileName());
+		thread.setDaemon(true);
+		thread.start();
+		save();
+	}
+
+	public final Twenty48Game getGame()
+	{	//Getter for the game being saved
+		return game;
+	}
+
+	public final long getSnapshotsWritten()
+	{	//Returns the number of snapshots written to the file so far
+		return snapshotsWritten;
+	}
+
+	public final boolean move(Direction direction) throws IOException
+	{
+		/*
+		 * Makes a move on the game and takes a snapshot if it is due.
+		 * Returns true if the move was made, false if the move is not possible
+		 */
+		if(!game.move(direction))	return false;
+		changed();
+		return true;
+	}
+
+	public final boolean undo() throws IOException
+	{
+		/*
+		 * Undoes a move of the game and takes a snapshot if it is due.
+		 * Returns true if the undo was possible, false if it was not
+		 */
+		if(!game.undo())	return false;
+		changed();
+		return true;
+	}
+
+	public final void save() throws IOException
+	{
+		/*
+		 * Takes a snapshot of the game now and hands it to the writer thread. Does not wait for it to be written.
+		 * Throws IOException if the saver is closed or the writer thread failed
+		 */
+		checkOpen();
+		changesSinceSnapshot = 0;
+
+		//Fill the buffer the writer thread is not writing. A snapshot it has not started on is replaced
+		int index;
+		synchronized(lock)
+		{
+			index = (writingIndex == 0) ? 1 : 0;
+			if(pendingIndex == index)	pendingIndex = -1;
+		}
+		ByteBuffer buffer = buffers[index];
+		int size = game.getSerializedSize();
+		if(buffer.capacity() < size)	buffer = buffers[index] = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+		buffer.clear();
+		game.serializeToBuffer(buffer);
+		buffer.flip();
+		synchronized(lock)
+		{
+			pendingIndex = index;
+			lock.notifyAll();
+		}
+	}
+
+	public final void flush() throws IOException
+	{
+		/*
+		 * Takes a snapshot if a change has not been saved and waits for it to be written.
+		 * Throws IOException if the writer thread failed
+		 */
+		if(changesSinceSnapshot != 0)	save();
+		checkOpen();
+		try
+		{
+			synchronized(lock)
+			{
+				while((pendingIndex >= 0 || writingIndex >= 0) && failure == null)
+					lock.wait();
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the save file to be written");
+		}
+		if(failure != null)	throw new IOException("Writing the save file failed", failure);
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		/*
+		 * Writes the newest game and stops the writer thread. The game can still be played but is no longer saved.
+		 * Throws the IOException the writer thread failed with, if any
+		 */
+		if(isClosed)	return;
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			isClosed = true;
+			synchronized(lock)
+			{
+				lock.notifyAll();
+			}
+			try
+			{
+				thread.join();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void changed() throws IOException
+	{	//Counts a change to the game and takes a snapshot if snapshotInterval changes were made since the last one
+		if(++ changesSinceSnapshot >= snapshotInterval)	save();
+	}
+
+	private void checkOpen() throws IOException
+	{	//Throws IOException if the saver is closed or the writer thread failed
+		if(isClosed)		throw new IOException("The saver is closed");
+		if(failure != null)	throw new IOException("Writing the save file failed", failure);
+	}
+
+	private void writeSnapshots()
+	{
+		/*
+		 * Run by the writer thread. Takes the newest snapshot, writes it to the temporary file and renames it over the save file,
+		 * until the saver is closed or a write fails
+		 */
+		while(true)
+		{
+			ByteBuffer buffer;
+			synchronized(lock)
+			{
+				try
+				{
+					while(pendingIndex < 0 && !isClosed)
+						lock.wait();
+				}
+				catch(InterruptedException e)
+				{
+					failure = e;
+					lock.notifyAll();
+					return;
+				}
+				if(pendingIndex < 0)	return;
+				writingIndex = pendingIndex;
+				pendingIndex = -1;
+				buffer = buffers[writingIndex];
+			}
+			try
+			{
+				try(FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING))
+				{
+					while(buffer.hasRemaining())
+						channel.write(buffer);
+					channel.force(false);
+				}
+				Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				forceDirectory();
+				snapshotsWritten ++;
+			}
+			catch(IOException e)
+			{
+				failure = e;
+			}
+			synchronized(lock)
+			{
+				writingIndex = -1;
+				lock.notifyAll();
+				if(failure != null)	return;
+			}
+		}
+	}
+
+	private void forceDirectory()
+	{
+		/*
+		 * Forces the directory holding the save file to the disk so the rename over the save file is not lost in a crash
+		 */
+		try(FileChannel directory = FileChannel.open(path.toAbsolutePath().getParent(), StandardOpenOption.READ))
+		{
+			directory.force(true);
+		}
+		catch(IOException e)
+		{
+			//The platform can not open or force a directory. The rename is still atomic but may not be on the disk yet
+		}
+	}
+
+	private final Twenty48Game game;
+	private final Path path;
+	private final Path temporaryPath;					//Written first and renamed over path
+	private final int snapshotInterval;
+	private final ByteBuffer buffers[];					//The two snapshot buffers, replaced by a larger one when a game outgrows it
+	private final Thread thread;
+	private final Object lock = new Object();			//Guards pendingIndex and writingIndex
+	private int pendingIndex = -1;						//Buffer holding a snapshot not yet written, -1 if none
+	private int writingIndex = -1;						//Buffer the writer thread is writing, -1 if none
+	private int changesSinceSnapshot;
+	private volatile long snapshotsWritten;
+	private volatile boolean isClosed;
+	private volatile Throwable failure;					//What stopped the writer thread, null if nothing did
+}
@@ -0,0 +1,341 @@
+package twentyFortyEight;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class holds thousands of independent boards of the same size and moves all of them in the same direction at once.
+ *
+ * The boards are stored struct of arrays: one flat array of exponents where cell i of every board is contiguous, cell i of
+ * board b is at index (i * totalBoards + b) and cells are numbered the same as a packed board (row * totalColumns + column). A
+ * move works on one line of every board at a time in blocks of boards, so every step of the shift reads and writes runs of
+ * contiguous bytes, one per board.
+ *
+ * There are two kernels that give identical boards and scores:
+ *  - The lane-wise kernel shifts a line of every board in a block together. Each step is a loop over the boards of the block
+ *    with no branches, where the choices are made with masks, so HotSpot can compile the loops to SIMD instructions.
+ *  - The scalar kernel copies each board out, moves it with PackedBoard.move as Twenty48Game does and copies it back. It is
+ *    kept as the reference for the lane-wise kernel and for machines where it is not faster.
+ *
+ * Boards follow the rules of a packed board for every size, including 4x4, so a cell can hold tiles up to 2^127. Pieces are
+ * spawned with the same odds as Twenty48Game, from one random number generator shared by the batch, in board order.
+ *
+ * A batch is not thread safe. Threads that share the work should each own a batch.
+ */
+public class BatchEngine
+{
+	private static final int LANE_BLOCK = 512;			//Boards moved together so the lines of a block stay in the cache
+
+	public BatchEngine(int numberOfRows, int numberOfColumns, int totalBoards)
+	{
+		/*
+		 * Constructor creates a batch of empty boards of the specified size that is moved with the lane-wise kernel
+		 */
+		this(numberOfRows, numberOfColumns, totalBoards, true);
+	}
+
+	public BatchEngine(int numberOfRows, int numberOfColumns, int totalBoards, boolean isLaneWise)
+	{
+		/*
+		 * Constructor creates a batch of empty boards of the specified size. If isLaneWise is false the boards are moved one at a
+		 * time with the scalar kernel
+		 */
+		Twenty48Game.checkDimensions(numberOfRows, numberOfColumns);
+		if(totalBoards < 1)	throw new IllegalArgumentException("totalBoards must be at least 1");
+		TOTAL_ROWS = numberOfRows;
+		TOTAL_COLUMNS = numberOfColumns;
+		TOTAL_BOARDS = totalBoards;
+		TOTAL_CELLS = numberOfRows * numberOfColumns;
+		this.isLaneWise = isLaneWise;
+		cells = new byte[TOTAL_CELLS * totalBoards];
+		scores = new int[totalBoards];
+		scoreGains = new int[totalBoards];
+		isMoved = new boolean[totalBoards];
+		spawnTargets = new int[totalBoards];
+		spawnExponents = new byte[totalBoards];
+
+		//Only the buffers of the kernel in use are allocated
+		int longestLine = Math.max(numberOfRows, numberOfColumns);
+		if(isLaneWise)
+		{
+			laneCells = new int[longestLine][LANE_BLOCK];
+			laneChanges = new int[LANE_BLOCK];
+			laneGains = new int[LANE_BLOCK];
+		}
+		else
+		{
+			laneCells = null;
+			laneChanges = null;
+			laneGains = null;
+		}
+		board = new byte[TOTAL_CELLS];
+		movedBoard = new byte[TOTAL_CELLS];
+		line = new byte[longestLine];
+	}
+
+	public final boolean isLaneWise()
+	{	//Returns whether the boards are moved with the lane-wise kernel
+		return isLaneWise;
+	}
+
+	public final int getCellExponent(int boardNumber, int row, int column)
+	{	//Getter for the exponent of a cell of a board. 0 is an empty cell and k is a cell with the value 2^k
+		return cells[(row * TOTAL_COLUMNS + column) * TOTAL_BOARDS + boardNumber];
+	}
+
+	public final int getScore(int boardNumber)
+	{	//Getter for the score of a board
+		return scores[boardNumber];
+	}
+
+	public final int getScoreGain(int boardNumber)
+	{	//Getter for the score the last move added to a board
+		return scoreGains[boardNumber];
+	}
+
+	public final boolean isMoved(int boardNumber)
+	{	//Returns whether the last move changed a board
+		return isMoved[boardNumber];
+	}
+
+	public final void load(int boardNumber, Twenty48Game game)
+	{
+		/*
+		 * Copies the board and score of a game of the same size into a board of the batch
+		 */
+		if(game.TOTAL_ROWS != TOTAL_ROWS || game.TOTAL_COLUMNS != TOTAL_COLUMNS)
+			throw new IllegalArgumentException("The game must be " + TOTAL_ROWS + "x" + TOTAL_COLUMNS);
+		game.getPosition(board);
+		for(int cell = 0; cell < TOTAL_CELLS; cell ++)
+			cells[cell * TOTAL_BOARDS + boardNumber] = board[cell];
+		scores[boardNumber] = game.getScore();
+		scoreGains[boardNumber] = 0;
+		isMoved[boardNumber] = false;
+	}
+
+	public final void reset(SplittableRandom random)
+	{
+		/*
+		 * Clears every board and score and spawns two pieces on each board, the same as a new game
+		 */
+		Arrays.fill(cells, (byte)0);
+		Arrays.fill(scores, 0);
+		Arrays.fill(scoreGains, 0);
+		Arrays.fill(isMoved, true);
+		spawn(random);
+		spawn(random);
+		Arrays.fill(isMoved, false);
+	}
+
+	public final int move(Direction direction)
+	{
+		/*
+		 * Moves every board in the direction. Pieces are not spawned, call spawn after the move.
+		 * Returns the number of boards the move changed
+		 */
+		if(isLaneWise)	moveLaneWise(direction);
+		else			moveScalar(direction);
+
+		//Add the gained scores and count the boards that changed
+		int totalMoved = 0;
+		for(int boardNumber = 0; boardNumber < TOTAL_BOARDS; boardNumber ++)
+		{
+			scores[boardNumber] = PackedBoard.addScore(scores[boardNumber], scoreGains[boardNumber]);
+			if(isMoved[boardNumber])	totalMoved ++;
+		}
+		return totalMoved;
+	}
+
+	public final boolean canMove(int boardNumber, Direction direction)
+	{	//Returns whether moving a board in the direction would change it
+		copyBoard(boardNumber);
+		return PackedBoard.canMove(board, TOTAL_ROWS, TOTAL_COLUMNS, direction);
+	}
+
+	public final int spawn(SplittableRandom random)
+	{
+		/*
+		 * Spawns a 2 or 4 in a random empty cell of every board the last move changed. The random numbers are drawn board by board
+		 * in the same order as Twenty48Game.spawn.
+		 * Returns the number of pieces spawned
+		 */
+
+		//Count the empty cells of every board, one cell of every board at a time
+		Arrays.fill(spawnTargets, 0);
+		for(int cell = 0, index = 0; cell < TOTAL_CELLS; cell ++)
+			for(int boardNumber = 0; boardNumber < TOTAL_BOARDS; boardNumber ++, index ++)
+				spawnTargets[boardNumber] += ((cells[index] - 1) >>> 31);		//1 if the cell is empty
+
+		//Pick the piece and the empty cell of every board that changed. -1 marks a board that gets no piece
+		int totalSpawned = 0;
+		for(int boardNumber = 0; boardNumber < TOTAL_BOARDS; boardNumber ++)
+		{
+			if(!isMoved[boardNumber] || spawnTargets[boardNumber] == 0)
+			{
+				spawnTargets[boardNumber] = -1;
+				continue;
+			}
+			spawnExponents[boardNumber] = (byte)((random.nextInt(10) != 0) ? 1 : 2);	//A 2, 90% of the time otherwise a 4
+			spawnTargets[boardNumber] = random.nextInt(spawnTargets[boardNumber]);
+			totalSpawned ++;
+		}
+
+		//Place each piece in the empty cell picked for it. The target counts down past each empty cell and is 0 at the pick, a
+		//board that gets no piece stays below 0
+		for(int cell = 0, index = 0; cell < TOTAL_CELLS; cell ++)
+			for(int boardNumber = 0; boardNumber < TOTAL_BOARDS; boardNumber ++, index ++)
+			{
+				int target = spawnTargets[boardNumber];
+				int isEmpty = (cells[index] - 1) >> 31;							//-1 if the cell is empty, 0 otherwise
+				int isPicked = ((target - 1) & ~target) >> 31 & isEmpty;		//-1 if the cell is empty and the target is 0
+				cells[index] |= (byte)(spawnExponents[boardNumber] & isPicked);
+				spawnTargets[boardNumber] = target + isEmpty;
+			}
+		return totalSpawned;
+	}
+
+	private void moveScalar(Direction direction)
+	{
+		/*
+		 * Moves the boards one at a time with PackedBoard.move
+		 */
+		for(int boardNumber = 0; boardNumber < TOTAL_BOARDS; boardNumber ++)
+		{
+			copyBoard(boardNumber);
+			int score = PackedBoard.move(board, TOTAL_ROWS, TOTAL_COLUMNS, direction, movedBoard, line);
+			isMoved[boardNumber] = (score >= 0);
+			scoreGains[boardNumber] = Math.max(score, 0);
+			if(score < 0)	continue;
+			for(int cell = 0; cell < TOTAL_CELLS; cell ++)
+				cells[cell * TOTAL_BOARDS + boardNumber] = movedBoard[cell];
+		}
+	}
+
+	private void moveLaneWise(Direction direction)
+	{
+		/*
+		 * Moves the boards a block at a time. Each line of the block is copied into laneCells with position i of the line in row
+		 * i, shifted there and copied back. The rows are ints and separate arrays so HotSpot vectorizes the loops over the lanes,
+		 * which it does not do for bytes shifted in place
+		 */
+		boolean isHorizontal = (direction == Direction.LEFT || direction == Direction.RIGHT);
+		int totalLines = isHorizontal ? TOTAL_ROWS : TOTAL_COLUMNS;
+		int lineLength = isHorizontal ? TOTAL_COLUMNS : TOTAL_ROWS;
+		int lineStep = isHorizontal ? TOTAL_COLUMNS : 1;
+		int cellStride = PackedBoard.cellStride(direction, TOTAL_COLUMNS);
+		int firstLineStart = PackedBoard.firstLineStart(direction, TOTAL_ROWS, TOTAL_COLUMNS);
+
+		for(int firstBoard = 0; firstBoard < TOTAL_BOARDS; firstBoard += LANE_BLOCK)
+		{
+			int totalLanes = Math.min(LANE_BLOCK, TOTAL_BOARDS - firstBoard);
+			Arrays.fill(laneChanges, 0);
+			Arrays.fill(laneGains, 0);
+			for(int lineNumber = 0, start = firstLineStart; lineNumber < totalLines; lineNumber ++, start += lineStep)
+			{
+				for(int i = 0, cell = start; i < lineLength; i ++, cell += cellStride)
+				{
+					int offset = cell * TOTAL_BOARDS + firstBoard, row[] = laneCells[i];
+					for(int lane = 0; lane < totalLanes; lane ++)
+						row[lane] = cells[offset + lane];
+				}
+
+				//Remove the empty cells, combine the pairs and remove the cells emptied by combining
+				compactLanes(lineLength, totalLanes);
+				mergeLanes(lineLength, totalLanes);
+				compactLanes(lineLength, totalLanes);
+
+				//Copy the line back and remember which boards it changed
+				for(int i = 0, cell = start; i < lineLength; i ++, cell += cellStride)
+				{
+					int offset = cell * TOTAL_BOARDS + firstBoard, row[] = laneCells[i];
+					for(int lane = 0; lane < totalLanes; lane ++)
+					{
+						laneChanges[lane] |= cells[offset + lane] ^ row[lane];
+						cells[offset + lane] = (byte)row[lane];
+					}
+				}
+			}
+			for(int lane = 0; lane < totalLanes; lane ++)
+			{
+				isMoved[firstBoard + lane] = (laneChanges[lane] != 0);
+				scoreGains[firstBoard + lane] = laneGains[lane];
+			}
+		}
+	}
+
+	private void compactLanes(int lineLength, int totalLanes)
+	{
+		/*
+		 * Moves the cells that are not empty to the start of the line of every lane, keeping their order. Each sweep swaps every
+		 * empty cell with the cell after it, which carries an empty cell to the end of the line, so at most lineLength - 1 sweeps
+		 * are needed. The sweeps stop early when one changes no lane
+		 */
+		for(int sweep = 1; sweep < lineLength; sweep ++)
+		{
+			int changes = 0;
+			for(int i = 0; i < lineLength - 1; i ++)
+			{
+				int row[] = laneCells[i], nextRow[] = laneCells[i + 1];
+				for(int lane = 0; lane < totalLanes; lane ++)
+				{
+					int cell = row[lane], nextCell = nextRow[lane];
+					int isEmpty = (cell - 1) >> 31;							//-1 if the cell is empty, 0 otherwise
+					row[lane] = cell | (nextCell & isEmpty);
+					nextRow[lane] = nextCell & ~isEmpty;
+					changes |= nextCell & isEmpty;
+				}
+			}
+			if(changes == 0)	return;
+		}
+	}
+
+	private void mergeLanes(int lineLength, int totalLanes)
+	{
+		/*
+		 * Combines the pairs of the same cells of a compacted line of every lane from the start of the line. The second cell of a
+		 * pair is emptied, so the cell after it can not be combined with it and a combined cell is not combined again.
+		 * The gains stop at Integer.MAX_VALUE the same as PackedBoard.mergeScore and PackedBoard.addScore, using masks
+		 */
+		for(int i = 0; i < lineLength - 1; i ++)
+		{
+			int row[] = laneCells[i], nextRow[] = laneCells[i + 1];
+			for(int lane = 0; lane < totalLanes; lane ++)
+			{
+				int cell = row[lane], nextCell = nextRow[lane];
+
+				//-1 if the cells are the same, not empty and not the largest tile a cell can hold, 0 otherwise
+				int isMerged = (((cell ^ nextCell) - 1) & -cell & (cell - PackedBoard.MAX_EXPONENT)) >> 31;
+				row[lane] = cell + (isMerged & 1);
+				nextRow[lane] = nextCell & ~isMerged;
+				int isLarge = (Integer.SIZE - 3 - cell) >> 31;			//-1 if the merge does not fit in an int, 0 otherwise
+				int gain = ((1 << (cell + 1)) & ~isLarge | Integer.MAX_VALUE & isLarge) & isMerged;
+				int sum = laneGains[lane] + gain;
+				laneGains[lane] = sum ^ ((sum ^ Integer.MAX_VALUE) & (sum >> 31));
+			}
+		}
+	}
+
+	private void copyBoard(int boardNumber)
+	{	//Copies a board of the batch into board as a packed board
+		for(int cell = 0; cell < TOTAL_CELLS; cell ++)
+			board[cell] = cells[cell * TOTAL_BOARDS + boardNumber];
+	}
+
+	public final int TOTAL_ROWS;
+	public final int TOTAL_COLUMNS;
+	public final int TOTAL_BOARDS;
+	private final int TOTAL_CELLS;
+	private final boolean isLaneWise;
+	private final byte cells[];						//Cell i of board b at (i * TOTAL_BOARDS + b)
+	private final int scores[];
+	private final int scoreGains[];					//Score each board gained on the last move
+	private final boolean isMoved[];				//Whether the last move changed each board
+	private final int spawnTargets[];				//Empty cells of each board, then the empty cell picked for its piece
+	private final byte spawnExponents[];
+	private final int laneCells[][];					//A line of a block of boards, position i of the line in row i
+	private final int laneChanges[];						//Non zero for each board of the block a line changed
+	private final int laneGains[];						//Score gained by each board of the block
+	private final byte board[];						//A single board copied out of the batch
+	private final byte movedBoard[];
+	private final byte line[];
+}
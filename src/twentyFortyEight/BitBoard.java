@@ -0,0 +1,318 @@
+package twentyFortyEight;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+/*
+ * Class holds the lookup tables and helper methods for the 4x4 bitboard engine used by Twenty48Game.
+ *
+ * A 4x4 board is stored in a single long. Each cell is a four bit nibble holding the exponent of the tile (0 is an empty cell,
+ * k is a tile with the value 2^k). The cell at [row][column] is stored in nibble (row * 4 + column), so each row occupies 16 bits
+ * with column 0 in the lowest nibble. Row 0 is the bottom row visually, the same as Twenty48Game.
+ *
+ * Every possible 16 bit row (65,536 of them) is shifted and merged once when the class is loaded. A horizontal move is then
+ * four table lookups. A vertical move transposes the board so columns become rows, does four lookups and transposes it back.
+ *
+ * A nibble can not hold an exponent larger than 15, so two 32768 tiles can not be merged on a bitboard and the row tables
+ * leave them apart. Twenty48Game checks hasMaxExponentLine before using the bitboard and moves the game to the packed board as
+ * soon as a row or column holds two 32768 tiles, whatever lies between them, so every merge of two 32768 tiles is made there
+ * and the game plays the same as any other size. main checks the two engines give the same boards and scores.
+ *
+ * The class is package private, it is an implementation detail of Twenty48Game.
+ */
+final class BitBoard
+{
+	static final int BOARD_DIMENSION = 4;			//Rows and columns of a board that uses the bitboard engine
+	static final int MAX_EXPONENT = 15;				//The largest exponent a nibble can hold
+
+	private static final long ROW_MASK = 0xFFFFL;
+
+	private static final char ROW_LEFT[] = new char[65536];		//Row after shifting towards column 0
+	private static final char ROW_RIGHT[] = new char[65536];	//Row after shifting towards column 3
+	private static final int ROW_SCORE[] = new int[65536];		//Score gained by shifting the row (same both ways)
+
+	static
+	{
+		/*
+		 * Shift and merge every possible row to the left. A right shift is a left shift of the reversed row reversed back.
+		 * The score is the same in either direction since both merge floor(n/2) pairs in every run of n equal tiles
+		 */
+		int line[] = new int[BOARD_DIMENSION];
+		for(int row = 0; row < 65536; row ++)
+		{
+			for(int column = 0; column < BOARD_DIMENSION; column ++)
+				line[column] = (row >>> (column << 2)) & 0xF;
+
+			//Compact the non-zero cells to the left
+			int count = 0;
+			for(int column = 0; column < BOARD_DIMENSION; column ++)
+				if(line[column] != 0)	line[count ++] = line[column];
+			for(int column = count; column < BOARD_DIMENSION; column ++)
+				line[column] = 0;
+
+			//Merge the same cells next to each other. A merged cell is never merged again in the same move. Two MAX_EXPONENT
+			//cells are left apart, which is only wrong for rows holding two of them. Twenty48Game never looks those rows up since
+			//it moves any board with two MAX_EXPONENT cells in a row or column to the packed board
+			int score = 0;
+			for(int column = 0; column < BOARD_DIMENSION - 1 && line[column] != 0; column ++)
+			{
+				if(line[column] != line[column + 1] || line[column] == MAX_EXPONENT)	continue;
+				score += 1 << ++ line[column];
+				for(int i = column + 1; i < BOARD_DIMENSION - 1; i ++)
+					line[i] = line[i + 1];
+				line[BOARD_DIMENSION - 1] = 0;
+			}
+
+			int result = 0;
+			for(int column = 0; column < BOARD_DIMENSION; column ++)
+				result |= line[column] << (column << 2);
+			ROW_LEFT[row] = (char)result;
+			ROW_SCORE[row] = score;
+			ROW_RIGHT[reverseRow(row)] = (char)reverseRow(result);
+		}
+	}
+
+	private BitBoard()
+	{	//The class only contains static members
+	}
+
+	public static void main(String[] args)
+	{
+		/*
+		 * Checks the bitboard engine against the packed board on random 4x4 boards that often hold 32768 tiles. Every board is
+		 * moved in every direction by a 4x4 Twenty48Game, which uses the bitboard unless it has to move to the packed board,
+		 * and by PackedBoard.move. Boards the game keeps on the bitboard are also moved with the row tables directly.
+		 * Arguments: [totalBoards [seed]]
+		 * Throws IllegalStateException at the first board the engines disagree on
+		 */
+		int totalBoards = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+		SplittableRandom random = new SplittableRandom((args.length > 1) ? Long.parseLong(args[1]) : 2048);
+		int totalCells = BOARD_DIMENSION * BOARD_DIMENSION;
+		byte board[] = new byte[totalCells], expected[] = new byte[totalCells], actual[] = new byte[totalCells];
+		byte line[] = new byte[BOARD_DIMENSION];
+		int switched = 0;
+		for(int boardNumber = 0; boardNumber < totalBoards; boardNumber ++)
+		{
+			//Each cell is empty, MAX_EXPONENT or a random tile with the same odds
+			for(int cell = 0; cell < totalCells; cell ++)
+			{
+				int kind = random.nextInt(3);
+				board[cell] = (byte)((kind == 0) ? 0 : (kind == 1) ? MAX_EXPONENT : 1 + random.nextInt(MAX_EXPONENT));
+			}
+			long bitBoard = fromPacked(board);
+			for(Twenty48Game.Direction direction : Twenty48Game.Direction.values())
+			{
+				int expectedScore = PackedBoard.move(board, BOARD_DIMENSION, BOARD_DIMENSION, direction, expected, line);
+				if(expectedScore < 0)
+				{
+					System.arraycopy(board, 0, expected, 0, totalCells);
+					expectedScore = 0;
+				}
+
+				Twenty48Game game = Twenty48Game.createEmpty(BOARD_DIMENSION, BOARD_DIMENSION, true, 0);
+				game.loadPosition(board, 0, 0, Twenty48Game.GameStatus.PLAYABLE);
+				game.moveWithoutSpawn(direction);
+				game.getPosition(actual);
+				if(!Arrays.equals(expected, actual) || game.getScore() != expectedScore)
+					throw new IllegalStateException("The game moved " + Arrays.toString(board) + " " + direction + " to "
+							+ Arrays.toString(actual) + " scoring " + game.getScore() + " instead of " + Arrays.toString(expected)
+							+ " scoring " + expectedScore);
+				if(!game.isBitBoard())
+				{
+					switched ++;
+					continue;
+				}
+				if(move(bitBoard, direction) != fromPacked(expected) || score(bitBoard, direction) != expectedScore)
+					throw new IllegalStateException("The row tables moved " + Arrays.toString(board) + " " + direction
+							+ " differently from the packed board");
+			}
+		}
+		System.out.println(totalBoards + " boards match the packed board in every direction, " + switched
+				+ " moves were made on the packed board");
+	}
+
+	static long left(long board)
+	{	//Returns the board shifted towards column 0
+		return  (long)ROW_LEFT[(int)(board 		  & ROW_MASK)]
+			| 	(long)ROW_LEFT[(int)(board >>> 16 & ROW_MASK)] << 16
+			| 	(long)ROW_LEFT[(int)(board >>> 32 & ROW_MASK)] << 32
+			| 	(long)ROW_LEFT[(int)(board >>> 48 & ROW_MASK)] << 48;
+	}
+
+	static long right(long board)
+	{	//Returns the board shifted towards the last column
+		return  (long)ROW_RIGHT[(int)(board 	   & ROW_MASK)]
+			| 	(long)ROW_RIGHT[(int)(board >>> 16 & ROW_MASK)] << 16
+			| 	(long)ROW_RIGHT[(int)(board >>> 32 & ROW_MASK)] << 32
+			| 	(long)ROW_RIGHT[(int)(board >>> 48 & ROW_MASK)] << 48;
+	}
+
+	static long down(long board)
+	{	//Returns the board shifted towards row 0. Columns are shifted as rows of the transposed board
+		return transpose(left(transpose(board)));
+	}
+
+	static long up(long board)
+	{	//Returns the board shifted towards the last row
+		return transpose(right(transpose(board)));
+	}
+
+	static int horizontalScore(long board)
+	{	//Returns the score gained by moving the board left or right
+		return 	ROW_SCORE[(int)(board 		& ROW_MASK)] + ROW_SCORE[(int)(board >>> 16 & ROW_MASK)]
+			+ 	ROW_SCORE[(int)(board >>> 32 & ROW_MASK)] + ROW_SCORE[(int)(board >>> 48 & ROW_MASK)];
+	}
+
+	static int verticalScore(long board)
+	{	//Returns the score gained by moving the board up or down
+		return horizontalScore(transpose(board));
+	}
+
+	static long move(long board, Twenty48Game.Direction direction)
+	{	//Returns the board shifted in the direction
+		switch(direction)
+		{
+			case LEFT:	return left(board);
+			case RIGHT:	return right(board);
+			case UP:	return up(board);
+			default:	return down(board);
+		}
+	}
+
+	static int score(long board, Twenty48Game.Direction direction)
+	{	//Returns the score gained by shifting the board in the direction
+		if(direction == Twenty48Game.Direction.LEFT || direction == Twenty48Game.Direction.RIGHT)	return horizontalScore(board);
+		return verticalScore(board);
+	}
+
+	static long transpose(long board)
+	{
+		/*
+		 * Swaps [row][column] with [column][row]. The 2x2 blocks of nibbles are transposed first and then the 2x2 blocks of
+		 * 8 bit pairs are swapped
+		 */
+		long a1 = board & 0xF0F00F0FF0F00F0FL;
+		long a2 = board & 0x0000F0F00000F0F0L;
+		long a3 = board & 0x0F0F00000F0F0000L;
+		long a = a1 | (a2 << 12) | (a3 >>> 12);
+		long b1 = a & 0xFF00FF0000FF00FFL;
+		long b2 = a & 0x00FF00FF00000000L;
+		long b3 = a & 0x00000000FF00FF00L;
+		return b1 | (b2 >>> 24) | (b3 << 24);
+	}
+
+	static int getExponent(long board, int row, int column)
+	{	//Returns the exponent stored at [row][column]
+		return (int)(board >>> ((row * BOARD_DIMENSION + column) << 2)) & 0xF;
+	}
+
+	static long setExponent(long board, int row, int column, int exponent)
+	{	//Returns the board with the exponent at [row][column] replaced
+		int shift = (row * BOARD_DIMENSION + column) << 2;
+		return (board & ~(0xFL << shift)) | ((long)exponent << shift);
+	}
+
+	static long emptyCellMask(long board)
+	{
+		/*
+		 * Returns a mask with the lowest bit of every empty nibble set. The bits of each nibble are folded into its lowest bit
+		 * so a nibble is empty when its lowest bit is clear
+		 */
+		board |= board >>> 2;
+		board |= board >>> 1;
+		return ~board & 0x1111111111111111L;
+	}
+
+	static boolean hasMergeablePair(long board)
+	{
+		/*
+		 * Returns whether two cells next to each other hold the same tile that can be combined. The board is xored with itself
+		 * shifted by one column and by one row so a pair of same cells becomes a zero nibble. Nibbles that can not be a pair
+		 * (the last column, the last row, empty cells and cells holding MAX_EXPONENT) are filled with ones before testing. Boards
+		 * with a pair of MAX_EXPONENT cells are found by hasMaxExponentLine instead
+		 */
+		long blocked = (emptyCellMask(board) | emptyCellMask(~board)) * 0xF;
+		long horizontal = (board ^ (board >>> 4)) | blocked | 0xF000F000F000F000L;
+		long vertical = (board ^ (board >>> 16)) | blocked | 0xFFFF000000000000L;
+		return (emptyCellMask(horizontal) | emptyCellMask(vertical)) != 0;
+	}
+
+	static boolean hasMaxExponentLine(long board)
+	{
+		/*
+		 * Returns whether any row or column holds two or more cells with MAX_EXPONENT. A move could merge them, whatever lies
+		 * between them now, and their merge does not fit in a nibble so the board can not be moved on a bitboard.
+		 * The lowest bit of every MAX_EXPONENT nibble is set in maxCells. Adding the four nibbles of each row gives the count of
+		 * the row in its lowest nibble, and adding the four rows gives the count of each column in the lowest row. A count of 2
+		 * or more has a bit other than the lowest set
+		 */
+		long maxCells = emptyCellMask(~board);
+		long rowCounts = maxCells + (maxCells >>> 4) + (maxCells >>> 8) + (maxCells >>> 12);
+		long columnCounts = maxCells + (maxCells >>> 16) + (maxCells >>> 32) + (maxCells >>> 48);
+		return ((rowCounts & 0x000E000E000E000EL) | (columnCounts & 0xEEEEL)) != 0;
+	}
+
+	static int maxExponent(long board)
+	{	//Returns the largest exponent on the board
+		int max = 0;
+		for(; board != 0; board >>>= 4)
+			max = Math.max(max, (int)(board & 0xF));
+		return max;
+	}
+
+	static boolean containsExponent(long board, int exponent)
+	{	//Returns whether any cell holds the exponent. Cells holding the exponent become zero after the xor
+		long pattern = 0x1111111111111111L * exponent;
+		return emptyCellMask(board ^ pattern) != 0;
+	}
+
+	static long fromArray(int board[][])
+	{	//Encodes a 4x4 board of tile values. Every tile must be a power of 2 no larger than 2^15 or 0
+		long result = 0;
+		for(int row = 0; row < BOARD_DIMENSION; row ++)
+			for(int column = 0; column < BOARD_DIMENSION; column ++)
+				if(board[row][column] != 0)
+					result = setExponent(result, row, column, Integer.numberOfTrailingZeros(board[row][column]));
+		return result;
+	}
+
+	static long fromPacked(byte board[])
+	{	//Encodes a 4x4 packed board. Every exponent must be no larger than MAX_EXPONENT
+		long result = 0;
+		for(int cell = 0; cell < BOARD_DIMENSION * BOARD_DIMENSION; cell ++)
+			result |= (long)board[cell] << (cell << 2);
+		return result;
+	}
+
+	static int[][] toArray(long board)
+	{	//Decodes the bitboard into a 4x4 board of tile values
+		int result[][] = new int[BOARD_DIMENSION][BOARD_DIMENSION];
+		for(int row = 0; row < BOARD_DIMENSION; row ++)
+			for(int column = 0; column < BOARD_DIMENSION; column ++)
+			{
+				int exponent = getExponent(board, row, column);
+				if(exponent != 0)	result[row][column] = 1 << exponent;
+			}
+		return result;
+	}
+
+	static boolean fits(int board[][])
+	{	//Returns whether a board of tile values can be stored in a bitboard
+		if(board.length != BOARD_DIMENSION || board[0].length != BOARD_DIMENSION)	return false;
+		for(int row = 0; row < BOARD_DIMENSION; row ++)
+			for(int column = 0; column < BOARD_DIMENSION; column ++)
+				if(board[row][column] > (1 << MAX_EXPONENT))	return false;
+		return true;
+	}
+
+	static boolean fits(byte board[])
+	{	//Returns whether a packed board can be stored in a bitboard
+		if(board.length != BOARD_DIMENSION * BOARD_DIMENSION)	return false;
+		for(byte exponent : board)
+			if(exponent < 0 || exponent > MAX_EXPONENT)	return false;
+		return true;
+	}
+
+	private static int reverseRow(int row)
+	{	//Reverses the order of the four nibbles in a row
+		return ((row & 0xF) << 12) | ((row & 0xF0) << 4) | ((row >>> 4) & 0xF0) | (row >>> 12);
+	}
+}
@@ -0,0 +1,171 @@
+package twentyFortyEight;
+import java.io.PrintStream;
+import java.math.BigInteger;
+/*
+ * Class draws the board of a Twenty48Game on a console.
+ *
+ * The board is drawn the same as Twenty48Game.displayBoard always has: a double edged border, cells divided with single lined
+ * borders, row 0 at the bottom and the move count and score below the board. Every cell is as wide as the value of the largest
+ * tile on the board, and never narrower than 4 characters, so tiles of 16384 and larger fit.
+ *
+ * Each frame is built in a buffer that is reused from frame to frame and written to the stream with a single call, instead of
+ * one call per cell and border.
+ *
+ * In ANSI mode the first frame clears the screen and draws the whole board. Later frames move the cursor with ANSI escape codes
+ * and redraw only the cells that changed and the line with the move count and score. The whole board is drawn again when the
+ * game, its size or the width of the cells changes, or after invalidate is called. Call invalidate after printing anything
+ * else on the console so the next frame is drawn in full.
+ */
+public class ConsoleRenderer
+{
+	private static final int MIN_CELL_WIDTH = 4;					//Cells are at least as wide as 1024
+	private static final String ESCAPE = "\u001B[";					//Starts an ANSI escape code
+	private static final String TILE_LABELS[] = new String[PackedBoard.MAX_EXPONENT + 1];	//The text of each tile by exponent
+
+	static
+	{
+		/*
+		 * Static initializer writes the value of every tile a packed board can hold. Values past 2^62 do not fit in a long
+		 */
+		TILE_LABELS[0] = "";
+		for(int exponent = 1; exponent < TILE_LABELS.length; exponent ++)
+			TILE_LABELS[exponent] = (exponent < 63) ? Long.toString(1L << exponent) : BigInteger.ONE.shiftLeft(exponent).toString();
+	}
+
+	public ConsoleRenderer(PrintStream out)
+	{
+		/*
+		 * Constructor creates a renderer that draws every frame in full on the stream
+		 */
+		this(out, false);
+	}
+
+	public ConsoleRenderer(PrintStream out, boolean isAnsi)
+	{
+		/*
+		 * Constructor creates a renderer for the stream. If isAnsi is true frames after the first redraw only the changed cells
+		 */
+		this.out = out;
+		this.isAnsi = isAnsi;
+	}
+
+	public final void render(Twenty48Game game)
+	{
+		/*
+		 * Draws the board, move count and score of the game
+		 */
+		frame.setLength(0);
+		int cellWidth = Math.max(MIN_CELL_WIDTH, TILE_LABELS[game.getMaxExponent()].length());
+		int totalCells = game.TOTAL_ROWS * game.TOTAL_COLUMNS;
+
+		//Was something drawn before that did not match this frame? If so the whole board is drawn
+		boolean isFullFrame = !isAnsi || game != lastGame || cellWidth != lastCellWidth || lastExponents == null
+				|| lastExponents.length != totalCells;
+		if(lastExponents == null || lastExponents.length != totalCells)	lastExponents = new byte[totalCells];
+		if(isFullFrame)
+		{
+			if(isAnsi)	frame.append(ESCAPE).append("2J").append(ESCAPE).append("H");		//Clear the screen and go to the top
+			appendBoard(game, cellWidth);
+		}
+		else
+			appendChangedCells(game, cellWidth);
+		lastGame = game;
+		lastCellWidth = cellWidth;
+
+		out.append(frame);
+		out.flush();
+	}
+
+	public final void invalidate()
+	{	//Makes the next frame draw the whole board
+		lastGame = null;
+	}
+
+	private void appendBoard(Twenty48Game game, int cellWidth)
+	{
+		/*
+		 * Adds the whole board, move count and score to the frame
+		 */
+
+		//Add the top border. The top border will have double border style
+		appendBorder(game.TOTAL_COLUMNS, cellWidth, '\u2554', '\u2550', '\u2564', '\u2557');		//'=' with double corners
+
+		//Add the rows and their bottom borders. The last row has the bottom border of the board instead
+		for(int row = game.TOTAL_ROWS - 1; row >= 0; row --)
+		{
+			frame.append('\u2551');																//'||'
+			for(int column = 0; column < game.TOTAL_COLUMNS; column ++)
+			{
+				int exponent = game.getCellExponent(row, column);
+				lastExponents[row * game.TOTAL_COLUMNS + column] = (byte)exponent;
+				appendCell(exponent, cellWidth);
+				frame.append((column == game.TOTAL_COLUMNS - 1) ? '\u2551' : '\u2502');		//'||' or '|'
+			}
+			frame.append(System.lineSeparator());
+			if(row != 0)	appendBorder(game.TOTAL_COLUMNS, cellWidth, '\u255F', '\u2500', '\u253C', '\u2562');	//'-' with '-|-'
+		}
+		appendBorder(game.TOTAL_COLUMNS, cellWidth, '\u255A', '\u2550', '\u2567', '\u255D');		//'=' with double corners
+		appendStatusLine(game);
+	}
+
+	private void appendChangedCells(Twenty48Game game, int cellWidth)
+	{
+		/*
+		 * Adds escape codes that move to and redraw every cell that changed since the last frame, then redraws the move count
+		 * and score and leaves the cursor below the board
+		 */
+		for(int row = 0; row < game.TOTAL_ROWS; row ++)
+			for(int column = 0; column < game.TOTAL_COLUMNS; column ++)
+			{
+				int exponent = game.getCellExponent(row, column);
+				int cell = row * game.TOTAL_COLUMNS + column;
+				if(lastExponents[cell] == exponent)	continue;
+				lastExponents[cell] = (byte)exponent;
+
+				//The top border is line 1 and each row takes a line and a border below it. The first cell starts after '||'
+				appendCursor(2 + 2 * (game.TOTAL_ROWS - 1 - row), 2 + column * (cellWidth + 1));
+				appendCell(exponent, cellWidth);
+			}
+		appendCursor(2 * game.TOTAL_ROWS + 2, 1);
+		frame.append(ESCAPE).append("2K");												//Clear the line
+		appendStatusLine(game);
+	}
+
+	private void appendBorder(int totalColumns, int cellWidth, char left, char line, char divider, char right)
+	{	//Adds a horizontal border with the characters for its left end, the line over a cell, between cells and the right end
+		frame.append(left);
+		for(int column = 0; column < totalColumns; column ++)
+		{
+			for(int i = 0; i < cellWidth; i ++)
+				frame.append(line);
+			frame.append((column == totalColumns - 1) ? right : divider);
+		}
+		frame.append(System.lineSeparator());
+	}
+
+	private void appendCell(int exponent, int cellWidth)
+	{	//Adds the value of a cell right aligned to the width of a cell. An empty cell is blank
+		String label = TILE_LABELS[exponent];
+		for(int i = label.length(); i < cellWidth; i ++)
+			frame.append(' ');
+		frame.append(label);
+	}
+
+	private void appendStatusLine(Twenty48Game game)
+	{	//Adds the move count and score
+		frame.append("Moves Made: ").append(game.getMoveCount()).append(" Score: ").append(game.getScore());
+		frame.append(System.lineSeparator());
+	}
+
+	private void appendCursor(int line, int column)
+	{	//Adds the escape code that moves the cursor to a line and column, both starting at 1
+		frame.append(ESCAPE).append(line).append(';').append(column).append('H');
+	}
+
+	private final PrintStream out;
+	private final boolean isAnsi;
+	private final StringBuilder frame = new StringBuilder();		//The frame being built, reused for every frame
+	private Twenty48Game lastGame;									//The game of the last frame, null to draw the next frame in full
+	private int lastCellWidth;
+	private byte lastExponents[];									//The exponent of every cell drawn by the last frame, row by row
+}
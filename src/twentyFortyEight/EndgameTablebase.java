@@ -0,0 +1,254 @@
+package twentyFortyEight;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class looks up the exact solution of every position of a 3x3 game in a tablebase file written by EndgameTablebaseGenerator.
+ *
+ * For every position that can be reached from the start of a 3x3 game the tablebase holds the best move and the score expected
+ * to be gained from the position until the game ends, when the best move is always played and pieces are spawned with the
+ * probabilities of Twenty48Game.spawn(). No tile larger than 2^10 can be made on a 3x3 board, so every board fits in 36 bits,
+ * 4 bits per cell numbered row by row with cell 0 in the lowest bits.
+ *
+ * A position is stored once for all 8 rotations and reflections of its board, as the canonical board: the one whose key is the
+ * smallest. Positions are grouped into levels by the sum of their tiles divided by 2. Every move spawns a 2 or a 4, so every
+ * move goes to a higher level and the levels can be solved from the last one down. All values are big endian:
+ *
+ * 		Header			MAGIC (4), VERSION (2), rows (1), columns (1), number of levels (4), number of positions (4)
+ * 		Keys			Canonical board of every position, 5 bytes each. Sorted within each level, the levels in order
+ * 		Levels			Index of the first position of every level, and the number of positions at the end (4 each)
+ * 		Values			Expected score gained from every position (4 byte float)
+ * 		Moves			Ordinal of the best direction on the canonical board of every position, -1 if no move is possible (1 each)
+ *
+ * The file is memory mapped. A lookup finds the canonical board and the level of the position and binary searches the keys of
+ * the level, which takes well under a microsecond. The tablebase is thread safe, so it can be used as the MovePolicy of a
+ * SimulationRunner to compare other policies with perfect play.
+ */
+public class EndgameTablebase implements MovePolicy
+{
+	public static final int BOARD_DIMENSION = Twenty48Game.MIN_BOARD_DIMENSION;
+	static final int TOTAL_CELLS = BOARD_DIMENSION * BOARD_DIMENSION;
+	static final int MAX_EXPONENT = 15;				//The largest exponent a 4 bit cell of a key can hold
+
+	static final int MAGIC = 0x32303445;			//"204E", the first 4 bytes of a tablebase
+	static final short VERSION = 1;					//The version of the tablebase format
+	static final int HEADER_SIZE = 16;				//Bytes before the keys
+	static final int KEY_SIZE = 5;					//Bytes of a key in the file
+	static final int TOTAL_TRANSFORMS = 8;			//Rotations and reflections of a square board, the first is the identity
+	private static final Direction DIRECTIONS[] = Direction.values();
+
+	/*
+	 * TRANSFORM_SHIFTS[t][cell] is the bit of the key where transform t moves the cell. TRANSFORM_DIRECTIONS[t][d] is the
+	 * ordinal of the direction d becomes under transform t. Moving a board and then transforming it gives the same board as
+	 * transforming it and then moving in the transformed direction
+	 */
+	static final int TRANSFORM_SHIFTS[][] = new int[TOTAL_TRANSFORMS][TOTAL_CELLS];
+	static final int TRANSFORM_DIRECTIONS[][] = new int[TOTAL_TRANSFORMS][DIRECTIONS.length];
+	static
+	{
+		//Each transform is a 2x2 matrix of 0, 1 and -1 with one non zero entry in each row and column, applied to the row and
+		//column of a cell counted from the center. The row of a direction is the row its tiles move towards, UP is the last row
+		int directionRows[] = {0, 0, 1, -1}, directionColumns[] = {-1, 1, 0, 0};
+		int center = BOARD_DIMENSION / 2, transform = 0;
+		for(int swap = 0; swap < 2; swap ++)
+			for(int rowSign = 1; rowSign >= -1; rowSign -= 2)
+				for(int columnSign = 1; columnSign >= -1; columnSign -= 2, transform ++)
+				{
+					for(int cell = 0; cell < TOTAL_CELLS; cell ++)
+					{
+						int row = cell / BOARD_DIMENSION - center, column = cell % BOARD_DIMENSION - center;
+						int newRow = rowSign * ((swap == 0) ? row : column);
+						int newColumn = columnSign * ((swap == 0) ? column : row);
+						TRANSFORM_SHIFTS[transform][cell] = ((newRow + center) * BOARD_DIMENSION + newColumn + center) << 2;
+					}
+					for(int direction = 0; direction < DIRECTIONS.length; direction ++)
+					{
+						int row = directionRows[direction], column = directionColumns[direction];
+						int newRow = rowSign * ((swap == 0) ? row : column);
+						int newColumn = columnSign * ((swap == 0) ? column : row);
+						for(int newDirection = 0; newDirection < DIRECTIONS.length; newDirection ++)
+							if(directionRows[newDirection] == newRow && directionColumns[newDirection] == newColumn)
+								TRANSFORM_DIRECTIONS[transform][direction] = newDirection;
+					}
+				}
+	}
+
+	private EndgameTablebase(ByteBuffer tablebase, int totalLevels, int totalPositions)
+	{
+		/*
+		 * Constructor holds the mapped tablebase and copies the index of the levels to the heap
+		 */
+		this.tablebase = tablebase;
+		this.totalPositions = totalPositions;
+		this.levelStarts = new int[totalLevels + 1];
+		long levelsOffset = HEADER_SIZE + (long)KEY_SIZE * totalPositions;
+		for(int level = 0; level <= totalLevels; level ++)
+			levelStarts[level] = tablebase.getInt((int)(levelsOffset + 4L * level));
+		this.valuesOffset = (int)(levelsOffset + 4L * (totalLevels + 1));
+		this.movesOffset = valuesOffset + 4 * totalPositions;
+	}
+
+	public static EndgameTablebase open(Path path) throws IOException
+	{
+		/*
+		 * Maps a tablebase file and reads its header.
+		 * Throws IOException if the file is not a tablebase, is incomplete or was written by a newer version
+		 */
+		ByteBuffer tablebase;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if(channel.size() > Integer.MAX_VALUE)	throw new IOException("The tablebase is too large to map");
+			tablebase = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+		}
+
+		//Read and check the header
+		if(tablebase.limit() < HEADER_SIZE)		throw new EOFException("The tablebase is incomplete");
+		if(tablebase.getInt(0) != MAGIC)		throw new IOException("The file is not a tablebase");
+		int version = tablebase.getShort(4);
+		if(version != VERSION)					throw new IOException("Unsupported tablebase version " + version);
+		if(tablebase.get(6) != BOARD_DIMENSION || tablebase.get(7) != BOARD_DIMENSION)
+			throw new IOException("The tablebase board is " + tablebase.get(6) + "x" + tablebase.get(7));
+		int totalLevels = tablebase.getInt(8), totalPositions = tablebase.getInt(12);
+		if(totalLevels < 0 || totalPositions < 0)	throw new IOException("The tablebase is corrupt");
+		if(tablebase.limit() != fileSize(totalLevels, totalPositions))	throw new EOFException("The tablebase is incomplete");
+		return new EndgameTablebase(tablebase, totalLevels, totalPositions);
+	}
+
+	public final int getTotalPositions()
+	{	//Returns the number of positions in the tablebase, each standing for up to 8 boards
+		return totalPositions;
+	}
+
+	@Override
+	public Direction chooseMove(Twenty48Game game)
+	{
+		/*
+		 * Returns the best move of the game, or null if no move is possible or the position is not in the tablebase.
+		 * Throws IllegalArgumentException if the game is not 3x3
+		 */
+		long key = keyOf(game);
+		int transform = canonicalTransform(key);
+		int position = find(transformKey(key, transform));
+		if(position < 0)	return null;
+		int canonicalDirection = tablebase.get(movesOffset + position);
+		if(canonicalDirection < 0)	return null;
+		for(int direction = 0; direction < DIRECTIONS.length; direction ++)
+			if(TRANSFORM_DIRECTIONS[transform][direction] == canonicalDirection)	return DIRECTIONS[direction];
+		throw new IllegalStateException("The tablebase is corrupt");
+	}
+
+	public final double getExpectedScore(Twenty48Game game)
+	{
+		/*
+		 * Returns the final score the game is expected to have when the best move is always played, or NaN if the position is
+		 * not in the tablebase.
+		 * Throws IllegalArgumentException if the game is not 3x3
+		 */
+		int position = find(canonicalKey(keyOf(game)));
+		if(position < 0)	return Double.NaN;
+		return game.getScore() + tablebase.getFloat(valuesOffset + 4 * position);
+	}
+
+	final int find(long canonicalKey)
+	{
+		/*
+		 * Returns the index of the position with the canonical key, or -1 if it is not in the tablebase
+		 */
+		int level = level(canonicalKey);
+		if(level >= levelStarts.length - 1)	return -1;
+		int low = levelStarts[level], high = levelStarts[level + 1] - 1;
+		while(low <= high)
+		{
+			int middle = (low + high) >>> 1;
+			long middleKey = readKey(tablebase, HEADER_SIZE + KEY_SIZE * middle);
+			if(middleKey < canonicalKey)		low = middle + 1;
+			else if(middleKey > canonicalKey)	high = middle - 1;
+			else								return middle;
+		}
+		return -1;
+	}
+
+	static long keyOf(Twenty48Game game)
+	{
+		/*
+		 * Returns the key of the board of a game.
+		 * Throws IllegalArgumentException if the game is not 3x3 or has a tile too large for a key
+		 */
+		if(game.TOTAL_ROWS != BOARD_DIMENSION || game.TOTAL_COLUMNS != BOARD_DIMENSION)
+			throw new IllegalArgumentException("The tablebase only holds " + BOARD_DIMENSION + "x" + BOARD_DIMENSION + " games");
+		long key = 0;
+		for(int cell = 0; cell < TOTAL_CELLS; cell ++)
+		{
+			long exponent = game.getCellExponent(cell / BOARD_DIMENSION, cell % BOARD_DIMENSION);
+			if(exponent > MAX_EXPONENT)	throw new IllegalArgumentException("The board has a tile larger than 2^" + MAX_EXPONENT);
+			key |= exponent << (cell << 2);
+		}
+		return key;
+	}
+
+	static long transformKey(long key, int transform)
+	{	//Returns the key of a board after a transform
+		int shifts[] = TRANSFORM_SHIFTS[transform];
+		long transformed = 0;
+		for(int cell = 0; cell < TOTAL_CELLS; cell ++, key >>>= 4)
+			transformed |= (key & 0xF) << shifts[cell];
+		return transformed;
+	}
+
+	static int canonicalTransform(long key)
+	{	//Returns the transform that gives the canonical key of a board, the first one if several do
+		int best = 0;
+		long bestKey = key;
+		for(int transform = 1; transform < TOTAL_TRANSFORMS; transform ++)
+		{
+			long transformed = transformKey(key, transform);
+			if(transformed < bestKey)
+			{
+				bestKey = transformed;
+				best = transform;
+			}
+		}
+		return best;
+	}
+
+	static long canonicalKey(long key)
+	{	//Returns the smallest key of the board and its rotations and reflections
+		long bestKey = key;
+		for(int transform = 1; transform < TOTAL_TRANSFORMS; transform ++)
+			bestKey = Math.min(bestKey, transformKey(key, transform));
+		return bestKey;
+	}
+
+	static int level(long key)
+	{	//Returns the level of a board, the sum of its tiles divided by 2
+		int level = 0;
+		for(int cell = 0; cell < TOTAL_CELLS; cell ++, key >>>= 4)
+		{
+			int exponent = (int)(key & 0xF);
+			if(exponent != 0)	level += 1 << (exponent - 1);
+		}
+		return level;
+	}
+
+	static long readKey(ByteBuffer buffer, int offset)
+	{	//Returns the 5 byte key at the offset
+		return ((buffer.getInt(offset) & 0xFFFFFFFFL) << 8) | (buffer.get(offset + 4) & 0xFF);
+	}
+
+	static long fileSize(int totalLevels, int totalPositions)
+	{	//Returns the size of a tablebase with the number of levels and positions
+		return HEADER_SIZE + (long)(KEY_SIZE + 4 + 1) * totalPositions + 4L * (totalLevels + 1);
+	}
+
+	private final ByteBuffer tablebase;
+	private final int totalPositions;
+	private final int levelStarts[];				//Index of the first position of every level and the number of positions
+	private final int valuesOffset;
+	private final int movesOffset;
+}
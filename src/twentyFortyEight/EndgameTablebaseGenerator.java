@@ -0,0 +1,441 @@
+package twentyFortyEight;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class writes the tablebase read by EndgameTablebase. Refer to EndgameTablebase for the format. Generating it takes minutes
+ * and the file is about 500 MB, so it is done once offline:
+ *
+ * 		java twentyFortyEight.EndgameTablebaseGenerator file [threads]
+ *
+ * Generating is done in two passes over the levels. Every move adds a 2 or a 4 to the board, so the positions reached from a
+ * level are all in the next two levels and the positions of a game form a graph without cycles.
+ *
+ * The first pass finds every reachable position. Starting from the boards with two spawned pieces it takes the levels in
+ * increasing order, writes the canonical boards of a level to the file and adds every board reached by a move and a spawn from
+ * them to the next two levels. The second pass takes the levels in decreasing order and solves every position of a level from
+ * the values of the next two: the value of a move is the score it gains plus the average of the values of the boards its spawns
+ * lead to, weighted with the probabilities of Twenty48Game.spawn(), and the value of a position is the value of its best move,
+ * or 0 if no move is possible. This is retrograde analysis, every position is solved exactly once.
+ *
+ * The positions of a level are independent of each other in both passes, so each level is split into blocks that worker threads
+ * take from an atomic counter. Only the two levels after the one being worked on are held in memory. The header is written last,
+ * so a file whose generation did not finish is not read as a tablebase.
+ */
+public class EndgameTablebaseGenerator
+{
+	private static final int POSITIONS_PER_BLOCK = 1024;		//Number of positions a worker takes from the counter at a time
+	private static final int TOTAL_CELLS = EndgameTablebase.TOTAL_CELLS;
+	private static final int DIMENSION = EndgameTablebase.BOARD_DIMENSION;
+	private static final int MAX_LEVEL = TOTAL_CELLS << (EndgameTablebase.MAX_EXPONENT - 1);	//Level of a board of the largest keys
+	private static final double SPAWN_2_PROBABILITY = 0.9;		//The same probabilities as Twenty48Game.spawn()
+	private static final Direction DIRECTIONS[] = Direction.values();
+
+	public EndgameTablebaseGenerator(int totalThreads)
+	{
+		/*
+		 * Constructor creates a generator that uses totalThreads worker threads
+		 */
+		if(totalThreads < 1)	throw new IllegalArgumentException("totalThreads must be at least 1");
+		this.totalThreads = totalThreads;
+	}
+
+	public int generate(Path path) throws IOException, InterruptedException
+	{
+		/*
+		 * Finds and solves every reachable 3x3 position and writes the tablebase to a file. The file is created or replaced.
+		 * Returns the number of positions written
+		 */
+		ExecutorService executor = Executors.newFixedThreadPool(totalThreads);
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			//Leave the header empty until the tablebase is complete
+			write(channel, ByteBuffer.allocate(EndgameTablebase.HEADER_SIZE), 0);
+			int levelStarts[] = findPositions(channel, executor);
+			int totalLevels = levelStarts.length - 1, totalPositions = levelStarts[totalLevels];
+			solvePositions(channel, executor, levelStarts);
+
+			ByteBuffer header = ByteBuffer.allocate(EndgameTablebase.HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+			header.putInt(EndgameTablebase.MAGIC).putShort(EndgameTablebase.VERSION);
+			header.put((byte)DIMENSION).put((byte)DIMENSION).putInt(totalLevels).putInt(totalPositions);
+			header.flip();
+			write(channel, header, 0);
+			return totalPositions;
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		/*
+		 * Generates a tablebase and prints its size and the score a new game is expected to reach with perfect play.
+		 * Arguments: file [threads], threads defaults to the number of processors
+		 */
+		if(args.length < 1)
+		{
+			System.out.println("Usage: EndgameTablebaseGenerator file [threads]");
+			return;
+		}
+		Path path = Paths.get(args[0]);
+		int totalThreads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		long startTime = System.nanoTime();
+		int totalPositions = new EndgameTablebaseGenerator(totalThreads).generate(path);
+		System.out.printf("%d positions written to %s in %.1f s%n", totalPositions, path, (System.nanoTime() - startTime) / 1e9);
+
+		//Average the expected score over every way the first two pieces can be spawned
+		EndgameTablebase tablebase = EndgameTablebase.open(path);
+		Twenty48Game game = Twenty48Game.createEmpty(DIMENSION, DIMENSION, false, 0);
+		byte board[] = new byte[TOTAL_CELLS];
+		double expectedScore = 0;
+		for(int first = 0; first < TOTAL_CELLS; first ++)
+			for(int second = 0; second < TOTAL_CELLS; second ++)
+				for(int firstExponent = 1; firstExponent <= 2; firstExponent ++)
+					for(int secondExponent = 1; secondExponent <= 2 && second != first; secondExponent ++)
+					{
+						Arrays.fill(board, (byte)0);
+						board[first] = (byte)firstExponent;
+						board[second] = (byte)secondExponent;
+						game.loadPosition(board, 0, 0, Twenty48Game.GameStatus.PLAYABLE);
+						expectedScore += tablebase.getExpectedScore(game) * spawnProbability(firstExponent)
+								* spawnProbability(secondExponent) / (TOTAL_CELLS * (TOTAL_CELLS - 1));
+					}
+		System.out.printf("Expected score of a new game with perfect play: %.2f%n", expectedScore);
+	}
+
+	private int[] findPositions(FileChannel channel, ExecutorService executor) throws IOException, InterruptedException
+	{
+		/*
+		 * First pass. Writes the canonical key of every reachable position to the file level by level.
+		 * Returns the index of the first position of every level followed by the number of positions
+		 */
+		LongList pending[] = new LongList[MAX_LEVEL + 3];		//Boards found for each level not yet written
+		for(int first = 0; first < TOTAL_CELLS; first ++)
+			for(int second = 0; second < TOTAL_CELLS; second ++)
+				for(int firstExponent = 1; firstExponent <= 2; firstExponent ++)
+					for(int secondExponent = 1; secondExponent <= 2 && second != first; secondExponent ++)
+					{
+						long key = ((long)firstExponent << (first << 2)) | ((long)secondExponent << (second << 2));
+						pendingLevel(pending, EndgameTablebase.level(key)).add(EndgameTablebase.canonicalKey(key));
+					}
+
+		List<Expander> workers = new ArrayList<Expander>(totalThreads);
+		for(int i = 0; i < totalThreads; i ++)
+			workers.add(new Expander());
+		int levelStarts[] = new int[MAX_LEVEL + 2];
+		int totalPositions = 0, lastLevel = 0;
+		for(int level = 0; level <= lastLevel + 2 && level <= MAX_LEVEL; level ++)
+		{
+			levelStarts[level] = totalPositions;
+			if(pending[level] == null)	continue;
+			levelKeys = pending[level].sortedUnique();
+			pending[level] = null;
+			lastLevel = level;
+
+			//Write the keys of the level
+			ByteBuffer keys = ByteBuffer.allocate(EndgameTablebase.KEY_SIZE * levelKeys.length).order(ByteOrder.BIG_ENDIAN);
+			for(long key : levelKeys)
+				keys.putInt((int)(key >>> 8)).put((byte)key);
+			keys.flip();
+			write(channel, keys, EndgameTablebase.HEADER_SIZE + (long)EndgameTablebase.KEY_SIZE * totalPositions);
+			if(totalPositions + (long)levelKeys.length > Integer.MAX_VALUE)	throw new IllegalStateException("Too many positions");
+			totalPositions += levelKeys.length;
+
+			//Find the boards the level leads to and add them to the next two levels
+			run(executor, workers, levelKeys.length);
+			for(Expander worker : workers)
+			{
+				pendingLevel(pending, level + 1).addAll(worker.spawned2);
+				pendingLevel(pending, level + 2).addAll(worker.spawned4);
+				worker.spawned2.clear();
+				worker.spawned4.clear();
+			}
+		}
+		int totalLevels = lastLevel + 1;
+		levelStarts[totalLevels] = totalPositions;
+		levelKeys = null;
+		return Arrays.copyOf(levelStarts, totalLevels + 1);
+	}
+
+	private void solvePositions(FileChannel channel, ExecutorService executor, int levelStarts[])
+			throws IOException, InterruptedException
+	{
+		/*
+		 * Second pass. Solves the positions level by level from the last one down and writes their values and best moves
+		 */
+		int totalLevels = levelStarts.length - 1, totalPositions = levelStarts[totalLevels];
+		long valuesOffset = EndgameTablebase.HEADER_SIZE + (long)EndgameTablebase.KEY_SIZE * totalPositions + 4L * (totalLevels + 1);
+		long movesOffset = valuesOffset + 4L * totalPositions;
+
+		//Write the index of the levels between the keys and the values
+		ByteBuffer levels = ByteBuffer.allocate(4 * (totalLevels + 1)).order(ByteOrder.BIG_ENDIAN);
+		for(int start : levelStarts)
+			levels.putInt(start);
+		levels.flip();
+		write(channel, levels, valuesOffset - 4L * (totalLevels + 1));
+
+		List<Solver> workers = new ArrayList<Solver>(totalThreads);
+		for(int i = 0; i < totalThreads; i ++)
+			workers.add(new Solver());
+		nextKeys = afterNextKeys = new long[0];
+		nextValues = afterNextValues = new double[0];
+		for(int level = totalLevels - 1; level >= 0; level --)
+		{
+			//Read the keys of the level back from the file
+			int first = levelStarts[level], size = levelStarts[level + 1] - first;
+			ByteBuffer keys = ByteBuffer.allocate(EndgameTablebase.KEY_SIZE * size).order(ByteOrder.BIG_ENDIAN);
+			read(channel, keys, EndgameTablebase.HEADER_SIZE + (long)EndgameTablebase.KEY_SIZE * first);
+			levelKeys = new long[size];
+			for(int i = 0; i < size; i ++)
+				levelKeys[i] = EndgameTablebase.readKey(keys, EndgameTablebase.KEY_SIZE * i);
+			levelValues = new double[size];
+			levelMoves = new byte[size];
+			run(executor, workers, size);
+
+			//Write the values and moves of the level
+			ByteBuffer values = ByteBuffer.allocate(4 * size).order(ByteOrder.BIG_ENDIAN);
+			for(double value : levelValues)
+				values.putFloat((float)value);
+			values.flip();
+			write(channel, values, valuesOffset + 4L * first);
+			write(channel, ByteBuffer.wrap(levelMoves), movesOffset + first);
+
+			//The level is needed to solve the two levels before it
+			afterNextKeys = nextKeys;
+			afterNextValues = nextValues;
+			nextKeys = levelKeys;
+			nextValues = levelValues;
+		}
+		levelKeys = nextKeys = afterNextKeys = null;
+		levelValues = nextValues = afterNextValues = null;
+		levelMoves = null;
+	}
+
+	private void run(ExecutorService executor, List<? extends Worker> workers, int totalPositions) throws InterruptedException
+	{
+		/*
+		 * Runs the workers on the positions of the level being worked on and waits for them to finish
+		 */
+		nextPosition.set(0);
+		levelSize = totalPositions;
+		try
+		{
+			for(Future<Void> worker : executor.invokeAll(workers))
+				worker.get();
+		}
+		catch(ExecutionException e)
+		{
+			//Rethrow what stopped a worker on the caller's thread
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException)	throw (RuntimeException)cause;
+			if(cause instanceof Error)				throw (Error)cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private static LongList pendingLevel(LongList pending[], int level)
+	{	//Returns the list of boards found for a level, creating it if needed
+		if(pending[level] == null)	pending[level] = new LongList();
+		return pending[level];
+	}
+
+	private static double spawnProbability(int exponent)
+	{	//Returns the probability that a spawned piece has the exponent
+		return (exponent == 1) ? SPAWN_2_PROBABILITY : 1 - SPAWN_2_PROBABILITY;
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{	//Writes the whole buffer to the file at the position
+		while(buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private static void read(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{	//Fills the buffer from the file at the position and flips it
+		while(buffer.hasRemaining())
+		{
+			int bytesRead = channel.read(buffer, position);
+			if(bytesRead < 0)	throw new IOException("The tablebase file was truncated while it was generated");
+			position += bytesRead;
+		}
+		buffer.flip();
+	}
+
+	private abstract class Worker implements Callable<Void>
+	{
+		/*
+		 * Class takes blocks of positions of the level being worked on from the counter until every position has been taken
+		 */
+		@Override
+		public Void call()
+		{
+			int first;
+			while((first = nextPosition.getAndAdd(POSITIONS_PER_BLOCK)) < levelSize)
+			{
+				int last = Math.min(first + POSITIONS_PER_BLOCK, levelSize);
+				for(int position = first; position < last; position ++)
+					process(position);
+			}
+			return null;
+		}
+
+		abstract void process(int position);
+
+		final void unpack(long key)
+		{	//Stores the board of a key in board
+			for(int cell = 0; cell < TOTAL_CELLS; cell ++, key >>>= 4)
+				board[cell] = (byte)(key & 0xF);
+		}
+
+		final long moveKey(Direction direction)
+		{	//Moves board into moved. Returns the key of the moved board or -1 if the move is not possible
+			score = PackedBoard.move(board, DIMENSION, DIMENSION, direction, moved, line);
+			if(score < 0)	return -1;
+			long key = 0;
+			for(int cell = 0; cell < TOTAL_CELLS; cell ++)
+				key |= (long)moved[cell] << (cell << 2);
+			return key;
+		}
+
+		final byte board[] = new byte[TOTAL_CELLS];
+		final byte moved[] = new byte[TOTAL_CELLS];
+		final byte line[] = new byte[DIMENSION];
+		int score;								//Score gained by the last moveKey
+	}
+
+	private final class Expander extends Worker
+	{
+		/*
+		 * Class finds the boards a position leads to for the first pass
+		 */
+		@Override
+		void process(int position)
+		{
+			unpack(levelKeys[position]);
+			for(Direction direction : DIRECTIONS)
+			{
+				long movedKey = moveKey(direction);
+				if(movedKey < 0)	continue;
+				for(int cell = 0; cell < TOTAL_CELLS; cell ++)
+					if(moved[cell] == 0)
+					{
+						spawned2.add(EndgameTablebase.canonicalKey(movedKey | (1L << (cell << 2))));
+						spawned4.add(EndgameTablebase.canonicalKey(movedKey | (2L << (cell << 2))));
+					}
+			}
+		}
+
+		final LongList spawned2 = new LongList();		//Boards of the next level
+		final LongList spawned4 = new LongList();		//Boards of the level after it
+	}
+
+	private final class Solver extends Worker
+	{
+		/*
+		 * Class finds the best move and value of a position for the second pass
+		 */
+		@Override
+		void process(int position)
+		{
+			unpack(levelKeys[position]);
+			int bestDirection = -1;
+			double bestValue = 0;
+			for(Direction direction : DIRECTIONS)
+			{
+				long movedKey = moveKey(direction);
+				if(movedKey < 0)	continue;
+
+				//Average the values of every spawn. A move always leaves an empty cell
+				double spawnValues = 0;
+				int emptyCells = 0;
+				for(int cell = 0; cell < TOTAL_CELLS; cell ++)
+					if(moved[cell] == 0)
+					{
+						spawnValues += SPAWN_2_PROBABILITY * value(nextKeys, nextValues, movedKey | (1L << (cell << 2)));
+						spawnValues += (1 - SPAWN_2_PROBABILITY) * value(afterNextKeys, afterNextValues, movedKey | (2L << (cell << 2)));
+						emptyCells ++;
+					}
+				double value = score + spawnValues / emptyCells;
+				if(bestDirection < 0 || value > bestValue)
+				{
+					bestDirection = direction.ordinal();
+					bestValue = value;
+				}
+			}
+			levelValues[position] = bestValue;
+			levelMoves[position] = (byte)bestDirection;
+		}
+
+		private double value(long keys[], double values[], long key)
+		{	//Returns the value of a solved board
+			int index = Arrays.binarySearch(keys, EndgameTablebase.canonicalKey(key));
+			if(index < 0)	throw new IllegalStateException("A board reached by a move was not found by the first pass");
+			return values[index];
+		}
+	}
+
+	private static final class LongList
+	{
+		/*
+		 * Class is a growable list of longs
+		 */
+		void add(long value)
+		{
+			if(size == values.length)	values = Arrays.copyOf(values, size * 2);
+			values[size ++] = value;
+		}
+
+		void addAll(LongList list)
+		{
+			if(size + list.size > values.length)	values = Arrays.copyOf(values, Math.max(size + list.size, size * 2));
+			System.arraycopy(list.values, 0, values, size, list.size);
+			size += list.size;
+		}
+
+		void clear()
+		{
+			size = 0;
+		}
+
+		long[] sortedUnique()
+		{	//Returns the values sorted with duplicates removed
+			Arrays.sort(values, 0, size);
+			int unique = 0;
+			for(int i = 0; i < size; i ++)
+				if(unique == 0 || values[unique - 1] != values[i])	values[unique ++] = values[i];
+			return Arrays.copyOf(values, unique);
+		}
+
+		private long values[] = new long[64];
+		private int size;
+	}
+
+	private final int totalThreads;
+	private final AtomicInteger nextPosition = new AtomicInteger();		//First position of the next block a worker takes
+	private volatile int levelSize;										//Number of positions of the level being worked on
+	private long levelKeys[];											//Canonical keys of the level being worked on
+	private double levelValues[];										//Values of the level being solved
+	private byte levelMoves[];											//Best canonical directions of the level being solved
+	private long nextKeys[];											//Keys and values of the level after the one being solved
+	private double nextValues[];
+	private long afterNextKeys[];										//Keys and values of the level after that
+	private double afterNextValues[];
+}
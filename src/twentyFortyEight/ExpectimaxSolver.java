@@ -0,0 +1,336 @@
+package twentyFortyEight;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class advises the best move for a position of a 4x4 Twenty48Game using an expectimax search.
+ *
+ * The search alternates between move nodes, where the player picks the direction with the highest value, and chance nodes,
+ * where a 2 (90% of the time) or a 4 (10% of the time) is spawned into each empty cell with equal probability, the same model
+ * Twenty48Game.spawn() uses. The value of a position is the score expected to be gained within the searched number of moves.
+ * Branches that are too unlikely to matter (cumulative probability below PROBABILITY_CUTOFF) are not searched.
+ *
+ * The root moves and the chance nodes near the root are searched in parallel on a fork-join pool. Chance nodes are stored in a
+ * transposition table shared by all threads so positions reached by different move orders are searched once. The table has a
+ * fixed number of slots, a slot is replaced whenever a different position hashes to it.
+ *
+ * The search deepens one move at a time up to the maximum depth and stops when the time budget runs out, returning the result
+ * of the deepest completed search. A search of depth 1 is always completed so advise always returns a move when one exists.
+ *
+ * The search works on a copy of the bitboard. The game is never changed and no state is saved in it. A 4x4 game with two 32768
+ * tiles in a row or column can not be moved on a bitboard (see BitBoard), or has already moved to the packed board, so the move
+ * that gains the most score now is picked instead, as a search of depth 1 would. Boards deeper in a search are always moved on the
+ * bitboard, which leaves two 32768 tiles apart, so a search does not count merging them.
+ *
+ * The solver is also a MovePolicy so it can play games in a SimulationRunner.
+ */
+public class ExpectimaxSolver implements MovePolicy
+{
+	public static final int DEFAULT_TABLE_SIZE = 1 << 20;		//Default number of transposition table slots
+
+	private static final double PROBABILITY_CUTOFF = 0.0001;		//Branches less likely than this are not searched
+	private static final int PARALLEL_DEPTH = 3;					//Chance nodes with at least this depth left are searched in parallel
+	private static final Direction DIRECTIONS[] = Direction.values();
+
+	public static final class Advice
+	{
+		//Class holds the result of a search
+		private final Direction direction;
+		private final double expectedScore;
+		private final int depth;
+
+		Advice(Direction direction, double expectedScore, int depth)
+		{
+			this.direction = direction;
+			this.expectedScore = expectedScore;
+			this.depth = depth;
+		}
+
+		public Direction getDirection()
+		{	//Getter for the best direction. null if no move is possible
+			return direction;
+		}
+
+		public double getExpectedScore()
+		{	//Getter for the score the game is expected to have after the searched number of moves
+			return expectedScore;
+		}
+
+		public int getDepth()
+		{	//Getter for the number of moves searched
+			return depth;
+		}
+	}
+
+	public ExpectimaxSolver(int maxDepth, long timeBudgetMillis)
+	{
+		/*
+		 * Constructor creates a solver that searches at most maxDepth moves ahead for at most timeBudgetMillis milliseconds per
+		 * call on the common fork-join pool
+		 */
+		this(maxDepth, timeBudgetMillis, DEFAULT_TABLE_SIZE, ForkJoinPool.commonPool());
+	}
+
+	public ExpectimaxSolver(int maxDepth, long timeBudgetMillis, int tableSize, ForkJoinPool pool)
+	{
+		/*
+		 * Constructor creates a solver with a transposition table of tableSize slots (rounded up to a power of 2)
+		 * that searches on the specified pool
+		 */
+		if(maxDepth < 1)		throw new IllegalArgumentException("maxDepth must be at least 1");
+		if(tableSize < 1)		throw new IllegalArgumentException("tableSize must be at least 1");
+		this.maxDepth = maxDepth;
+		this.timeBudgetNanos = timeBudgetMillis * 1000000L;
+		this.pool = pool;
+		int slots = Integer.highestOneBit(tableSize);
+		if(slots < tableSize)	slots <<= 1;
+		this.table = new AtomicReferenceArray<TableEntry>(slots);
+		this.tableMask = slots - 1;
+	}
+
+	public Advice advise(Twenty48Game game)
+	{
+		/*
+		 * Searches the position of the game and returns the best direction and the expected score.
+		 * Throws IllegalArgumentException if the game is not 4x4
+		 */
+		if(game.TOTAL_ROWS != BitBoard.BOARD_DIMENSION || game.TOTAL_COLUMNS != BitBoard.BOARD_DIMENSION)
+			throw new IllegalArgumentException("The solver only supports 4x4 games, not " + game.TOTAL_ROWS + "x"
+					+ game.TOTAL_COLUMNS);
+		if(!game.isBitBoard() || BitBoard.hasMaxExponentLine(game.getBitBoard()))	return adviseGreedy(game);
+
+		long board = game.getBitBoard();
+		long deadline = System.nanoTime() + timeBudgetNanos;
+		Advice advice = new Advice(null, game.getScore(), 0);
+
+		//Search one move deeper each time. Keep the last completed search if the time runs out
+		for(int depth = 1; depth <= maxDepth; depth ++)
+		{
+			Search search = new Search(depth == 1 ? Long.MAX_VALUE : deadline);
+			Search.RootTask root = search.new RootTask(board, depth);
+			pool.invoke(root);
+			if(search.aborted)	break;
+			advice = new Advice(root.bestDirection, game.getScore() + root.bestValue, depth);
+			if(root.bestDirection == null || System.nanoTime() >= deadline)	break;
+		}
+		return advice;
+	}
+
+	private static Advice adviseGreedy(Twenty48Game game)
+	{
+		/*
+		 * Returns the possible move that gains the most score, and of those the one that merges the most cells. Used for a 4x4
+		 * game that can not be searched on a bitboard
+		 */
+		MovePreview preview = new MovePreview();
+		Direction bestDirection = null;
+		int bestScoreGain = 0, bestMergeCount = 0;
+		for(Direction direction : DIRECTIONS)
+		{
+			if(!game.previewMove(direction, preview))	continue;
+			if(bestDirection == null || preview.getScoreGain() > bestScoreGain
+					|| (preview.getScoreGain() == bestScoreGain && preview.getMergeCount() > bestMergeCount))
+			{
+				bestDirection = direction;
+				bestScoreGain = preview.getScoreGain();
+				bestMergeCount = preview.getMergeCount();
+			}
+		}
+		return new Advice(bestDirection, game.getScore() + bestScoreGain, (bestDirection == null) ? 0 : 1);
+	}
+
+	@Override
+	public Direction chooseMove(Twenty48Game game)
+	{	//Returns the direction of the best move
+		return advise(game).getDirection();
+	}
+
+	private final int maxDepth;
+	private final long timeBudgetNanos;
+	private final ForkJoinPool pool;
+	private final AtomicReferenceArray<TableEntry> table;		//Transposition table of chance nodes shared by all searches
+	private final int tableMask;
+
+	private static final class TableEntry
+	{
+		//Class holds the value of a chance node searched to a depth. Entries are immutable so they can be shared between threads
+		final long board;
+		final int depth;
+		final double value;
+
+		TableEntry(long board, int depth, double value)
+		{
+			this.board = board;
+			this.depth = depth;
+			this.value = value;
+		}
+	}
+
+	private int slot(long board)
+	{	//Returns the table slot of a board. The bits are mixed so boards that differ in a few nibbles spread across the table
+		board ^= board >>> 33;
+		board *= 0xFF51AFD7ED558CCDL;
+		board ^= board >>> 33;
+		return (int)board & tableMask;
+	}
+
+	private final class Search
+	{
+		//Class holds the state of one search to a fixed depth
+		final long deadline;
+		volatile boolean aborted;		//Set when the time runs out. Values computed after this are not valid
+
+		Search(long deadline)
+		{
+			this.deadline = deadline;
+		}
+
+		double moveNode(long board, int depth, double probability)
+		{
+			/*
+			 * Returns the value of the best move of the board. A board without moves, or past the search depth, has a value of 0
+			 */
+			if(depth == 0)	return 0;
+			double best = 0;
+			for(Direction direction : DIRECTIONS)
+			{
+				long moved = BitBoard.move(board, direction);
+				if(moved == board)	continue;
+				best = Math.max(best, BitBoard.score(board, direction) + chanceNode(moved, depth, probability));
+			}
+			return best;
+		}
+
+		double chanceNode(long board, int depth, double probability)
+		{
+			/*
+			 * Returns the expected value of the board over every possible spawn. The moves after the spawn have depth - 1 left
+			 */
+			if(depth == 1 || probability < PROBABILITY_CUTOFF)	return 0;
+			if(System.nanoTime() > deadline)
+			{
+				aborted = true;
+				return 0;
+			}
+
+			//Has the board already been searched at least as deep? If so use the saved value
+			int slot = slot(board);
+			TableEntry entry = table.get(slot);
+			if(entry != null && entry.board == board && entry.depth >= depth)	return entry.value;
+
+			long emptyCells = BitBoard.emptyCellMask(board);
+			int totalEmpty = Long.bitCount(emptyCells);
+			double value;
+			if(depth >= PARALLEL_DEPTH)
+			{
+				//Search every empty cell in its own task
+				List<SpawnTask> tasks = new ArrayList<SpawnTask>(totalEmpty);
+				for(; emptyCells != 0; emptyCells &= emptyCells - 1)
+					tasks.add(new SpawnTask(board, Long.numberOfTrailingZeros(emptyCells), depth, probability / totalEmpty));
+				value = 0;
+				for(SpawnTask task : RecursiveTask.invokeAll(tasks))
+					value += task.join();
+			}
+			else
+			{
+				value = 0;
+				for(; emptyCells != 0; emptyCells &= emptyCells - 1)
+					value += spawnValue(board, Long.numberOfTrailingZeros(emptyCells), depth, probability / totalEmpty);
+			}
+			value /= totalEmpty;
+
+			//Save the value unless the search was aborted while computing it
+			if(!aborted)	table.set(slot, new TableEntry(board, depth, value));
+			return value;
+		}
+
+		double spawnValue(long board, int shift, int depth, double probability)
+		{	//Returns the expected value of spawning a 2 or 4 at the nibble starting at bit shift
+			return 	0.9 * moveNode(board | (1L << shift), depth - 1, probability * 0.9)
+				+ 	0.1 * moveNode(board | (2L << shift), depth - 1, probability * 0.1);
+		}
+
+		final class SpawnTask extends RecursiveTask<Double>
+		{
+			//Task computes the value of spawning into one empty cell of a chance node
+			private static final long serialVersionUID = 1L;
+			private final long board;
+			private final int shift, depth;
+			private final double probability;
+
+			SpawnTask(long board, int shift, int depth, double probability)
+			{
+				this.board = board;
+				this.shift = shift;
+				this.depth = depth;
+				this.probability = probability;
+			}
+
+			@Override
+			protected Double compute()
+			{
+				return spawnValue(board, shift, depth, probability);
+			}
+		}
+
+		final class RootTask extends RecursiveTask<Void>
+		{
+			//Task searches every possible move of the root position in parallel and keeps the best one
+			private static final long serialVersionUID = 1L;
+			private final long board;
+			private final int depth;
+			Direction bestDirection;
+			double bestValue;
+
+			RootTask(long board, int depth)
+			{
+				this.board = board;
+				this.depth = depth;
+			}
+
+			@Override
+			protected Void compute()
+			{
+				List<MoveTask> tasks = new ArrayList<MoveTask>(DIRECTIONS.length);
+				for(Direction direction : DIRECTIONS)
+					if(BitBoard.move(board, direction) != board)	tasks.add(new MoveTask(board, direction, depth));
+				for(MoveTask task : RecursiveTask.invokeAll(tasks))
+				{
+					double value = task.join();
+					if(bestDirection == null || value > bestValue)
+					{
+						bestDirection = task.direction;
+						bestValue = value;
+					}
+				}
+				return null;
+			}
+		}
+
+		final class MoveTask extends RecursiveTask<Double>
+		{
+			//Task computes the value of one move of the root position
+			private static final long serialVersionUID = 1L;
+			private final long board;
+			private final Direction direction;
+			private final int depth;
+
+			MoveTask(long board, Direction direction, int depth)
+			{
+				this.board = board;
+				this.direction = direction;
+				this.depth = depth;
+			}
+
+			@Override
+			protected Double compute()
+			{
+				return BitBoard.score(board, direction) + chanceNode(BitBoard.move(board, direction), depth, 1);
+			}
+		}
+	}
+}
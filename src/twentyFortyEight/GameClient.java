@@ -0,0 +1,83 @@
+package twentyFortyEight;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+/*
+ * Class is a small client for GameServer. Each command is sent as one line and the one line reply is returned.
+ *
+ * Run on its own it sends every line typed on the console to the server and prints the replies, so a server can be tried out
+ * locally. Refer to GameServer for the commands.
+ */
+public class GameClient implements Closeable
+{
+	public GameClient(String host, int port) throws IOException
+	{
+		/*
+		 * Constructor connects to a server
+		 */
+		socket = new Socket(host, port);
+		reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+		writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+	}
+
+	public final String send(String command) throws IOException
+	{
+		/*
+		 * Sends a command and returns the reply
+		 */
+		writer.write(command);
+		writer.write('\n');
+		writer.flush();
+		String reply = reader.readLine();
+		if(reply == null)	throw new EOFException("The server closed the connection");
+		return reply;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		/*
+		 * Tells the server the client is done and closes the connection
+		 */
+		try
+		{
+			writer.write("QUIT\n");
+			writer.flush();
+		}
+		finally
+		{
+			socket.close();
+		}
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		/*
+		 * Sends the lines typed on the console to a server and prints the replies until QUIT or the end of the input.
+		 * Arguments: host port
+		 */
+		if(args.length != 2)
+		{
+			System.out.println("Usage: GameClient host port");
+			return;
+		}
+		BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
+		try(GameClient client = new GameClient(args[0], Integer.parseInt(args[1])))
+		{
+			String line;
+			while((line = console.readLine()) != null && !line.trim().equalsIgnoreCase("QUIT"))
+				if(!line.trim().isEmpty())	System.out.println(client.send(line));
+		}
+	}
+
+	private final Socket socket;
+	private final BufferedReader reader;
+	private final Writer writer;
+}
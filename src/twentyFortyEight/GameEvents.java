@@ -0,0 +1,178 @@
+package twentyFortyEight;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class writes a Java Flight Recorder event for every move, spawn and undo of every Twenty48Game in the JVM, so a recording shows
+ * what each game did and how long it took next to the rest of the JVM:
+ *
+ * 		twentyFortyEight.Move		direction, legal, changedCells, merges, scoreGained. Its duration includes the spawn
+ * 		twentyFortyEight.Spawn		cell (numbered row by row), exponent
+ * 		twentyFortyEight.Undo		score, moveCount after the undo
+ *
+ * The events are off unless the JVM is started with -Dtwenty48.events=true, and are only recorded while a recording that enables
+ * them is running (for example -XX:StartFlightRecording). Every call site is guarded by ENABLED, a static final read once when the
+ * class is loaded, so when the events are off the JIT removes the guarded code the same as for GameMetrics.
+ *
+ * jdk.jfr is in Java 11 and later and in Java 8 from update 262, but not in the Java 8 API the project is built against. The event
+ * types are made at run time with jdk.jfr.EventFactory, found by reflection the same way GameServer finds virtual threads. If the
+ * JVM has no jdk.jfr ENABLED is false and the games run without events.
+ *
+ * The class is package private, the events are read from a recording.
+ */
+final class GameEvents
+{
+	static final String PROPERTY = "twenty48.events";
+	static final boolean ENABLED;
+
+	private static final String CATEGORY = "2048";
+	private static Method newEvent, begin, end, shouldCommit, set, commit;	//Methods of jdk.jfr.EventFactory and jdk.jfr.Event
+	private static Object moveFactory, spawnFactory, undoFactory;			//An EventFactory for each event type
+
+	static
+	{
+		/*
+		 * Creates the event types when the events are on. The methods and factories are only written here, before ENABLED is
+		 * set, so every game that reads ENABLED as true sees them
+		 */
+		boolean isEnabled = false;
+		if(Boolean.getBoolean(PROPERTY))
+		{
+			try
+			{
+				createEventTypes();
+				isEnabled = true;
+			}
+			catch(ReflectiveOperationException | RuntimeException e)
+			{
+				System.err.println("Flight Recorder events are off, " + PROPERTY + " needs jdk.jfr: " + e);
+			}
+		}
+		ENABLED = isEnabled;
+	}
+
+	private GameEvents()
+	{	//The class only contains static members
+	}
+
+	static Object beginMove()
+	{	//Returns a move event that was started now. Only called when ENABLED
+		return begin(moveFactory);
+	}
+
+	static Object beginSpawn()
+	{	//Returns a spawn event that was started now. Only called when ENABLED
+		return begin(spawnFactory);
+	}
+
+	static Object beginUndo()
+	{	//Returns an undo event that was started now. Only called when ENABLED
+		return begin(undoFactory);
+	}
+
+	static void commitMove(Object event, Direction direction, boolean isLegal, int changedCells, int merges, int scoreGained)
+	{	//Ends and records a move event. changedCells is the number of cells whose tile changed, not counting the spawn
+		commit(event, direction.name(), isLegal, changedCells, merges, scoreGained);
+	}
+
+	static void commitSpawn(Object event, int cell, int exponent)
+	{	//Ends and records a spawn event
+		commit(event, cell, exponent);
+	}
+
+	static void commitUndo(Object event, int score, int moveCount)
+	{	//Ends and records an undo event
+		commit(event, score, moveCount);
+	}
+
+	private static Object begin(Object factory)
+	{	//Creates an event of a factory and starts its timer
+		try
+		{
+			Object event = newEvent.invoke(factory);
+			begin.invoke(event);
+			return event;
+		}
+		catch(ReflectiveOperationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void commit(Object event, Object... values)
+	{
+		/*
+		 * Stops the timer of an event and records it with the values of its fields in order. The fields are only set if a
+		 * recording wants the event
+		 */
+		try
+		{
+			end.invoke(event);
+			if(!(Boolean)shouldCommit.invoke(event))	return;
+			for(int i = 0; i < values.length; i ++)
+				set.invoke(event, i, values[i]);
+			commit.invoke(event);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void createEventTypes() throws ReflectiveOperationException
+	{
+		/*
+		 * Finds the jdk.jfr methods and creates a factory for each event type. Throws ClassNotFoundException if the JVM does
+		 * not have jdk.jfr
+		 */
+		Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+		Class<?> eventClass = Class.forName("jdk.jfr.Event");
+		newEvent = factoryClass.getMethod("newEvent");
+		begin = eventClass.getMethod("begin");
+		end = eventClass.getMethod("end");
+		shouldCommit = eventClass.getMethod("shouldCommit");
+		set = eventClass.getMethod("set", int.class, Object.class);
+		commit = eventClass.getMethod("commit");
+
+		moveFactory = createFactory("Move", "A move of a game, including the piece it spawned",
+				String.class, "direction", boolean.class, "legal", int.class, "changedCells", int.class, "merges",
+				int.class, "scoreGained");
+		spawnFactory = createFactory("Spawn", "A piece spawned on a board", int.class, "cell", int.class, "exponent");
+		undoFactory = createFactory("Undo", "An undone move, with the score and move count after it", int.class, "score",
+				int.class, "moveCount");
+	}
+
+	private static Object createFactory(String label, String description, Object... fields) throws ReflectiveOperationException
+	{
+		/*
+		 * Returns the EventFactory of an event type named twentyFortyEight.label. fields holds the type and the name of every
+		 * field in turn
+		 */
+		Class<?> elementClass = Class.forName("jdk.jfr.AnnotationElement");
+		Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+		Constructor<?> newElement = elementClass.getConstructor(Class.class, Object.class);
+		Constructor<?> newDescriptor = descriptorClass.getConstructor(Class.class, String.class);
+
+		List<Object> annotations = new ArrayList<Object>();
+		annotations.add(newElement.newInstance(annotation("jdk.jfr.Name"), "twentyFortyEight." + label));
+		annotations.add(newElement.newInstance(annotation("jdk.jfr.Label"), label));
+		annotations.add(newElement.newInstance(annotation("jdk.jfr.Description"), description));
+		annotations.add(newElement.newInstance(annotation("jdk.jfr.Category"), new String[] {CATEGORY}));
+		annotations.add(newElement.newInstance(annotation("jdk.jfr.StackTrace"), false));		//Every move would record one
+		List<Object> descriptors = new ArrayList<Object>();
+		for(int i = 0; i < fields.length; i += 2)
+			descriptors.add(newDescriptor.newInstance(fields[i], fields[i + 1]));
+
+		Method create = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class);
+		return create.invoke(null, annotations, descriptors);
+	}
+
+	private static Class<? extends Annotation> annotation(String name) throws ClassNotFoundException
+	{	//Returns a jdk.jfr annotation type
+		return Class.forName(name).asSubclass(Annotation.class);
+	}
+}
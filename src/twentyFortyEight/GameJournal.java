@@ -0,0 +1,199 @@
+package twentyFortyEight;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import twentyFortyEight.Twenty48Game.Direction;
+import twentyFortyEight.Twenty48Game.GameStatus;
+/*
+ * Class reads a journal written by JournalWriter and replays the game it holds.
+ *
+ * A journal is an append-only record of one game. It holds the size of the board and the seed the game was created with,
+ * then two bytes for every move: the direction and the piece that was spawned after it. Every checkpointInterval moves the
+ * whole board is added as a checkpoint so a replay can start near any move instead of at the first one. All values are big
+ * endian:
+ *
+ * 		Header			MAGIC (4), VERSION (2), rows (1), columns (1), flags (1), reserved (3), checkpointInterval (4), seed (8)
+ * 		Block			A checkpoint followed by checkpointInterval records, repeated until the end of the file
+ * 		Checkpoint		score (4), ordinal of the status (1), reserved (3), exponent of every cell row by row (rows * columns)
+ * 		Record			bits 0-1 the direction ordinal, bit 2 set when a 4 was spawned (1), the spawned cell numbered row by row (1)
+ *
+ * The checkpoint of block b holds the game after b * checkpointInterval moves, so the position of any byte in the file is found
+ * with arithmetic and no index is needed. The number of moves is found from the size of the file. A record that was only
+ * partly written is ignored.
+ *
+ * The file is memory mapped. A replay reads the checkpoint before the requested move and re-applies the following moves with
+ * the same line shifting as moveLeft, moveRight, moveUp and moveDown, placing the recorded spawns instead of random ones. Only
+ * the game being replayed is held in memory. A replayed game has the status saved in the checkpoint it started from, call
+ * getGameStatus to bring it up to date. Replayed games save no states so they can not be undone.
+ */
+public class GameJournal
+{
+	public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;	//Moves between checkpoints unless specified
+
+	static final int MAGIC = 0x3230344A;			//"204J", the first 4 bytes of a journal
+	static final short VERSION = 1;					//The version of the journal format
+	static final int HEADER_SIZE = 24;				//Bytes before the first checkpoint
+	static final int RECORD_SIZE = 2;				//Bytes per move
+	static final byte BIT_BOARD = 1;				//Flag set when the game used the bitboard engine
+	static final int SPAWN_SHIFT = 2;				//Bit of the first record byte set when a 4 was spawned
+	private static final int CHECKPOINT_HEADER_SIZE = 8;
+	private static final Direction DIRECTIONS[] = Direction.values();
+	private static final GameStatus STATUSES[] = GameStatus.values();
+
+	private GameJournal(ByteBuffer journal, int numberOfRows, int numberOfColumns, boolean isBitBoard, int checkpointInterval,
+			long seed)
+	{
+		/*
+		 * Constructor holds the mapped journal and works out the number of moves from its size
+		 */
+		this.journal = journal;
+		this.numberOfRows = numberOfRows;
+		this.numberOfColumns = numberOfColumns;
+		this.isBitBoard = isBitBoard;
+		this.checkpointInterval = checkpointInterval;
+		this.seed = seed;
+		this.checkpointSize = checkpointSize(numberOfRows * numberOfColumns);
+		this.blockSize = checkpointSize + (long)checkpointInterval * RECORD_SIZE;
+
+		//Every full block holds checkpointInterval moves. The last block holds the records after its checkpoint, if its checkpoint
+		//was only partly written the journal ends with the block before it
+		long body = journal.limit() - HEADER_SIZE;
+		long lastBlock = body / blockSize;
+		long lastBlockSize = body % blockSize;
+		this.totalCheckpoints = lastBlock + ((lastBlockSize >= checkpointSize) ? 1 : 0);
+		this.totalMoves = lastBlock * checkpointInterval + Math.max(0, (lastBlockSize - checkpointSize) / RECORD_SIZE);
+	}
+
+	public static GameJournal open(Path path) throws IOException
+	{
+		/*
+		 * Maps a journal file and reads its header.
+		 * Throws IOException if the file is not a journal or was written by a newer version
+		 */
+		ByteBuffer journal;
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+		{
+			if(channel.size() > Integer.MAX_VALUE)	throw new IOException("The journal is too large to map");
+			journal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).order(ByteOrder.BIG_ENDIAN);
+		}
+
+		//Read and check the header
+		if(journal.limit() < HEADER_SIZE)		throw new EOFException("The journal is incomplete");
+		if(journal.getInt(0) != MAGIC)			throw new IOException("The file is not a journal");
+		int version = journal.getShort(4);
+		if(version != VERSION)					throw new IOException("Unsupported journal version " + version);
+		int numberOfRows = journal.get(6), numberOfColumns = journal.get(7);
+		if(numberOfRows < Twenty48Game.MIN_BOARD_DIMENSION || numberOfRows > Twenty48Game.MAX_BOARD_DIMENSION
+				|| numberOfColumns < Twenty48Game.MIN_BOARD_DIMENSION || numberOfColumns > Twenty48Game.MAX_BOARD_DIMENSION)
+			throw new IOException("The journal board is " + numberOfRows + "x" + numberOfColumns);
+		boolean isBitBoard = (journal.get(8) & BIT_BOARD) != 0;
+		int checkpointInterval = journal.getInt(12);
+		if(checkpointInterval < 1)				throw new IOException("The journal is corrupt");
+		if(journal.limit() < HEADER_SIZE + checkpointSize(numberOfRows * numberOfColumns))
+			throw new EOFException("The journal is incomplete");
+		return new GameJournal(journal, numberOfRows, numberOfColumns, isBitBoard, checkpointInterval, journal.getLong(16));
+	}
+
+	public final int getNumberOfRows()
+	{	//Getter for the number of rows of the board
+		return numberOfRows;
+	}
+
+	public final int getNumberOfColumns()
+	{	//Getter for the number of columns of the board
+		return numberOfColumns;
+	}
+
+	public final long getSeed()
+	{	//Getter for the seed stored when the journal was written
+		return seed;
+	}
+
+	public final long getMoveCount()
+	{	//Getter for the number of moves in the journal
+		return totalMoves;
+	}
+
+	public final Twenty48Game getPosition(long move)
+	{
+		/*
+		 * Returns a new game holding the position after the specified number of moves. The game is loaded from the checkpoint
+		 * before the move and the moves after it are replayed
+		 */
+		if(move < 0 || move > totalMoves)	throw new IndexOutOfBoundsException("Move " + move + " of " + totalMoves);
+		Twenty48Game game = Twenty48Game.createEmpty(numberOfRows, numberOfColumns, isBitBoard, 0);
+		loadCheckpoint(game, checkpointBefore(move));
+		seek(game, move);
+		return game;
+	}
+
+	public final void seek(Twenty48Game game, long move)
+	{
+		/*
+		 * Moves a game returned by getPosition to the position after the specified number of moves. The game is loaded from the
+		 * checkpoint before the move unless the game is already between that checkpoint and the move, then moves are replayed
+		 */
+		if(move < 0 || move > totalMoves)	throw new IndexOutOfBoundsException("Move " + move + " of " + totalMoves);
+		long block = checkpointBefore(move);
+		long current = game.getMoveCount();
+		if(current > move || current < block * checkpointInterval)	loadCheckpoint(game, block);
+		while(game.getMoveCount() < move)
+			replayMove(game);
+	}
+
+	public final boolean replayMove(Twenty48Game game)
+	{
+		/*
+		 * Replays the move after the position of a game returned by getPosition, so a game can be stepped through move by move.
+		 * Returns false if the game is at the end of the journal
+		 */
+		long move = game.getMoveCount();
+		if(move >= totalMoves)	return false;
+		int offset = (int)(HEADER_SIZE + (move / checkpointInterval) * blockSize + checkpointSize
+				+ (move % checkpointInterval) * RECORD_SIZE);
+		int record = journal.get(offset);
+		if(!game.moveWithoutSpawn(DIRECTIONS[record & 3]))
+			throw new IllegalStateException("The journal holds a move that is not possible at move " + move);
+		game.placeTile(journal.get(offset + 1) & 0xFF, ((record >>> SPAWN_SHIFT) & 1) + 1);
+		return true;
+	}
+
+	private void loadCheckpoint(Twenty48Game game, long block)
+	{
+		/*
+		 * Loads the game from the checkpoint at the start of a block
+		 */
+		int offset = (int)(HEADER_SIZE + block * blockSize);
+		byte board[] = new byte[numberOfRows * numberOfColumns];
+		ByteBuffer checkpoint = journal.duplicate();
+		checkpoint.position(offset + CHECKPOINT_HEADER_SIZE);
+		checkpoint.get(board);
+		game.loadPosition(board, journal.getInt(offset), (int)(block * checkpointInterval), STATUSES[journal.get(offset + 4)]);
+	}
+
+	private long checkpointBefore(long move)
+	{	//Returns the block of the last complete checkpoint at or before a move
+		return Math.min(move / checkpointInterval, totalCheckpoints - 1);
+	}
+
+	static int checkpointSize(int totalCells)
+	{	//Returns the number of bytes of a checkpoint of a board
+		return CHECKPOINT_HEADER_SIZE + totalCells;
+	}
+
+	private final ByteBuffer journal;				//The mapped file
+	private final int numberOfRows;
+	private final int numberOfColumns;
+	private final boolean isBitBoard;
+	private final int checkpointInterval;
+	private final long seed;
+	private final int checkpointSize;
+	private final long blockSize;					//Bytes of a checkpoint and the records after it
+	private final long totalCheckpoints;
+	private final long totalMoves;
+}
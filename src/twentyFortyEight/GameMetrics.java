@@ -0,0 +1,295 @@
+package twentyFortyEight;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+/*
+ * Class counts what every Twenty48Game in the JVM is doing and times its public operations: moves, spawns, undos, status checks,
+ * applyMoves, canMove, previewMove, fork, saveToFile and loadFromFile. The time of applyMoves includes the moves it makes, which
+ * are also timed on their own. It also reports the hit rates and memory of the row caches (see RowCache), which count their own
+ * lookups.
+ *
+ * The metrics are off unless the JVM is started with -Dtwenty48.metrics=true. Every call site is guarded by ENABLED, a static
+ * final read once when the class is loaded, so when the metrics are off the JIT removes the guarded code and the games run the
+ * same as without them. When they are on the counts are LongAdders so games on many threads do not contend, and the metrics are
+ * registered with the platform MBean server under OBJECT_NAME (see GameMetricsMXBean). Flight Recorder events for each move,
+ * spawn and undo are written by GameEvents, which has its own switch.
+ *
+ * The class is package private, the metrics are read through JMX.
+ */
+final class GameMetrics implements GameMetricsMXBean
+{
+	static final boolean ENABLED = Boolean.getBoolean("twenty48.metrics");
+	static final String OBJECT_NAME = "twentyFortyEight:type=GameMetrics";
+
+	static final int MOVE = 0;						//Operations that are timed
+	static final int SPAWN = 1;
+	static final int UNDO = 2;
+	static final int STATUS = 3;
+	static final int APPLY_MOVES = 4;
+	static final int CAN_MOVE = 5;
+	static final int PREVIEW = 6;
+	static final int FORK = 7;
+	static final int SAVE = 8;
+	static final int LOAD = 9;
+	private static final String OPERATION_NAMES[] = {"move", "spawn", "undo", "getGameStatus", "applyMoves", "canMove",
+			"previewMove", "fork", "saveToFile", "loadFromFile"};
+	private static final int TOTAL_BUCKETS = 64;	//One bucket per bit of a time in nanoseconds
+
+	private static final GameMetrics INSTANCE = ENABLED ? register(new GameMetrics()) : null;
+
+	private GameMetrics()
+	{
+		/*
+		 * Constructor creates the counters and a histogram of every operation
+		 */
+		for(int operation = 0; operation < latencies.length; operation ++)
+			for(int bucket = 0; bucket < TOTAL_BUCKETS; bucket ++)
+				latencies[operation][bucket] = new LongAdder();
+	}
+
+	static long startTimer()
+	{	//Returns the time an operation started. Only called when ENABLED
+		return System.nanoTime();
+	}
+
+	static void recordMove(long startTime, boolean isLegal, int scoreGained, int merges)
+	{	//Counts a move that was started at startTime. The time of a legal move includes its spawn
+		if(isLegal)
+		{
+			INSTANCE.moves.increment();
+			INSTANCE.scoreGained.add(scoreGained);
+			INSTANCE.merges.add(merges);
+		}
+		else
+			INSTANCE.illegalMoves.increment();
+		INSTANCE.recordLatency(MOVE, startTime);
+	}
+
+	static void recordSpawn(long startTime)
+	{	//Counts a spawn that was started at startTime
+		INSTANCE.spawns.increment();
+		INSTANCE.recordLatency(SPAWN, startTime);
+	}
+
+	static void recordUndo(long startTime)
+	{	//Counts an undo that was started at startTime
+		INSTANCE.undos.increment();
+		INSTANCE.recordLatency(UNDO, startTime);
+	}
+
+	static void recordStatusCheck(long startTime)
+	{	//Counts a status check that was started at startTime
+		INSTANCE.statusChecks.increment();
+		INSTANCE.recordLatency(STATUS, startTime);
+	}
+
+	static void recordOperation(int operation, long startTime)
+	{	//Times an operation that was started at startTime and has no count of its own
+		INSTANCE.recordLatency(operation, startTime);
+	}
+
+	static void recordSavedState()
+	{	//Counts a state saved for undo
+		INSTANCE.savedStates.increment();
+	}
+
+	@Override
+	public long getMoves()
+	{
+		return moves.sum();
+	}
+
+	@Override
+	public long getIllegalMoves()
+	{
+		return illegalMoves.sum();
+	}
+
+	@Override
+	public double getIllegalMoveRatio()
+	{
+		long legal = moves.sum(), illegal = illegalMoves.sum();
+		return (legal + illegal == 0) ? 0 : (double)illegal / (legal + illegal);
+	}
+
+	@Override
+	public synchronized double getMovesPerSecond()
+	{
+		/*
+		 * Returns the moves made since the last read divided by the time since the last read. The first read covers the time
+		 * since the metrics were created or reset
+		 */
+		long now = System.nanoTime(), totalMoves = moves.sum();
+		double rate = (now == rateStartTime) ? 0 : (totalMoves - rateStartMoves) * 1e9 / (now - rateStartTime);
+		rateStartTime = now;
+		rateStartMoves = totalMoves;
+		return rate;
+	}
+
+	@Override
+	public long getMerges()
+	{
+		return merges.sum();
+	}
+
+	@Override
+	public long getScoreGained()
+	{
+		return scoreGained.sum();
+	}
+
+	@Override
+	public long getSpawns()
+	{
+		return spawns.sum();
+	}
+
+	@Override
+	public long getUndos()
+	{
+		return undos.sum();
+	}
+
+	@Override
+	public long getStatusChecks()
+	{
+		return statusChecks.sum();
+	}
+
+	@Override
+	public long getSavedStates()
+	{
+		return savedStates.sum();
+	}
+
+	@Override
+	public long getRowCacheHits()
+	{
+		return RowCache.getTotals()[RowCache.HITS];
+	}
+
+	@Override
+	public long getRowCacheMisses()
+	{
+		return RowCache.getTotals()[RowCache.MISSES];
+	}
+
+	@Override
+	public double getRowCacheHitRate()
+	{
+		long totals[] = RowCache.getTotals();
+		long lookups = totals[RowCache.HITS] + totals[RowCache.MISSES];
+		return (lookups == 0) ? 0 : (double)totals[RowCache.HITS] / lookups;
+	}
+
+	@Override
+	public long getRowCacheEvictions()
+	{
+		return RowCache.getTotals()[RowCache.EVICTIONS];
+	}
+
+	@Override
+	public long getRowCacheBypasses()
+	{
+		return RowCache.getTotals()[RowCache.BYPASSES];
+	}
+
+	@Override
+	public long getRowCacheBytes()
+	{
+		return RowCache.getTotals()[RowCache.ALLOCATED_BYTES];
+	}
+
+	@Override
+	public Map<String, long[]> getLatencyHistograms()
+	{
+		Map<String, long[]> histograms = new LinkedHashMap<String, long[]>();
+		for(int operation = 0; operation < latencies.length; operation ++)
+			histograms.put(OPERATION_NAMES[operation], getHistogram(operation));
+		return histograms;
+	}
+
+	@Override
+	public double getLatencyPercentile(String operation, double percentile)
+	{
+		/*
+		 * Returns the upper bound of the bucket that holds the percentile (0 to 100) of the times of an operation, or 0 if the
+		 * operation has not been timed
+		 */
+		for(int i = 0; i < OPERATION_NAMES.length; i ++)
+		{
+			if(!OPERATION_NAMES[i].equals(operation))	continue;
+			long histogram[] = getHistogram(i);
+			long total = 0;
+			for(long count : histogram)
+				total += count;
+			long rank = (long)Math.ceil(total * Math.min(Math.max(percentile, 0), 100) / 100), seen = 0;
+			for(int bucket = 0; bucket < TOTAL_BUCKETS && total != 0; bucket ++)
+				if((seen += histogram[bucket]) >= Math.max(rank, 1))	return (bucket == 0) ? 0 : Math.pow(2, bucket) - 1;
+			return 0;
+		}
+		throw new IllegalArgumentException("Unknown operation " + operation);
+	}
+
+	@Override
+	public synchronized void reset()
+	{
+		moves.reset();
+		illegalMoves.reset();
+		merges.reset();
+		scoreGained.reset();
+		spawns.reset();
+		undos.reset();
+		statusChecks.reset();
+		savedStates.reset();
+		for(LongAdder histogram[] : latencies)
+			for(LongAdder bucket : histogram)
+				bucket.reset();
+		RowCache.resetCounts();
+		rateStartTime = System.nanoTime();
+		rateStartMoves = 0;
+	}
+
+	private void recordLatency(int operation, long startTime)
+	{	//Adds the time since startTime to the histogram of an operation
+		long elapsed = Math.max(0, System.nanoTime() - startTime);
+		latencies[operation][TOTAL_BUCKETS - Long.numberOfLeadingZeros(elapsed)].increment();
+	}
+
+	private long[] getHistogram(int operation)
+	{	//Returns the counts of the buckets of an operation
+		long histogram[] = new long[TOTAL_BUCKETS];
+		for(int bucket = 0; bucket < TOTAL_BUCKETS; bucket ++)
+			histogram[bucket] = latencies[operation][bucket].sum();
+		return histogram;
+	}
+
+	private static GameMetrics register(GameMetrics metrics)
+	{	//Registers the metrics with the platform MBean server. The metrics are still counted if they can not be registered
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(OBJECT_NAME));
+		}
+		catch(JMException e)
+		{
+			System.err.println("Could not register " + OBJECT_NAME + ": " + e);
+		}
+		return metrics;
+	}
+
+	private final LongAdder moves = new LongAdder();
+	private final LongAdder illegalMoves = new LongAdder();
+	private final LongAdder merges = new LongAdder();
+	private final LongAdder scoreGained = new LongAdder();
+	private final LongAdder spawns = new LongAdder();
+	private final LongAdder undos = new LongAdder();
+	private final LongAdder statusChecks = new LongAdder();
+	private final LongAdder savedStates = new LongAdder();
+	private final LongAdder latencies[][] = new LongAdder[OPERATION_NAMES.length][TOTAL_BUCKETS];	//Histogram of each operation
+	private long rateStartTime = System.nanoTime();		//When the moves per second was last read
+	private long rateStartMoves;						//The moves made when the moves per second was last read
+}
@@ -0,0 +1,31 @@
+package twentyFortyEight;
+import java.util.Map;
+/*
+ * Interface is the management interface of the metrics of every Twenty48Game in the JVM (see GameMetrics). The metrics are
+ * registered as twentyFortyEight:type=GameMetrics when the JVM is started with -Dtwenty48.metrics=true.
+ *
+ * Latency histograms have one bucket per power of 2 nanoseconds. Bucket k counts the operations that took from 2^(k-1) to
+ * 2^k - 1 nanoseconds, bucket 0 counts the operations timed as 0.
+ */
+public interface GameMetricsMXBean
+{
+	long getMoves();							//Moves that changed the board
+	long getIllegalMoves();						//Moves that did not change the board
+	double getIllegalMoveRatio();				//Illegal moves out of every move tried
+	double getMovesPerSecond();					//Moves made per second since the last time the rate was read
+	long getMerges();							//Pairs of cells combined by the moves
+	long getScoreGained();
+	long getSpawns();
+	long getUndos();
+	long getStatusChecks();						//Calls of getGameStatus
+	long getSavedStates();						//States saved for undo. They are copied into buffers allocated with the game
+	long getRowCacheHits();						//Lines found in the row caches (see RowCache)
+	long getRowCacheMisses();					//Lines shifted and added to the row caches
+	double getRowCacheHitRate();				//Hits out of every line looked up
+	long getRowCacheEvictions();				//Lines replaced by another line
+	long getRowCacheBypasses();					//Lines with a tile too large to be cached
+	long getRowCacheBytes();					//Bytes allocated by the row caches of every thread
+	Map<String, long[]> getLatencyHistograms();	//The latency histogram of each operation by name
+	double getLatencyPercentile(String operation, double percentile);	//The upper bound in nanoseconds of a percentile
+	void reset();								//Sets every metric back to 0
+}
@@ -0,0 +1,471 @@
+package twentyFortyEight;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class hosts game sessions for many clients over a line based TCP protocol.
+ *
+ * Every connection is handled on its own virtual thread when the JVM has them (Java 21 and later) and on a thread of a cached
+ * pool otherwise. The sessions are kept in a GameSessionStore that evicts the least recently used games to disk once a memory
+ * cap is reached, so a connection can leave a session and reopen it later by its id.
+ *
+ * Each command is one line and each reply is one line that starts with OK or ERR. Commands are not case sensitive:
+ *
+ * 		NEW rows columns		Starts a session with a new game and uses it. Replies OK id
+ * 		OPEN id					Uses an existing session. Replies OK id
+ * 		MOVE direction			Makes a move, direction is LEFT, RIGHT, UP, DOWN or their first letter.
+ * 								Replies OK MOVED or OK BLOCKED followed by the status, score and move count
+ * 		UNDO					Undoes a move. Replies OK UNDONE or OK NONE followed by the status, score and move count
+ * 		BOARD					Replies OK rows columns and the value of every cell row by row, row 0 first. Values are
+ * 								written in full however large they are, 0 is an empty cell
+ * 		CLOSE					Ends the session in use and deletes its game
+ * 		STATS					Replies OK with the number of sessions, the memory they use and the sessions per GB
+ * 		QUIT					Closes the connection
+ *
+ * The status is the value returned by getGameStatus after the command, so WIN is reported once.
+ *
+ * Every open connection is tracked so close can close its socket. A platform thread blocked reading a socket does not stop
+ * when it is interrupted, but the read fails as soon as the socket is closed.
+ */
+public class GameServer implements Closeable
+{
+	public static final long DEFAULT_MEMORY_CAP = 256L << 20;		//Bytes of games kept in memory unless specified
+
+	private static final long GIGABYTE = 1L << 30;
+
+	public GameServer(int port, Path spillDirectory, long memoryCap, int undoDepth) throws IOException
+	{
+		/*
+		 * Constructor opens the server socket on the port (0 picks a free port). Evicted games are saved in spillDirectory.
+		 * Call start to accept connections
+		 */
+		this.store = new GameSessionStore(spillDirectory, memoryCap, undoDepth);
+		this.serverSocket = new ServerSocket();
+		serverSocket.bind(new InetSocketAddress(port));
+		this.connections = newConnectionExecutor();
+	}
+
+	public final int getPort()
+	{	//Getter for the port the server is listening on
+		return serverSocket.getLocalPort();
+	}
+
+	public final void start()
+	{
+		/*
+		 * Starts the thread that accepts connections
+		 */
+		Thread acceptor = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				acceptConnections();
+			}
+		}, "GameServer-" + getPort());
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		/*
+		 * Stops accepting connections and closes the connections that are open. Sessions are not saved
+		 */
+		serverSocket.close();
+		connections.shutdownNow();
+		for(Socket socket : openSockets)
+			closeQuietly(socket);
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		/*
+		 * Runs a server until the process is stopped.
+		 * Arguments: port [memoryCapMegabytes [spillDirectory]]
+		 * or: --measure rows columns totalGames to print how many sessions fit in a GB
+		 * or: --check to play a session against a server over the loopback address
+		 */
+		if(args.length == 4 && args[0].equals("--measure"))
+		{
+			measure(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+			return;
+		}
+		if(args.length == 1 && args[0].equals("--check"))
+		{
+			check();
+			return;
+		}
+		if(args.length < 1 || args.length > 3)
+		{
+			System.out.println("Usage: GameServer port [memoryCapMegabytes [spillDirectory]]");
+			System.out.println("       GameServer --measure rows columns totalGames");
+			System.out.println("       GameServer --check");
+			return;
+		}
+		long memoryCap = (args.length > 1) ? Long.parseLong(args[1]) << 20 : DEFAULT_MEMORY_CAP;
+		Path spillDirectory = (args.length > 2) ? Paths.get(args[2]) : Files.createTempDirectory("2048-sessions");
+		GameServer server = new GameServer(Integer.parseInt(args[0]), spillDirectory, memoryCap, Twenty48Game.DEFAULT_UNDO_DEPTH);
+		System.out.println("Listening on port " + server.getPort() + ", evicted sessions are saved in " + spillDirectory);
+		server.acceptConnections();
+	}
+
+	private void acceptConnections()
+	{
+		/*
+		 * Accepts connections until the server socket is closed and hands each one to its own thread
+		 */
+		while(!serverSocket.isClosed())
+		{
+			try
+			{
+				final Socket socket = serverSocket.accept();
+				openSockets.add(socket);
+
+				//Was the server closed after the socket was accepted? If so close might have missed it
+				if(serverSocket.isClosed())
+				{
+					closeQuietly(socket);
+					break;
+				}
+				connections.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						handleConnection(socket);
+					}
+				});
+			}
+			catch(RejectedExecutionException e)
+			{
+				//The server was closed while the connection was handed over. close closes the socket
+			}
+			catch(IOException e)
+			{
+				if(!serverSocket.isClosed())	System.err.println("Could not accept a connection: " + e);
+			}
+		}
+	}
+
+	private void handleConnection(Socket socket)
+	{
+		/*
+		 * Reads commands from a connection and writes a reply to each until the client quits or disconnects
+		 */
+		try(Socket connection = socket;
+			BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+			Writer writer = new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8)))
+		{
+			long sessionId = 0;								//The session in use by the connection, 0 for none
+			StringBuilder reply = new StringBuilder();		//Reused for every reply
+			String line;
+			while((line = reader.readLine()) != null)
+			{
+				String words[] = line.trim().split("\\s+");
+				if(words[0].equalsIgnoreCase("QUIT"))	break;
+				reply.setLength(0);
+				try
+				{
+					sessionId = execute(words, sessionId, reply);
+				}
+				catch(IOException | RuntimeException e)
+				{
+					reply.setLength(0);
+					reply.append("ERR ").append(e.getMessage());
+				}
+				writer.append(reply).append('\n');
+				writer.flush();
+			}
+		}
+		catch(IOException e)
+		{
+			//The client disconnected. The session stays in the store so it can be opened again
+		}
+		finally
+		{
+			openSockets.remove(socket);
+		}
+	}
+
+	private long execute(String words[], long sessionId, StringBuilder reply) throws IOException
+	{
+		/*
+		 * Runs one command for a connection using the session with sessionId and writes its reply.
+		 * Returns the session the connection uses after the command, which is changed by NEW, OPEN and CLOSE
+		 */
+		String command = words[0].toUpperCase();
+		switch(command)
+		{
+			case "NEW":
+				int numberOfRows = parseInt(words, 1), numberOfColumns = parseInt(words, 2);
+				if(numberOfRows < Twenty48Game.MIN_BOARD_DIMENSION || numberOfRows > Twenty48Game.MAX_BOARD_DIMENSION
+						|| numberOfColumns < Twenty48Game.MIN_BOARD_DIMENSION || numberOfColumns > Twenty48Game.MAX_BOARD_DIMENSION)
+				{
+					reply.append("ERR The board must be from ").append(Twenty48Game.MIN_BOARD_DIMENSION).append(" to ")
+						.append(Twenty48Game.MAX_BOARD_DIMENSION).append(" cells on each side");
+					return sessionId;
+				}
+				long newId = store.create(numberOfRows, numberOfColumns);
+				reply.append("OK ").append(newId);
+				return newId;
+			case "OPEN":
+				long id = parseLong(words, 1);
+				GameSessionStore.Session opened = store.acquire(id);		//Loads the game if it was evicted
+				if(opened == null)
+				{
+					reply.append("ERR No session ").append(id);
+					return sessionId;
+				}
+				store.release(opened);
+				reply.append("OK ").append(id);
+				return id;
+			case "STATS":
+				int liveSessions = store.getLiveSessions();
+				long liveBytes = store.getLiveBytes();
+				reply.append("OK sessions=").append(store.getTotalSessions()).append(" live=").append(liveSessions);
+				reply.append(" liveBytes=").append(liveBytes).append(" memoryCap=").append(store.getMemoryCap());
+				reply.append(" evictions=").append(store.getEvictions()).append(" reloads=").append(store.getReloads());
+				reply.append(" sessionsPerGB=").append((liveBytes == 0) ? 0 : GIGABYTE * liveSessions / liveBytes);
+				return sessionId;
+			case "CLOSE":
+				if(!store.remove(sessionId))
+				{
+					reply.append("ERR No session in use");
+					return sessionId;
+				}
+				reply.append("OK");
+				return 0;
+			case "MOVE":
+			case "UNDO":
+			case "BOARD":
+				break;
+			default:
+				reply.append("ERR Unknown command ").append(words[0]);
+				return sessionId;
+		}
+
+		//The remaining commands use the game of the session. The game is only used while the session is locked
+		GameSessionStore.Session session = store.acquire(sessionId);
+		if(session == null)
+		{
+			reply.append("ERR No session in use");
+			return sessionId;
+		}
+		try
+		{
+			Twenty48Game game = session.game;
+			if(command.equals("BOARD"))
+			{
+				reply.append("OK ").append(game.TOTAL_ROWS).append(' ').append(game.TOTAL_COLUMNS);
+				for(int row = 0; row < game.TOTAL_ROWS; row ++)
+					for(int column = 0; column < game.TOTAL_COLUMNS; column ++)
+						appendTileValue(reply.append(' '), game.getCellExponent(row, column));
+				return sessionId;
+			}
+			if(command.equals("MOVE"))
+				reply.append(game.move(parseDirection(words)) ? "OK MOVED " : "OK BLOCKED ");
+			else
+				reply.append(game.undo() ? "OK UNDONE " : "OK NONE ");
+			reply.append(game.getGameStatus()).append(' ').append(game.getScore()).append(' ').append(game.getMoveCount());
+			return sessionId;
+		}
+		finally
+		{
+			store.release(session);
+		}
+	}
+
+	private static void appendTileValue(StringBuilder reply, int exponent)
+	{	//Writes the value of a tile in decimal. Tiles larger than a long can hold are written from a BigInteger
+		if(exponent == 0)					reply.append(0);
+		else if(exponent < Long.SIZE - 1)	reply.append(1L << exponent);
+		else								reply.append(BigInteger.ONE.shiftLeft(exponent));
+	}
+
+	private static int parseInt(String words[], int index)
+	{	//Returns a word as a number. Throws IllegalArgumentException if it is missing or not a number
+		if(index >= words.length)	throw new IllegalArgumentException("Missing argument");
+		try
+		{
+			return Integer.parseInt(words[index]);
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Not a number: " + words[index]);
+		}
+	}
+
+	private static long parseLong(String words[], int index)
+	{	//Returns a word as a long. Throws IllegalArgumentException if it is missing or not a number
+		if(index >= words.length)	throw new IllegalArgumentException("Missing argument");
+		try
+		{
+			return Long.parseLong(words[index]);
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Not a number: " + words[index]);
+		}
+	}
+
+	private static Direction parseDirection(String words[])
+	{	//Returns the direction named by the second word. Throws IllegalArgumentException if it is not a direction
+		if(words.length < 2)	throw new IllegalArgumentException("Missing direction");
+		for(Direction direction : Direction.values())
+			if(direction.name().equalsIgnoreCase(words[1]) || direction.name().substring(0, 1).equalsIgnoreCase(words[1]))
+				return direction;
+		throw new IllegalArgumentException("Not a direction: " + words[1]);
+	}
+
+	private void closeQuietly(Socket socket)
+	{	//Closes a connection and stops tracking it
+		try
+		{
+			socket.close();
+		}
+		catch(IOException e)
+		{
+			//A socket that fails to close can not be used either
+		}
+		openSockets.remove(socket);
+	}
+
+	private static ExecutorService newConnectionExecutor()
+	{
+		/*
+		 * Returns an executor that runs every task on a new virtual thread when the JVM has them, or a cached thread pool.
+		 * The virtual thread executor is found by reflection so the class still runs on Java 8
+		 */
+		try
+		{
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService)factory.invoke(null);
+		}
+		catch(ReflectiveOperationException e)
+		{
+			return Executors.newCachedThreadPool();
+		}
+	}
+
+	private static void measure(int numberOfRows, int numberOfColumns, int totalGames)
+	{
+		/*
+		 * Creates games the way the store does, plays a few moves in each so their saved states are used, and prints the heap
+		 * used per game next to the estimate the store uses
+		 */
+		Runtime runtime = Runtime.getRuntime();
+		Twenty48Game games[] = new Twenty48Game[totalGames];
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		SplittableRandom random = new SplittableRandom();
+		for(int i = 0; i < totalGames; i ++)
+		{
+			games[i] = new Twenty48Game(numberOfRows, numberOfColumns, random.split(), Twenty48Game.DEFAULT_UNDO_DEPTH, true);
+			for(int move = 0; move < 20; move ++)
+				games[i].move(Direction.values()[move & 3]);
+		}
+		System.gc();
+		long used = runtime.totalMemory() - runtime.freeMemory() - before;
+		long measured = Math.max(1, used / totalGames);
+		long estimated = games[0].getRetainedSize();
+		System.out.printf("%dx%d: measured %d bytes per session (%d per GB), estimated %d bytes (%d per GB)%n", numberOfRows,
+				numberOfColumns, measured, GIGABYTE / measured, estimated, GIGABYTE / estimated);
+	}
+
+	private static void check() throws IOException
+	{
+		/*
+		 * Starts a server on a free port and plays a session on it over two connections. The first makes a game, moves, undoes
+		 * and reads the board. The second makes another game, which evicts the first since the memory cap is 1 byte, then
+		 * opens the first by its id so it is loaded back, checks its board, opens an id too large for an int and closes both.
+		 * Prints every command and reply and throws an IllegalStateException if a reply is not the one expected
+		 */
+		Path spillDirectory = Files.createTempDirectory("2048-check");
+		try(GameServer server = new GameServer(0, spillDirectory, 1, Twenty48Game.DEFAULT_UNDO_DEPTH))
+		{
+			server.start();
+			String id, board;
+			try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))
+			{
+				id = request(reader, writer, "NEW 4 4", "OK ").substring(3);
+				request(reader, writer, "MOVE LEFT", "OK ");
+				request(reader, writer, "MOVE U", "OK ");
+				request(reader, writer, "UNDO", "OK ");
+				board = request(reader, writer, "BOARD", "OK 4 4 ");
+				request(reader, writer, "QUIT", null);
+			}
+			try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+				BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+				Writer writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)))
+			{
+				request(reader, writer, "NEW 5 6", "OK ");
+				request(reader, writer, "BOARD", "OK 5 6 ");
+				request(reader, writer, "CLOSE", "OK");
+				request(reader, writer, "OPEN " + id, "OK " + id);
+				request(reader, writer, "BOARD", board);
+				request(reader, writer, "OPEN 99999999999", "ERR No session 99999999999");
+				request(reader, writer, "OPEN x", "ERR Not a number: x");
+				request(reader, writer, "STATS", "OK sessions=1 ");
+				request(reader, writer, "CLOSE", "OK");
+				request(reader, writer, "BOARD", "ERR No session in use");
+			}
+			System.out.println("Check passed");
+		}
+		finally
+		{
+			try(DirectoryStream<Path> files = Files.newDirectoryStream(spillDirectory))
+			{
+				for(Path file : files)
+					Files.delete(file);
+			}
+			Files.delete(spillDirectory);
+		}
+	}
+
+	private static String request(BufferedReader reader, Writer writer, String command, String expectedReply) throws IOException
+	{
+		/*
+		 * Sends a command to a server and returns its reply, used by check. Throws an IllegalStateException unless the reply
+		 * starts with expectedReply. A null expectedReply expects the server to close the connection
+		 */
+		writer.append(command).append('\n');
+		writer.flush();
+		String reply = reader.readLine();
+		System.out.println(command + " -> " + reply);
+		if((expectedReply == null) ? reply != null : reply == null || !reply.startsWith(expectedReply))
+			throw new IllegalStateException("Expected " + expectedReply + " after " + command + ", got " + reply);
+		return reply;
+	}
+
+	private final GameSessionStore store;
+	private final ServerSocket serverSocket;
+	private final ExecutorService connections;		//Runs the thread of every connection
+	private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();	//Sockets of the connections not yet closed
+}
@@ -0,0 +1,275 @@
+package twentyFortyEight;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+/*
+ * Class holds the game sessions of a GameServer.
+ *
+ * Each session owns one Twenty48Game and one lock. A game is only used by the thread holding the lock of its session, which is
+ * taken by acquire and given back by release, so a game is never used by two threads at once even when two connections play
+ * the same session.
+ *
+ * The games held in memory are kept in least recently used order along with an estimate of their size (see
+ * Twenty48Game.getRetainedSize). When the total goes over the memory cap the least recently used games are saved to the spill
+ * directory in the binary save format and dropped from memory, and they are loaded again the next time their session is
+ * acquired. Games of sessions that are locked are never evicted. The games are created with delta encoded saved states so each
+ * one stays small.
+ *
+ * Locks are ReentrantLocks rather than synchronized blocks so a connection waiting on a session does not pin the carrier of a
+ * virtual thread.
+ */
+final class GameSessionStore
+{
+	static final class Session
+	{
+		//Class holds a game and the lock that confines it to one thread at a time
+		final long id;
+		final Path file;								//Where the game is saved when it is evicted
+		final ReentrantLock lock = new ReentrantLock();
+		Twenty48Game game;								//null while the game is evicted
+		long retainedSize;								//Estimated bytes of the game while it is in memory
+		boolean isRemoved;
+
+		Session(long id, Path file)
+		{
+			this.id = id;
+			this.file = file;
+		}
+	}
+
+	GameSessionStore(Path spillDirectory, long memoryCap, int undoDepth)
+	{
+		/*
+		 * Constructor creates an empty store that keeps up to memoryCap bytes of games in memory and saves the rest in
+		 * spillDirectory. New games can undo up to undoDepth moves
+		 */
+		this.spillDirectory = spillDirectory;
+		this.memoryCap = memoryCap;
+		this.undoDepth = undoDepth;
+	}
+
+	long create(int numberOfRows, int numberOfColumns)
+	{
+		/*
+		 * Creates a session with a new game and returns its id
+		 */
+		long id = nextId.incrementAndGet();
+		Session session = new Session(id, spillDirectory.resolve(id + ".2048"));
+		session.game = new Twenty48Game(numberOfRows, numberOfColumns, new SplittableRandom(), undoDepth, true);
+		session.retainedSize = session.game.getRetainedSize();
+		sessions.put(id, session);
+
+		//Hold the lock while the game is added so it is not evicted before it is first used
+		session.lock.lock();
+		try
+		{
+			touch(session, true);
+			evict(session);
+		}
+		finally
+		{
+			session.lock.unlock();
+		}
+		return id;
+	}
+
+	Session acquire(long id) throws IOException
+	{
+		/*
+		 * Locks a session and returns it with its game in memory, loading the game if it was evicted. Other games are evicted if
+		 * the memory cap is reached. The caller must pass the session to release when done.
+		 * Returns null if the session does not exist
+		 */
+		Session session = sessions.get(id);
+		if(session == null)	return null;
+		session.lock.lock();
+		try
+		{
+			if(session.isRemoved)
+			{
+				session.lock.unlock();
+				return null;
+			}
+			boolean isLoaded = (session.game == null);
+			if(isLoaded)
+			{
+				session.game = Twenty48Game.loadFromFile(session.file);
+				session.retainedSize = session.game.getRetainedSize();
+				reloads.incrementAndGet();
+			}
+			touch(session, isLoaded);
+			evict(session);
+			return session;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			session.lock.unlock();
+			throw e;
+		}
+	}
+
+	void release(Session session)
+	{	//Unlocks a session returned by acquire
+		session.lock.unlock();
+	}
+
+	boolean remove(long id) throws IOException
+	{
+		/*
+		 * Ends a session, drops its game and deletes its saved file.
+		 * Returns false if the session does not exist
+		 */
+		Session session = sessions.get(id);
+		if(session == null)	return false;
+		session.lock.lock();
+		try
+		{
+			if(session.isRemoved)	return false;
+			session.isRemoved = true;
+			sessions.remove(id);
+			lruLock.lock();
+			try
+			{
+				if(lru.remove(id) != null)	liveBytes -= session.retainedSize;
+			}
+			finally
+			{
+				lruLock.unlock();
+			}
+			session.game = null;
+			Files.deleteIfExists(session.file);
+			return true;
+		}
+		finally
+		{
+			session.lock.unlock();
+		}
+	}
+
+	int getTotalSessions()
+	{	//Returns the number of sessions in memory or evicted
+		return sessions.size();
+	}
+
+	int getLiveSessions()
+	{	//Returns the number of sessions whose game is in memory
+		lruLock.lock();
+		try
+		{
+			return lru.size();
+		}
+		finally
+		{
+			lruLock.unlock();
+		}
+	}
+
+	long getLiveBytes()
+	{	//Returns the estimated bytes of the games in memory
+		lruLock.lock();
+		try
+		{
+			return liveBytes;
+		}
+		finally
+		{
+			lruLock.unlock();
+		}
+	}
+
+	long getMemoryCap()
+	{	//Getter for the bytes of games kept in memory before games are evicted
+		return memoryCap;
+	}
+
+	long getEvictions()
+	{	//Returns the number of games saved to the spill directory
+		return evictions.get();
+	}
+
+	long getReloads()
+	{	//Returns the number of games loaded from the spill directory
+		return reloads.get();
+	}
+
+	private void touch(Session session, boolean isAdded)
+	{	//Marks a session as the most recently used. An added game is counted towards the memory in use
+		lruLock.lock();
+		try
+		{
+			lru.remove(session.id);
+			lru.put(session.id, session);
+			if(isAdded)	liveBytes += session.retainedSize;
+		}
+		finally
+		{
+			lruLock.unlock();
+		}
+	}
+
+	private void evict(Session current)
+	{
+		/*
+		 * Evicts the least recently used games until the games in memory fit in the memory cap. Sessions that are locked by other
+		 * threads and the current session are skipped. The victims are picked while the list is locked and saved after it is
+		 * unlocked so other sessions are not held up by the disk
+		 */
+		List<Session> victims = new ArrayList<Session>();
+		lruLock.lock();
+		try
+		{
+			Iterator<Session> iterator = lru.values().iterator();
+			while(liveBytes > memoryCap && iterator.hasNext())
+			{
+				Session session = iterator.next();
+				if(session == current || !session.lock.tryLock())	continue;
+				iterator.remove();
+				liveBytes -= session.retainedSize;
+				victims.add(session);
+			}
+		}
+		finally
+		{
+			lruLock.unlock();
+		}
+
+		//Save every victim and drop its game. A game that can not be saved is kept in memory
+		for(Session session : victims)
+		{
+			try
+			{
+				session.game.saveToFile(session.file);
+				session.game = null;
+				evictions.incrementAndGet();
+			}
+			catch(IOException e)
+			{
+				System.err.println("Could not evict session " + session.id + ": " + e);
+				touch(session, true);
+			}
+			finally
+			{
+				session.lock.unlock();
+			}
+		}
+	}
+
+	private final Path spillDirectory;
+	private final long memoryCap;
+	private final int undoDepth;
+	private final AtomicLong nextId = new AtomicLong();
+	private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<Long, Session>();
+	private final ReentrantLock lruLock = new ReentrantLock();					//Guards lru and liveBytes
+	private final LinkedHashMap<Long, Session> lru = new LinkedHashMap<Long, Session>();	//Sessions in memory, least recently used first
+	private long liveBytes;
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong reloads = new AtomicLong();
+}
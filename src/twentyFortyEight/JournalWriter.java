@@ -0,0 +1,131 @@
+package twentyFortyEight;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class records a Twenty48Game to an append-only journal file as it is played. Refer to GameJournal for the format and for
+ * replaying a journal.
+ *
+ * The writer is created for a game that has not made a move yet. Every move of the game must be made through move so it is
+ * recorded, undo is not recorded and must not be used on the game while it is being journaled.
+ *
+ * Records are collected in a buffer and written to the file a buffer at a time, so most moves only add two bytes to the buffer.
+ * A checkpoint holding the whole board is added every checkpointInterval moves. Closing the writer writes what is left in the
+ * buffer. A journal whose writer was never closed can still be read up to the last record that reached the file.
+ */
+public class JournalWriter implements Closeable
+{
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 16;		//Bytes collected before they are written to the file
+
+	public JournalWriter(Path path, Twenty48Game game, long seed) throws IOException
+	{
+		/*
+		 * Constructor creates or replaces the journal file of the game with the default checkpoint interval. seed is stored in the
+		 * header for reference, replays use the recorded spawns
+		 */
+		this(path, game, seed, GameJournal.DEFAULT_CHECKPOINT_INTERVAL, DEFAULT_BUFFER_SIZE);
+	}
+
+	public JournalWriter(Path path, Twenty48Game game, long seed, int checkpointInterval, int bufferSize) throws IOException
+	{
+		/*
+		 * Constructor creates or replaces the journal file of the game, writes the header and the first checkpoint which holds the
+		 * two pieces the game started with
+		 */
+		if(game.getMoveCount() != 0)		throw new IllegalArgumentException("The game has already made moves");
+		if(checkpointInterval < 1)			throw new IllegalArgumentException("checkpointInterval must be at least 1");
+		int totalCells = game.TOTAL_ROWS * game.TOTAL_COLUMNS;
+		if(bufferSize < GameJournal.checkpointSize(totalCells))
+			throw new IllegalArgumentException("bufferSize must hold at least one checkpoint");
+		this.game = game;
+		this.checkpointInterval = checkpointInterval;
+		this.board = new byte[totalCells];
+		this.buffer = ByteBuffer.allocate(bufferSize).order(ByteOrder.BIG_ENDIAN);
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		//Write the header and the starting position
+		buffer.putInt(GameJournal.MAGIC).putShort(GameJournal.VERSION);
+		buffer.put((byte)game.TOTAL_ROWS).put((byte)game.TOTAL_COLUMNS);
+		buffer.put(game.isBitBoard() ? GameJournal.BIT_BOARD : 0).put((byte)0).putShort((short)0);
+		buffer.putInt(checkpointInterval).putLong(seed);
+		writeCheckpoint();
+	}
+
+	public final Twenty48Game getGame()
+	{	//Getter for the game being journaled
+		return game;
+	}
+
+	public final long getMoveCount()
+	{	//Getter for the number of moves recorded
+		return totalMoves;
+	}
+
+	public final boolean move(Direction direction) throws IOException
+	{
+		/*
+		 * Makes a move on the game and records it along with the spawned piece.
+		 * Returns true if the move was made, false if the move is not possible. A move that is not possible is not recorded
+		 */
+		if(!game.move(direction))	return false;
+		if(buffer.remaining() < GameJournal.RECORD_SIZE)	flush();
+		buffer.put((byte)(direction.ordinal() | ((game.getLastSpawnExponent() - 1) << GameJournal.SPAWN_SHIFT)));
+		buffer.put((byte)game.getLastSpawnCell());
+		totalMoves ++;
+		if(totalMoves % checkpointInterval == 0)	writeCheckpoint();
+		return true;
+	}
+
+	public final void flush() throws IOException
+	{
+		/*
+		 * Writes the collected records to the file
+		 */
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		/*
+		 * Writes the collected records and closes the file
+		 */
+		if(!channel.isOpen())	return;
+		try
+		{
+			flush();
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+
+	private void writeCheckpoint() throws IOException
+	{
+		/*
+		 * Adds the score, status and board of the game to the buffer
+		 */
+		if(buffer.remaining() < GameJournal.checkpointSize(board.length))	flush();
+		game.getPosition(board);
+		buffer.putInt(game.getScore()).put((byte)game.getCurrentStatus().ordinal()).put((byte)0).putShort((short)0);
+		buffer.put(board);
+	}
+
+	private final Twenty48Game game;
+	private final int checkpointInterval;
+	private final byte board[];						//Holds the board of the game while a checkpoint is written
+	private final ByteBuffer buffer;				//Records waiting to be written
+	private final FileChannel channel;
+	private long totalMoves;
+}
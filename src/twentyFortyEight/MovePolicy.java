@@ -0,0 +1,12 @@
+package twentyFortyEight;
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Interface for anything that picks the next move of a game, used by SimulationRunner to play games without a player.
+ *
+ * A policy is called from several threads at once, one game per thread, so it must not keep state that is shared between
+ * games unless that state is thread safe. The game passed in must not be changed by the policy.
+ */
+public interface MovePolicy
+{
+	Direction chooseMove(Twenty48Game game);		//Returns the direction to move, or null if the policy has no preference
+}
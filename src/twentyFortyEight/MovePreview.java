@@ -0,0 +1,106 @@
+package twentyFortyEight;
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class holds what a move would do to a Twenty48Game without making it: whether the move is possible, the board after the
+ * move, the score it would gain and the number of merges it would make. The board is the board before a piece is spawned.
+ *
+ * A preview is filled by Twenty48Game.previewMove. The same preview can be passed to previewMove again and again so probing
+ * moves allocates nothing once the preview has been used with a board of the same size. Each preview also holds its own line
+ * buffer so threads that each use their own preview can probe the same game at the same time, as long as no thread changes it.
+ */
+public final class MovePreview
+{
+	public MovePreview()
+	{
+		/*
+		 * Constructor creates an empty preview. Its board is allocated by the first previewMove
+		 */
+	}
+
+	public Direction getDirection()
+	{	//Getter for the direction of the previewed move
+		return direction;
+	}
+
+	public boolean isLegal()
+	{	//Returns whether the move changes the board
+		return isLegal;
+	}
+
+	public int getScoreGain()
+	{	//Getter for the score the move would add. 0 if the move is not legal
+		return scoreGain;
+	}
+
+	public int getMergeCount()
+	{	//Getter for the number of pairs of cells the move would combine
+		return mergeCount;
+	}
+
+	public int getTotalRows()
+	{	//Getter for the number of rows of the previewed board
+		return totalRows;
+	}
+
+	public int getTotalColumns()
+	{	//Getter for the number of columns of the previewed board
+		return totalColumns;
+	}
+
+	public int getCellExponent(int row, int column)
+	{	//Getter for the exponent of a cell after the move. 0 is an empty cell and k is a cell with the value 2^k
+		if(isBitBoard)	return BitBoard.getExponent(bitBoard, row, column);
+		return board[row * totalColumns + column];
+	}
+
+	public int getCellValue(int row, int column)
+	{	//Getter for the value of a cell after the move. Tiles larger than 2^30 return Integer.MAX_VALUE, see getCellExponent
+		return PackedBoard.tileValue(getCellExponent(row, column));
+	}
+
+	void setBitBoard(Direction direction, long bitBoard, int scoreGain, int mergeCount, boolean isLegal)
+	{	//Holds the result of a move of a 4x4 bitboard
+		this.direction = direction;
+		this.isBitBoard = true;
+		this.bitBoard = bitBoard;
+		this.totalRows = BitBoard.BOARD_DIMENSION;
+		this.totalColumns = BitBoard.BOARD_DIMENSION;
+		this.scoreGain = scoreGain;
+		this.mergeCount = mergeCount;
+		this.isLegal = isLegal;
+	}
+
+	byte[] preparePackedBoard(int totalRows, int totalColumns)
+	{	//Sizes the board and line buffer for a packed board and returns the board so the move can be stored in it
+		if(board == null || board.length != totalRows * totalColumns)	board = new byte[totalRows * totalColumns];
+		if(line == null || line.length < Math.max(totalRows, totalColumns))	line = new byte[Math.max(totalRows, totalColumns)];
+		this.isBitBoard = false;
+		this.totalRows = totalRows;
+		this.totalColumns = totalColumns;
+		return board;
+	}
+
+	byte[] getLineBuffer()
+	{	//Getter for the line buffer used to shift the lines of a packed board
+		return line;
+	}
+
+	void setPackedResult(Direction direction, int scoreGain, int mergeCount, boolean isLegal)
+	{	//Holds the result of a move of a packed board stored by preparePackedBoard
+		this.direction = direction;
+		this.scoreGain = scoreGain;
+		this.mergeCount = mergeCount;
+		this.isLegal = isLegal;
+	}
+
+	private Direction direction;
+	private boolean isLegal;
+	private int scoreGain;
+	private int mergeCount;
+	private int totalRows;
+	private int totalColumns;
+	private boolean isBitBoard;				//Whether the board after the move is held in bitBoard instead of board
+	private long bitBoard;
+	private byte board[];					//The packed board after the move
+	private byte line[];					//Holds a shifted line before it is copied to board
+}
@@ -0,0 +1,255 @@
+package twentyFortyEight;
+import java.nio.ByteBuffer;
+
+import twentyFortyEight.Twenty48Game.Direction;
+import twentyFortyEight.Twenty48Game.GameStatus;
+/*
+ * Class plays the games of an OffHeapGameStore. A view is pointed at a game with select and then used like a Twenty48Game, every
+ * change is written straight to the slot of the game. Selecting another game costs nothing, so one view can play any number of
+ * games in turn without creating an object for each. A view is created by OffHeapGameStore.createView.
+ *
+ * A move copies the board of the slot into the view, shifts it with PackedBoard, saves the previous state in the undo ring of
+ * the slot, overwriting the oldest saved state when the ring is full, and copies the moved board back. The view holds no state
+ * of a game, so games can be played through different views as long as only one thread plays a game at a time.
+ *
+ * A view is not thread safe, each thread needs its own.
+ */
+public class OffHeapGame
+{
+	private static final GameStatus STATUSES[] = GameStatus.values();
+	private static final int WINNING_EXPONENT = 11;				//The exponent of 2048
+
+	OffHeapGame(OffHeapGameStore store)
+	{
+		/*
+		 * Constructor creates a view of the store that has no game selected
+		 */
+		this.store = store;
+		totalRows = store.TOTAL_ROWS;
+		totalColumns = store.TOTAL_COLUMNS;
+		totalCells = store.getTotalCells();
+		board = new byte[totalCells];
+		movedBoard = new byte[totalCells];
+		line = new byte[Math.max(totalRows, totalColumns)];
+		slot = -1;
+	}
+
+	public final OffHeapGame select(int slot)
+	{
+		/*
+		 * Points the view at the game in a slot and returns the view.
+		 * Throws IllegalArgumentException if the slot does not hold a game
+		 */
+		store.checkSlot(slot);
+		this.slot = slot;
+		segment = store.segmentOf(slot);
+		offset = store.offsetOf(slot);
+		return this;
+	}
+
+	public final int getSlot()
+	{	//Returns the slot of the selected game, -1 if no game has been selected
+		return slot;
+	}
+
+	public final boolean move(Direction direction)
+	{
+		/*
+		 * Makes a move in the specified direction and spawns a piece, the same as Twenty48Game.move.
+		 * Returns true if the move was made, false if the move is not possible
+		 */
+		readBoard(board);
+		int scoreGained = PackedBoard.move(board, totalRows, totalColumns, direction, movedBoard, line);
+		if(scoreGained < 0)	return false;
+		saveState();
+		writeBoard(movedBoard);
+		segment.putInt(offset + OffHeapGameStore.SCORE_OFFSET, PackedBoard.addScore(getScore(), scoreGained));
+		segment.putInt(offset + OffHeapGameStore.MOVE_COUNT_OFFSET, getMoveCount() + 1);
+		spawn(segment, offset, totalCells);
+		return true;
+	}
+
+	public final boolean canMove(Direction direction)
+	{	//Returns whether a move in the direction would change the board
+		readBoard(board);
+		return PackedBoard.canMove(board, totalRows, totalColumns, direction);
+	}
+
+	public final boolean undo()
+	{
+		/*
+		 * Reverts the last move, the same as Twenty48Game.undo. Only the last undoDepth moves of the store can be reverted.
+		 * Returns true if the undo was possible, false if no saved state is left
+		 */
+		int savedStates = segment.get(offset + OffHeapGameStore.UNDO_SIZE_OFFSET) & 0xFF;
+		if(savedStates == 0)	return false;
+		int newest = segment.get(offset + OffHeapGameStore.UNDO_NEWEST_OFFSET) & 0xFF;
+		int state = savedStateOffset(newest);
+		segment.putInt(offset + OffHeapGameStore.SCORE_OFFSET, segment.getInt(state));
+		segment.put(offset + OffHeapGameStore.STATUS_OFFSET, segment.get(state + 4));
+		for(int cell = 0; cell < totalCells; cell ++)
+			segment.put(offset + OffHeapGameStore.BOARD_OFFSET + cell,
+					segment.get(state + OffHeapGameStore.SAVED_STATE_HEADER_SIZE + cell));
+		segment.putInt(offset + OffHeapGameStore.MOVE_COUNT_OFFSET, getMoveCount() - 1);
+		int depth = store.getUndoDepth();
+		segment.put(offset + OffHeapGameStore.UNDO_NEWEST_OFFSET, (byte)((newest + depth - 1) % depth));
+		segment.put(offset + OffHeapGameStore.UNDO_SIZE_OFFSET, (byte)(savedStates - 1));
+		return true;
+	}
+
+	public final GameStatus getGameStatus()
+	{
+		/*
+		 * Returns the status of the game and moves it on from WIN the same as Twenty48Game.getGameStatus
+		 */
+		GameStatus status = STATUSES[segment.get(offset + OffHeapGameStore.STATUS_OFFSET)];
+		readBoard(board);
+		if(status == GameStatus.PLAYABLE && containsExponent(board, WINNING_EXPONENT))	return setStatus(GameStatus.WIN);
+		if(status == GameStatus.WIN)	status = setStatus(GameStatus.WON_BUT_STILL_PLAYABLE);
+		if(isMovePossible(board))	return status;
+		if(status == GameStatus.WON_BUT_STILL_PLAYABLE)	return setStatus(GameStatus.WON_BUT_UNPLAYABLE);
+		return setStatus(GameStatus.LOST);
+	}
+
+	public final int getScore()
+	{	//Getter for the score of the selected game
+		return segment.getInt(offset + OffHeapGameStore.SCORE_OFFSET);
+	}
+
+	public final int getMoveCount()
+	{	//Getter for the move count of the selected game
+		return segment.getInt(offset + OffHeapGameStore.MOVE_COUNT_OFFSET);
+	}
+
+	public final int getCellExponent(int row, int column)
+	{	//Getter for the exponent of the cell value. 0 is an empty cell and k is a cell with the value 2^k
+		if(row < 0 || row >= totalRows || column < 0 || column >= totalColumns)
+			throw new IndexOutOfBoundsException("There is no cell at " + row + ", " + column);
+		return segment.get(offset + OffHeapGameStore.BOARD_OFFSET + row * totalColumns + column);
+	}
+
+	public final int getCellValue(int row, int column)
+	{	//Getter for the cell value. Tiles larger than 2^30 do not fit in an int and return Integer.MAX_VALUE, see getCellExponent
+		return PackedBoard.tileValue(getCellExponent(row, column));
+	}
+
+	static void spawn(ByteBuffer segment, int offset, int totalCells)
+	{
+		/*
+		 * Sets a random empty cell of the slot at offset to a 2 90% of the time or a 4 otherwise, using and advancing the random
+		 * number generator of the slot. Does nothing if no cell is empty
+		 */
+		int board = offset + OffHeapGameStore.BOARD_OFFSET;
+		int emptyCells = 0;
+		for(int cell = 0; cell < totalCells; cell ++)
+			if(segment.get(board + cell) == 0)	emptyCells ++;
+		if(emptyCells == 0)	return;
+
+		long state = segment.getLong(offset + OffHeapGameStore.RANDOM_OFFSET);
+		state += 0x9E3779B97F4A7C15L;
+		int exponent = (nextInt(state, 10) != 0) ? 1 : 2;
+		state += 0x9E3779B97F4A7C15L;
+		int skip = nextInt(state, emptyCells);
+		segment.putLong(offset + OffHeapGameStore.RANDOM_OFFSET, state);
+
+		for(int cell = 0; ; cell ++)
+			if(segment.get(board + cell) == 0 && skip -- == 0)
+			{
+				segment.put(board + cell, (byte)exponent);
+				return;
+			}
+	}
+
+	private static int nextInt(long state, int bound)
+	{
+		/*
+		 * Returns a number from 0 to bound - 1 from a state of the SplitMix64 generator, the same mixing SplittableRandom uses
+		 */
+		long z = state;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (int)(((z >>> 32) * bound) >>> 32);
+	}
+
+	private void saveState()
+	{
+		/*
+		 * Saves the score, status and board of the slot as the newest state of the undo ring. The oldest state is overwritten
+		 * when the ring is full. Does nothing if the store keeps no saved states
+		 */
+		int depth = store.getUndoDepth();
+		if(depth == 0)	return;
+		int savedStates = segment.get(offset + OffHeapGameStore.UNDO_SIZE_OFFSET) & 0xFF;
+		int newest = (segment.get(offset + OffHeapGameStore.UNDO_NEWEST_OFFSET) & 0xFF) + 1;
+		if(newest == depth || savedStates == 0)	newest = 0;
+		int state = savedStateOffset(newest);
+		segment.putInt(state, getScore());
+		segment.put(state + 4, segment.get(offset + OffHeapGameStore.STATUS_OFFSET));
+		for(int cell = 0; cell < totalCells; cell ++)
+			segment.put(state + OffHeapGameStore.SAVED_STATE_HEADER_SIZE + cell, board[cell]);
+		segment.put(offset + OffHeapGameStore.UNDO_NEWEST_OFFSET, (byte)newest);
+		if(savedStates < depth)	segment.put(offset + OffHeapGameStore.UNDO_SIZE_OFFSET, (byte)(savedStates + 1));
+	}
+
+	private int savedStateOffset(int index)
+	{	//Returns the offset in the segment of a saved state of the undo ring
+		return offset + OffHeapGameStore.BOARD_OFFSET + totalCells + index * (OffHeapGameStore.SAVED_STATE_HEADER_SIZE + totalCells);
+	}
+
+	private GameStatus setStatus(GameStatus status)
+	{	//Stores the status in the slot and returns it
+		segment.put(offset + OffHeapGameStore.STATUS_OFFSET, (byte)status.ordinal());
+		return status;
+	}
+
+	private boolean isMovePossible(byte board[])
+	{
+		/*
+		 * Returns whether any move can be made. A move is possible when a cell is empty or two cells next to each other are the
+		 * same
+		 */
+		for(int row = 0, cell = 0; row < totalRows; row ++)
+			for(int column = 0; column < totalColumns; column ++, cell ++)
+			{
+				int exponent = board[cell];
+				if(exponent == 0)	return true;
+				if(exponent == PackedBoard.MAX_EXPONENT)	continue;
+				if(column + 1 < totalColumns && board[cell + 1] == exponent)	return true;
+				if(row + 1 < totalRows && board[cell + totalColumns] == exponent)	return true;
+			}
+		return false;
+	}
+
+	private static boolean containsExponent(byte board[], int exponent)
+	{	//Returns whether any cell of the board holds the exponent
+		for(byte cell : board)
+			if(cell == exponent)	return true;
+		return false;
+	}
+
+	private void readBoard(byte destination[])
+	{	//Copies the board of the slot into destination
+		int board = offset + OffHeapGameStore.BOARD_OFFSET;
+		for(int cell = 0; cell < totalCells; cell ++)
+			destination[cell] = segment.get(board + cell);
+	}
+
+	private void writeBoard(byte source[])
+	{	//Copies source into the board of the slot
+		int board = offset + OffHeapGameStore.BOARD_OFFSET;
+		for(int cell = 0; cell < totalCells; cell ++)
+			segment.put(board + cell, source[cell]);
+	}
+
+	private final OffHeapGameStore store;
+	private final int totalRows;
+	private final int totalColumns;
+	private final int totalCells;
+	private final byte board[];						//Board of the selected game before a move
+	private final byte movedBoard[];				//Board of the selected game after a move
+	private final byte line[];						//Holds a shifted line for PackedBoard.move
+	private int slot;								//Selected slot, -1 before select is called
+	private ByteBuffer segment;						//Buffer holding the selected slot
+	private int offset;								//Offset of the selected slot in segment
+}
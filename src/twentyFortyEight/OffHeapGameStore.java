@@ -0,0 +1,214 @@
+package twentyFortyEight;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import twentyFortyEight.Twenty48Game.GameStatus;
+/*
+ * Class holds up to millions of games of one board size outside the Java heap, so the garbage collector never scans or copies
+ * them. Games are played through an OffHeapGame, a view that can be pointed at any game of the store.
+ *
+ * Every game has a slot of the same size in a direct ByteBuffer. The store is split into buffers of at most MAX_SEGMENT_SIZE
+ * bytes since a ByteBuffer holds at most 2 GB, and a slot never spans two buffers. Slots are given out by allocate and returned
+ * by free, the numbers of free slots are kept in one int array. A slot holds, in the native byte order:
+ *
+ * 		Offset					Size						Value
+ * 		0						8							State of the random number generator of the game (SplitMix64)
+ * 		8						4							Score
+ * 		12						4							Move count
+ * 		16						1							Ordinal of the status
+ * 		17						1							1 if the slot holds a game, 0 if it is free
+ * 		18						1							Index of the newest saved state in the undo ring
+ * 		19						1							Number of saved states
+ * 		20						rows * columns				Exponent of every cell row by row (see PackedBoard)
+ * 		20 + rows * columns		undoDepth * (5 + cells)		Undo ring. Each saved state is its score (4), the ordinal of its
+ * 															status (1) and its board, the same as the saved states of a
+ * 															Twenty48Game with full copies (see UndoHistory)
+ *
+ * A slot is rounded up to a multiple of 8 bytes. A 4x4 game that can undo 10 moves takes 248 bytes. The games follow the same
+ * rules as Twenty48Game and spawn their pieces from the generator stored in their slot, so a game allocated with a seed plays
+ * the same every time. The memory is given back when the store is garbage collected, and counts against
+ * -XX:MaxDirectMemorySize.
+ *
+ * Allocating and freeing slots is thread safe. Games in different slots can be played on different threads at the same time,
+ * each thread with its own view, but a game must only be played by one thread at a time.
+ */
+public class OffHeapGameStore
+{
+	public static final int MAX_UNDO_DEPTH = 255;				//The most moves a game of the store can undo
+	static final int MAX_SEGMENT_SIZE = 1 << 30;				//Most bytes in one buffer
+
+	static final int RANDOM_OFFSET = 0;							//Offsets of the values of a slot
+	static final int SCORE_OFFSET = 8;
+	static final int MOVE_COUNT_OFFSET = 12;
+	static final int STATUS_OFFSET = 16;
+	static final int IN_USE_OFFSET = 17;
+	static final int UNDO_NEWEST_OFFSET = 18;
+	static final int UNDO_SIZE_OFFSET = 19;
+	static final int BOARD_OFFSET = 20;
+	static final int SAVED_STATE_HEADER_SIZE = 5;				//Score and status before the board of a saved state
+
+	public final int TOTAL_ROWS;
+	public final int TOTAL_COLUMNS;
+
+	public OffHeapGameStore(int numberOfRows, int numberOfColumns, int undoDepth, int capacity)
+	{
+		/*
+		 * Constructor allocates room for capacity games of the specified size that can each undo undoDepth moves. Every slot
+		 * starts free
+		 */
+		Twenty48Game.checkDimensions(numberOfRows, numberOfColumns);
+		if(undoDepth < 0 || undoDepth > MAX_UNDO_DEPTH)
+			throw new IllegalArgumentException("The undo depth must be from 0 to " + MAX_UNDO_DEPTH);
+		if(capacity < 1)	throw new IllegalArgumentException("capacity must be at least 1");
+		TOTAL_ROWS = numberOfRows;
+		TOTAL_COLUMNS = numberOfColumns;
+		this.undoDepth = undoDepth;
+		totalCells = numberOfRows * numberOfColumns;
+		slotSize = (BOARD_OFFSET + totalCells + undoDepth * (SAVED_STATE_HEADER_SIZE + totalCells) + 7) & ~7;
+		slotsPerSegment = MAX_SEGMENT_SIZE / slotSize;
+		this.capacity = capacity;
+
+		int totalSegments = (capacity + slotsPerSegment - 1) / slotsPerSegment;
+		segments = new ByteBuffer[totalSegments];
+		for(int i = 0; i < totalSegments; i ++)
+		{
+			int slots = Math.min(slotsPerSegment, capacity - i * slotsPerSegment);
+			segments[i] = ByteBuffer.allocateDirect(slots * slotSize).order(ByteOrder.nativeOrder());
+		}
+
+		//Hand out the lowest slots first
+		freeSlots = new int[capacity];
+		for(int i = 0; i < capacity; i ++)
+			freeSlots[i] = capacity - 1 - i;
+		totalFreeSlots = capacity;
+	}
+
+	public final synchronized int allocate(long seed)
+	{
+		/*
+		 * Starts a new game in a free slot and spawns two pieces from a random number generator seeded with seed.
+		 * Returns the slot of the game.
+		 * Throws IllegalStateException if every slot holds a game
+		 */
+		int slot = takeFreeSlot();
+		ByteBuffer segment = segmentOf(slot);
+		int offset = offsetOf(slot);
+		for(int i = 0; i < BOARD_OFFSET + totalCells; i += 4)
+			segment.putInt(offset + i, 0);
+		segment.putLong(offset + RANDOM_OFFSET, seed);
+		segment.put(offset + STATUS_OFFSET, (byte)GameStatus.PLAYABLE.ordinal());
+		segment.put(offset + IN_USE_OFFSET, (byte)1);
+		OffHeapGame.spawn(segment, offset, totalCells);
+		OffHeapGame.spawn(segment, offset, totalCells);
+		return slot;
+	}
+
+	public final synchronized int allocate(Twenty48Game game, long seed)
+	{
+		/*
+		 * Copies the board, score, move count and status of a game into a free slot. The saved states of the game are not
+		 * copied. Later spawns come from a random number generator seeded with seed.
+		 * Returns the slot of the game.
+		 * Throws IllegalStateException if every slot holds a game
+		 */
+		if(game.TOTAL_ROWS != TOTAL_ROWS || game.TOTAL_COLUMNS != TOTAL_COLUMNS)
+			throw new IllegalArgumentException("The game is " + game.TOTAL_ROWS + "x" + game.TOTAL_COLUMNS + ", the store is "
+					+ TOTAL_ROWS + "x" + TOTAL_COLUMNS);
+		int slot = takeFreeSlot();
+		ByteBuffer segment = segmentOf(slot);
+		int offset = offsetOf(slot);
+		byte board[] = new byte[totalCells];
+		game.getPosition(board);
+		segment.putLong(offset + RANDOM_OFFSET, seed);
+		segment.putInt(offset + SCORE_OFFSET, game.getScore());
+		segment.putInt(offset + MOVE_COUNT_OFFSET, game.getMoveCount());
+		segment.put(offset + STATUS_OFFSET, (byte)game.getCurrentStatus().ordinal());
+		segment.put(offset + IN_USE_OFFSET, (byte)1);
+		segment.put(offset + UNDO_NEWEST_OFFSET, (byte)0);
+		segment.put(offset + UNDO_SIZE_OFFSET, (byte)0);
+		for(int cell = 0; cell < totalCells; cell ++)
+			segment.put(offset + BOARD_OFFSET + cell, board[cell]);
+		return slot;
+	}
+
+	public final synchronized void free(int slot)
+	{
+		/*
+		 * Ends the game in a slot so the slot can be allocated again.
+		 * Throws IllegalArgumentException if the slot does not hold a game
+		 */
+		checkSlot(slot);
+		segmentOf(slot).put(offsetOf(slot) + IN_USE_OFFSET, (byte)0);
+		freeSlots[totalFreeSlots ++] = slot;
+	}
+
+	public final boolean isAllocated(int slot)
+	{	//Returns whether a slot holds a game
+		return slot >= 0 && slot < capacity && segmentOf(slot).get(offsetOf(slot) + IN_USE_OFFSET) != 0;
+	}
+
+	public final OffHeapGame createView()
+	{	//Returns a view that plays the games of the store. A view must only be used by one thread
+		return new OffHeapGame(this);
+	}
+
+	public final synchronized int size()
+	{	//Returns the number of slots that hold a game
+		return capacity - totalFreeSlots;
+	}
+
+	public final int getCapacity()
+	{	//Returns the number of slots
+		return capacity;
+	}
+
+	public final int getUndoDepth()
+	{	//Returns the number of moves each game can undo
+		return undoDepth;
+	}
+
+	public final int getSlotSize()
+	{	//Returns the bytes used by each game
+		return slotSize;
+	}
+
+	public final long getAllocatedBytes()
+	{	//Returns the bytes allocated outside the heap
+		return (long)slotSize * capacity;
+	}
+
+	final ByteBuffer segmentOf(int slot)
+	{	//Returns the buffer holding a slot
+		return segments[slot / slotsPerSegment];
+	}
+
+	final int offsetOf(int slot)
+	{	//Returns the offset of a slot in its buffer
+		return (slot % slotsPerSegment) * slotSize;
+	}
+
+	final int getTotalCells()
+	{	//Returns the number of cells of a board
+		return totalCells;
+	}
+
+	final void checkSlot(int slot)
+	{	//Throws IllegalArgumentException if the slot does not hold a game
+		if(!isAllocated(slot))	throw new IllegalArgumentException("Slot " + slot + " does not hold a game");
+	}
+
+	private int takeFreeSlot()
+	{	//Removes a slot from the free slots and returns it. Called while synchronized
+		if(totalFreeSlots == 0)	throw new IllegalStateException("Every slot of the store holds a game");
+		return freeSlots[-- totalFreeSlots];
+	}
+
+	private final int undoDepth;
+	private final int totalCells;
+	private final int slotSize;								//Bytes of each slot, a multiple of 8
+	private final int slotsPerSegment;
+	private final int capacity;
+	private final ByteBuffer segments[];
+	private final int freeSlots[];							//The first totalFreeSlots entries are the free slots
+	private int totalFreeSlots;
+}
@@ -0,0 +1,186 @@
+package twentyFortyEight;
+/*
+ * Class holds the helper methods for the packed board used by Twenty48Game for every size that is not 4x4.
+ *
+ * A packed board is one flat row-major array of bytes with one byte per cell. The cell at [row][column] is stored at
+ * index (row * totalColumns + column). Each byte holds the exponent of the tile (0 is an empty cell, k is a tile with the
+ * value 2^k) so a cell can hold tiles far larger than an int can.
+ *
+ * A line is a row or column of the board. It starts at an index of the board and its cells are a fixed stride apart, 1 for
+ * a row read left to right, -1 for a row read right to left, totalColumns for a column read bottom to top and -totalColumns
+ * for a column read top to bottom. Lines are always shifted towards their first cell.
+ *
+ * Scores are ints but a cell holds tiles up to 2^127, so a merge worth more than an int can hold and any score that would pass
+ * Integer.MAX_VALUE count as Integer.MAX_VALUE. A score is then never negative and -1 always means the board did not change.
+ * Tile values are capped the same way by tileValue, the exponent of a cell is always exact.
+ *
+ * The class is package private, it is an implementation detail of Twenty48Game.
+ */
+final class PackedBoard
+{
+	static final int MAX_EXPONENT = Byte.MAX_VALUE;		//The largest exponent a cell can hold
+
+	private PackedBoard()
+	{	//The class only contains static members
+	}
+
+	static int shiftLine(byte board[], int start, int stride, int length, byte line[])
+	{
+		/*
+		 * Shifts all cells of the line towards its first cell removing the empty cells between them and combines the same
+		 * cells next to each other. The shifted line is stored in the first length cells of line, the board is not changed.
+		 * Returns the score gained by combining cells or -1 if the line does not change
+		 */
+		int count = 0, score = 0;
+		int mergeableExponent = 0;		//Exponent of the last shifted cell if it can still be combined, 0 otherwise
+		for(int i = 0, cell = start; i < length; i ++, cell += stride)
+		{
+			int exponent = board[cell];
+			if(exponent == 0)	continue;
+
+			//Is the cell the same as the last shifted cell? If so double the last shifted cell and add to the score.
+			//A combined cell is not combined again in the same move
+			if(exponent == mergeableExponent && exponent != MAX_EXPONENT)
+			{
+				line[count - 1] = (byte)(exponent + 1);
+				score = addScore(score, mergeScore(exponent));
+				mergeableExponent = 0;
+			}
+			else
+				line[count ++] = (byte)(mergeableExponent = exponent);
+		}
+		for(int i = count; i < length; i ++)
+			line[i] = 0;
+
+		//Is any cell of the line different? If so the line was changed
+		for(int i = 0, cell = start; i < length; i ++, cell += stride)
+			if(board[cell] != line[i])	return score;
+		return -1;
+	}
+
+	static boolean canShiftLine(byte board[], int start, int stride, int length)
+	{
+		/*
+		 * Returns whether shifting the line would change it. A line changes when an empty cell comes before a cell that is not
+		 * empty or when two cells that are not empty and have only empty cells between them can be combined
+		 */
+		int lastExponent = 0;			//Exponent of the last cell that is not empty
+		boolean isEmptyCellFound = false;
+		for(int i = 0, cell = start; i < length; i ++, cell += stride)
+		{
+			int exponent = board[cell];
+			if(exponent == 0)
+				isEmptyCellFound = true;
+			else if(isEmptyCellFound || (exponent == lastExponent && exponent != MAX_EXPONENT))
+				return true;
+			else
+				lastExponent = exponent;
+		}
+		return false;
+	}
+
+	static int move(byte board[], int totalRows, int totalColumns, Twenty48Game.Direction direction, byte result[], byte line[])
+	{
+		/*
+		 * Shifts every line of the board in the direction and stores the moved board in result, the board is not changed. line
+		 * must hold at least as many cells as the longest line.
+		 * Returns the score gained by combining cells or -1 if the board does not change
+		 */
+		boolean isHorizontal = (direction == Twenty48Game.Direction.LEFT || direction == Twenty48Game.Direction.RIGHT);
+		int totalLines = isHorizontal ? totalRows : totalColumns;
+		int lineLength = isHorizontal ? totalColumns : totalRows;
+		int lineStep = isHorizontal ? totalColumns : 1;
+		int cellStride = cellStride(direction, totalColumns);
+
+		System.arraycopy(board, 0, result, 0, totalRows * totalColumns);
+		int score = -1;
+		for(int lineNumber = 0, start = firstLineStart(direction, totalRows, totalColumns); lineNumber < totalLines;
+				lineNumber ++, start += lineStep)
+		{
+			//Shift the line. Was it changed? If so copy it to the result
+			int scoreGained = shiftLine(board, start, cellStride, lineLength, line);
+			if(scoreGained < 0)	continue;
+			for(int i = 0, cell = start; i < lineLength; i ++, cell += cellStride)
+				result[cell] = line[i];
+			score = addScore(Math.max(score, 0), scoreGained);
+		}
+		return score;
+	}
+
+	static boolean canMove(byte board[], int totalRows, int totalColumns, Twenty48Game.Direction direction)
+	{
+		/*
+		 * Returns whether shifting the board in the direction would change it. Stops at the first line that would change
+		 */
+		boolean isHorizontal = (direction == Twenty48Game.Direction.LEFT || direction == Twenty48Game.Direction.RIGHT);
+		int totalLines = isHorizontal ? totalRows : totalColumns;
+		int lineLength = isHorizontal ? totalColumns : totalRows;
+		int lineStep = isHorizontal ? totalColumns : 1;
+		int cellStride = cellStride(direction, totalColumns);
+		for(int lineNumber = 0, start = firstLineStart(direction, totalRows, totalColumns); lineNumber < totalLines;
+				lineNumber ++, start += lineStep)
+			if(canShiftLine(board, start, cellStride, lineLength))	return true;
+		return false;
+	}
+
+	static int mergeScore(int exponent)
+	{	//Returns the score gained by combining two cells of the exponent, Integer.MAX_VALUE if it does not fit in an int
+		return (exponent < Integer.SIZE - 2) ? 1 << (exponent + 1) : Integer.MAX_VALUE;
+	}
+
+	static int tileValue(int exponent)
+	{	//Returns the value of a tile, 0 for an empty cell and Integer.MAX_VALUE for a tile larger than an int can hold
+		if(exponent == 0)	return 0;
+		return (exponent < Integer.SIZE - 1) ? 1 << exponent : Integer.MAX_VALUE;
+	}
+
+	static int addScore(int score, int scoreGained)
+	{	//Returns the sum of two scores that are not negative, Integer.MAX_VALUE if the sum does not fit in an int
+		int sum = score + scoreGained;
+		return (sum < 0) ? Integer.MAX_VALUE : sum;
+	}
+
+	static int firstLineStart(Twenty48Game.Direction direction, int totalRows, int totalColumns)
+	{	//Returns the index of the first cell of the first line shifted in the direction
+		switch(direction)
+		{
+			case RIGHT:	return totalColumns - 1;					//Rows read right to left
+			case UP:	return (totalRows - 1) * totalColumns;		//Columns read top to bottom
+			default:	return 0;									//Rows read left to right or columns read bottom to top
+		}
+	}
+
+	static int cellStride(Twenty48Game.Direction direction, int totalColumns)
+	{	//Returns the distance between the cells of a line shifted in the direction
+		switch(direction)
+		{
+			case LEFT:	return 1;
+			case RIGHT:	return -1;
+			case UP:	return -totalColumns;
+			default:	return totalColumns;
+		}
+	}
+
+	static byte[] fromArray(int board[][])
+	{	//Encodes a board of tile values. Every tile must be a power of 2 or 0
+		int totalColumns = board[0].length;
+		byte result[] = new byte[board.length * totalColumns];
+		for(int row = 0; row < board.length; row ++)
+			for(int column = 0; column < totalColumns; column ++)
+				if(board[row][column] != 0)
+					result[row * totalColumns + column] = (byte)Integer.numberOfTrailingZeros(board[row][column]);
+		return result;
+	}
+
+	static int[][] toArray(byte board[], int totalRows, int totalColumns)
+	{	//Decodes the packed board into a board of tile values. Every tile must be no larger than 2^31, which is stored as 1 << 31
+		int result[][] = new int[totalRows][totalColumns];
+		for(int row = 0; row < totalRows; row ++)
+			for(int column = 0; column < totalColumns; column ++)
+			{
+				int exponent = board[row * totalColumns + column];
+				if(exponent != 0)	result[row][column] = 1 << exponent;
+			}
+		return result;
+	}
+}
@@ -0,0 +1,258 @@
+package twentyFortyEight;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.locks.ReentrantLock;
+/*
+ * Class holds an evaluation and a visit count for each of up to hundreds of millions of positions, keyed by the hash of the
+ * position. It is meant to be keyed by Twenty48Game.getCanonicalHash so a position and its rotations and reflections share
+ * one entry, but any 64 bit hash works.
+ *
+ * The entries are stored outside the Java heap in direct ByteBuffers so the garbage collector never scans or copies them. The
+ * store is split into segments of at most 128 MB, since a ByteBuffer holds at most 2 GB. Each segment is an open addressing
+ * table with linear probing and its own lock, so threads working on different segments do not wait on each other. The hash is
+ * mixed before it picks the segment and the slot because a canonical hash is the smallest of several hashes and its high bits
+ * are not evenly spread. Each entry is 16 bytes in the native byte order:
+ *
+ * 		Offset	Size	Value
+ * 		0		8		Hash of the position, 0 for an empty slot
+ * 		8		4		Evaluation, a float
+ * 		12		4		Visit count
+ *
+ * A hash of 0 is stored as ZERO_HASH_KEY. The store never grows and every segment holds up to 3/4 of its slots. The hashes are
+ * not spread perfectly evenly over the segments, so each segment is given room for its share of the positions plus
+ * SPREAD_DEVIATIONS standard deviations of a random spread. Adding a position to a full segment throws an IllegalStateException,
+ * which only happens before the store holds the positions it was made for if the mixed hashes are far from random. Entries are
+ * never removed except by clear. The memory is given back when the store is garbage collected, and counts against
+ * -XX:MaxDirectMemorySize.
+ */
+public class PositionStore
+{
+	private static final int ENTRY_SIZE = 16;
+	private static final int EVALUATION_OFFSET = 8;
+	private static final int VISITS_OFFSET = 12;
+	private static final int MIN_SEGMENT_SLOTS = 1 << 10;
+	private static final int MAX_SEGMENT_SLOTS = 1 << 23;			//128 MB of entries
+	private static final int TARGET_SEGMENTS = 64;					//Segments used when the store is large enough
+	private static final int SPREAD_DEVIATIONS = 8;					//Extra room in each segment for an uneven spread
+	private static final long ZERO_HASH_KEY = 0x9E3779B97F4A7C15L;	//Stored in place of a hash of 0, which marks an empty slot
+
+	private static final class Segment
+	{
+		//Class holds one open addressing table and the lock that guards it
+		final ByteBuffer entries;
+		final ReentrantLock lock = new ReentrantLock();
+		int size;
+
+		Segment(int totalSlots)
+		{
+			entries = ByteBuffer.allocateDirect(totalSlots * ENTRY_SIZE).order(ByteOrder.nativeOrder());
+		}
+	}
+
+	public PositionStore(long maxPositions)
+	{
+		/*
+		 * Constructor allocates a store that holds at least maxPositions positions unless the hashes are far from random. The
+		 * number of slots is rounded up to a power of 2 so the store may hold more.
+		 * Each segment must hold its share of maxPositions plus room for an uneven spread. When rounding up left too little
+		 * room the segments are made twice as large, or twice as many once they reach MAX_SEGMENT_SLOTS. Either halves the load
+		 * so one doubling is always enough
+		 */
+		if(maxPositions < 1)	throw new IllegalArgumentException("maxPositions must be at least 1");
+		long totalSlots = Math.max(MIN_SEGMENT_SLOTS, Long.highestOneBit((maxPositions * 4 / 3) * 2 - 1));
+		int slots = (int)Math.max(MIN_SEGMENT_SLOTS, Math.min(MAX_SEGMENT_SLOTS, totalSlots / TARGET_SEGMENTS));
+		long totalSegments = totalSlots / slots;
+		long share = (maxPositions + totalSegments - 1) / totalSegments;
+		if(totalSegments > 1 && share + SPREAD_DEVIATIONS * Math.sqrt(share) > slots / 4 * 3)
+		{
+			if(slots < MAX_SEGMENT_SLOTS)	slots *= 2;
+			else							totalSegments *= 2;
+		}
+		if(totalSegments > Integer.MAX_VALUE)	throw new IllegalArgumentException("maxPositions is too large");
+		segmentSlots = slots;
+		segments = new Segment[(int)totalSegments];
+		for(int i = 0; i < segments.length; i ++)
+			segments[i] = new Segment(segmentSlots);
+		maxSegmentSize = segmentSlots / 4 * 3;
+	}
+
+	public final boolean contains(long hash)
+	{	//Returns whether the store holds the position
+		long key = toKey(hash);
+		Segment segment = segments[segmentOf(key)];
+		segment.lock.lock();
+		try
+		{
+			return segment.entries.getLong(find(segment, key)) != 0;
+		}
+		finally
+		{
+			segment.lock.unlock();
+		}
+	}
+
+	public final float getEvaluation(long hash)
+	{	//Getter for the evaluation of a position. Float.NaN if the store does not hold the position or it was only visited
+		return Float.intBitsToFloat(readField(hash, EVALUATION_OFFSET, Float.floatToRawIntBits(Float.NaN)));
+	}
+
+	public final int getVisits(long hash)
+	{	//Getter for the number of visits of a position. 0 if the store does not hold the position
+		return readField(hash, VISITS_OFFSET, 0);
+	}
+
+	public final void putEvaluation(long hash, float evaluation)
+	{
+		/*
+		 * Sets the evaluation of a position, adding the position if the store does not hold it. The visit count is not changed
+		 */
+		long key = toKey(hash);
+		Segment segment = segments[segmentOf(key)];
+		segment.lock.lock();
+		try
+		{
+			int offset = findOrAdd(segment, key);
+			segment.entries.putFloat(offset + EVALUATION_OFFSET, evaluation);
+		}
+		finally
+		{
+			segment.lock.unlock();
+		}
+	}
+
+	public final int visit(long hash)
+	{
+		/*
+		 * Adds one to the visit count of a position, adding the position with an evaluation of NaN if the store does not hold it.
+		 * Returns the new visit count, which stops at Integer.MAX_VALUE
+		 */
+		long key = toKey(hash);
+		Segment segment = segments[segmentOf(key)];
+		segment.lock.lock();
+		try
+		{
+			int offset = findOrAdd(segment, key);
+			int visits = segment.entries.getInt(offset + VISITS_OFFSET);
+			if(visits != Integer.MAX_VALUE)	segment.entries.putInt(offset + VISITS_OFFSET, ++ visits);
+			return visits;
+		}
+		finally
+		{
+			segment.lock.unlock();
+		}
+	}
+
+	public final long size()
+	{	//Returns the number of positions held
+		long size = 0;
+		for(Segment segment : segments)
+		{
+			segment.lock.lock();
+			try
+			{
+				size += segment.size;
+			}
+			finally
+			{
+				segment.lock.unlock();
+			}
+		}
+		return size;
+	}
+
+	public final long getCapacity()
+	{	//Returns the number of positions that fit if the hashes are spread evenly over the segments
+		return (long)maxSegmentSize * segments.length;
+	}
+
+	public final long getAllocatedBytes()
+	{	//Returns the bytes allocated outside the heap
+		return (long)segmentSlots * ENTRY_SIZE * segments.length;
+	}
+
+	public final void clear()
+	{	//Removes every position
+		for(Segment segment : segments)
+		{
+			segment.lock.lock();
+			try
+			{
+				for(int offset = 0; offset < segment.entries.capacity(); offset += 8)
+					segment.entries.putLong(offset, 0);
+				segment.size = 0;
+			}
+			finally
+			{
+				segment.lock.unlock();
+			}
+		}
+	}
+
+	private int readField(long hash, int fieldOffset, int missingValue)
+	{	//Returns the int at fieldOffset of the entry of a position, or missingValue if the store does not hold it
+		long key = toKey(hash);
+		Segment segment = segments[segmentOf(key)];
+		segment.lock.lock();
+		try
+		{
+			int offset = find(segment, key);
+			if(segment.entries.getLong(offset) == 0)	return missingValue;
+			return segment.entries.getInt(offset + fieldOffset);
+		}
+		finally
+		{
+			segment.lock.unlock();
+		}
+	}
+
+	private int find(Segment segment, long key)
+	{
+		/*
+		 * Returns the byte offset of the entry holding the key, or of the empty slot where the key would be added. The segment
+		 * is never full so an empty slot is always found
+		 */
+		int slot = (int)(mix(key) >>> 32) & (segmentSlots - 1);
+		for(; ; slot = (slot + 1) & (segmentSlots - 1))
+		{
+			long storedKey = segment.entries.getLong(slot * ENTRY_SIZE);
+			if(storedKey == key || storedKey == 0)	return slot * ENTRY_SIZE;
+		}
+	}
+
+	private int findOrAdd(Segment segment, long key)
+	{
+		/*
+		 * Returns the byte offset of the entry holding the key, adding an entry with an evaluation of NaN and no visits if there
+		 * is none
+		 */
+		int offset = find(segment, key);
+		if(segment.entries.getLong(offset) != 0)	return offset;
+		if(segment.size == maxSegmentSize)	throw new IllegalStateException("The position store is full");
+		segment.entries.putLong(offset, key);
+		segment.entries.putFloat(offset + EVALUATION_OFFSET, Float.NaN);
+		segment.entries.putInt(offset + VISITS_OFFSET, 0);
+		segment.size ++;
+		return offset;
+	}
+
+	private int segmentOf(long key)
+	{	//Returns the segment of a key. The low bits of the mixed key pick the segment and the high bits pick the slot
+		return (int)mix(key) & (segments.length - 1);
+	}
+
+	private static long toKey(long hash)
+	{	//Returns the key stored for a hash, which is never 0
+		return (hash == 0) ? ZERO_HASH_KEY : hash;
+	}
+
+	private static long mix(long key)
+	{	//Spreads the bits of a key over the whole long, the finalizer of MurmurHash3
+		key = (key ^ (key >>> 33)) * 0xFF51AFD7ED558CCDL;
+		key = (key ^ (key >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return key ^ (key >>> 33);
+	}
+
+	private final Segment segments[];
+	private final int segmentSlots;						//Slots in every segment, a power of 2
+	private final int maxSegmentSize;					//Positions a segment holds before it is full
+}
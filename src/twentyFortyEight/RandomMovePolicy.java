@@ -0,0 +1,17 @@
+package twentyFortyEight;
+import java.util.concurrent.ThreadLocalRandom;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Policy that picks a random direction every move. Each thread uses its own random number generator so threads never contend.
+ */
+public class RandomMovePolicy implements MovePolicy
+{
+	private static final Direction DIRECTIONS[] = Direction.values();
+
+	@Override
+	public Direction chooseMove(Twenty48Game game)
+	{
+		return DIRECTIONS[ThreadLocalRandom.current().nextInt(DIRECTIONS.length)];
+	}
+}
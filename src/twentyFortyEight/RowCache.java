@@ -0,0 +1,226 @@
+package twentyFortyEight;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+/*
+ * Class remembers the result of shifting lines of one length so lines seen before are not shifted again. Used by Twenty48Game
+ * for boards from 5 to 16 cells wide or tall, where a table of every line like BitBoard uses would be far too large.
+ *
+ * A line is the key when every cell holds a tile no larger than 2^15. Its exponents are packed 4 bits each into a long, the first
+ * cell in the lowest bits, which fits a line of up to 16 cells. Lines with larger tiles and lines whose result has a larger tile
+ * are shifted without the cache. The result is stored packed the same way along with the score gained, or -1 if the line does
+ * not change.
+ *
+ * The cache is a direct mapped table with a fixed number of entries. A line is stored in the entry picked by the hash of its key
+ * and replaces whatever line was there, so the memory used never grows. Each thread has its own caches, one for each line
+ * length, so there is no locking and no sharing between processors.
+ *
+ * Building the key of a line costs about as much as shifting it, so a hit saves little and a miss costs twice as much. On games
+ * of random moves the cache made 5x5, 8x8 and 16x16 moves 5% to 15% slower with hit rates from 75% down to 40%. It is off unless
+ * the JVM is started with -Dtwenty48.rowCache=true, so the hit rates of real games can be measured before it is used. The
+ * number of entries of each cache is DEFAULT_ENTRIES unless the JVM is started with -Dtwenty48.rowCacheEntries=n, rounded up
+ * to a power of 2.
+ *
+ * Every cache counts its hits, misses, replaced entries and the lines it could not hold. The counts of every cache in the JVM
+ * are reported by GameMetrics. They are written without synchronization so a read from another thread may be slightly behind.
+ * Only the thread that made a cache holds it, so its table is freed once the thread ends. The caches are tracked through weak
+ * references that keep only their counts, and the counts of a freed cache are added to the totals of ended threads the next
+ * time the totals are read or a cache is made.
+ *
+ * The class is package private, it is an implementation detail of Twenty48Game.
+ */
+final class RowCache
+{
+	static final int MIN_LINE_LENGTH = 5;					//Shorter lines are shifted faster than they are looked up
+	static final int MAX_LINE_LENGTH = 16;					//Longer lines do not fit in the key
+	static final int DEFAULT_ENTRIES = 1 << 14;
+	static final int ENTRIES = entries(Integer.getInteger("twenty48.rowCacheEntries", DEFAULT_ENTRIES));
+	static final boolean ENABLED = Boolean.getBoolean("twenty48.rowCache") && ENTRIES != 0;
+
+	static final int HITS = 0;								//Indexes of the totals returned by getTotals
+	static final int MISSES = 1;
+	static final int EVICTIONS = 2;
+	static final int BYPASSES = 3;
+	static final int ALLOCATED_BYTES = 4;
+	private static final int ENTRY_SIZE = 8 + 8 + 4;		//Bytes used by the key, result and score of an entry
+	private static final int MAX_CACHED_EXPONENT = 15;
+
+	//Every cache that has not been seen to be freed, so the counts can be summed. Only a thread's THREAD_CACHES hold its caches
+	private static final ConcurrentLinkedQueue<Registration> CACHES = new ConcurrentLinkedQueue<Registration>();
+	private static final long ENDED_TOTALS[] = new long[BYPASSES + 1];	//Counts of the freed caches, guarded by CACHES
+	private static final ThreadLocal<RowCache[]> THREAD_CACHES = new ThreadLocal<RowCache[]>()
+	{
+		@Override
+		protected RowCache[] initialValue()
+		{
+			return new RowCache[MAX_LINE_LENGTH + 1];
+		}
+	};
+
+	private static final class Counts
+	{
+		//Class holds the counts of one cache apart from its table, so they can still be read after the table is freed
+		long hits;
+		long misses;
+		long evictions;					//Entries replaced by another line
+		long bypasses;					//Lines with a tile too large to be cached
+	}
+
+	private static final class Registration extends WeakReference<RowCache>
+	{
+		//Class tracks a cache without keeping its table from being freed
+		final Counts counts;
+		final long allocatedBytes;
+
+		Registration(RowCache cache)
+		{
+			super(cache);
+			counts = cache.counts;
+			allocatedBytes = (long)cache.keys.length * ENTRY_SIZE;
+		}
+	}
+
+	private RowCache()
+	{
+		/*
+		 * Constructor allocates an empty table
+		 */
+		keys = new long[ENTRIES];
+		results = new long[ENTRIES];
+		scores = new int[ENTRIES];
+	}
+
+	static RowCache forLineLength(int lineLength)
+	{
+		/*
+		 * Returns the cache of the calling thread for lines of the length, or null if lines of the length are not cached
+		 */
+		if(!ENABLED || lineLength < MIN_LINE_LENGTH || lineLength > MAX_LINE_LENGTH)	return null;
+		RowCache caches[] = THREAD_CACHES.get();
+		RowCache cache = caches[lineLength];
+		if(cache == null)
+		{
+			cache = caches[lineLength] = new RowCache();
+			collectFreedCaches();
+			CACHES.add(new Registration(cache));
+		}
+		return cache;
+	}
+
+	int shiftLine(byte board[], int start, int stride, int length, byte line[])
+	{
+		/*
+		 * Same as PackedBoard.shiftLine. Shifts the line into line and returns the score gained or -1 if the line does not change.
+		 * The line is looked up first and shifted only if it is not in the cache
+		 */
+		long key = 0;
+		for(int i = 0, cell = start; i < length; i ++, cell += stride)
+		{
+			long exponent = board[cell];
+			if(exponent > MAX_CACHED_EXPONENT)
+			{
+				counts.bypasses ++;
+				return PackedBoard.shiftLine(board, start, stride, length, line);
+			}
+			key |= exponent << (i << 2);
+		}
+		if(key == 0)	return -1;			//An empty line never changes, and a key of 0 marks an empty entry
+
+		//Is the line in the cache? If so unpack the stored result
+		int entry = (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+		if(keys[entry] == key)
+		{
+			counts.hits ++;
+			int score = scores[entry];
+			if(score < 0)	return -1;
+			long result = results[entry];
+			for(int i = 0; i < length; i ++, result >>>= 4)
+				line[i] = (byte)(result & 0xF);
+			return score;
+		}
+
+		//Shift the line and store the result if its tiles fit
+		counts.misses ++;
+		int score = PackedBoard.shiftLine(board, start, stride, length, line);
+		long result = 0;
+		if(score >= 0)
+			for(int i = 0; i < length; i ++)
+			{
+				if(line[i] > MAX_CACHED_EXPONENT)	return score;
+				result |= (long)line[i] << (i << 2);
+			}
+		if(keys[entry] != 0)	counts.evictions ++;
+		keys[entry] = key;
+		results[entry] = result;
+		scores[entry] = score;
+		return score;
+	}
+
+	static long[] getTotals()
+	{
+		/*
+		 * Returns the hits, misses, evictions, bypasses and bytes allocated of every cache in the JVM added together. The counts
+		 * of freed caches are included, their bytes are not
+		 */
+		synchronized(CACHES)
+		{
+			collectFreedCaches();
+			long totals[] = new long[ALLOCATED_BYTES + 1];
+			System.arraycopy(ENDED_TOTALS, 0, totals, 0, ENDED_TOTALS.length);
+			for(Registration registration : CACHES)
+			{
+				addCounts(totals, registration.counts);
+				totals[ALLOCATED_BYTES] += registration.allocatedBytes;
+			}
+			return totals;
+		}
+	}
+
+	static void resetCounts()
+	{	//Sets the counts of every cache and of the freed caches back to 0. The cached lines are kept
+		synchronized(CACHES)
+		{
+			collectFreedCaches();
+			for(int i = 0; i < ENDED_TOTALS.length; i ++)
+				ENDED_TOTALS[i] = 0;
+			for(Registration registration : CACHES)
+			{
+				Counts counts = registration.counts;
+				counts.hits = counts.misses = counts.evictions = counts.bypasses = 0;
+			}
+		}
+	}
+
+	private static void collectFreedCaches()
+	{	//Stops tracking the caches that were freed and adds their counts to ENDED_TOTALS
+		synchronized(CACHES)
+		{
+			for(Iterator<Registration> iterator = CACHES.iterator(); iterator.hasNext(); )
+			{
+				Registration registration = iterator.next();
+				if(registration.get() != null)	continue;
+				addCounts(ENDED_TOTALS, registration.counts);
+				iterator.remove();
+			}
+		}
+	}
+
+	private static void addCounts(long totals[], Counts counts)
+	{	//Adds the counts of a cache to totals
+		totals[HITS] += counts.hits;
+		totals[MISSES] += counts.misses;
+		totals[EVICTIONS] += counts.evictions;
+		totals[BYPASSES] += counts.bypasses;
+	}
+
+	private static int entries(int requested)
+	{	//Returns the number of entries for a requested number, a power of 2 or 0
+		if(requested <= 0)	return 0;
+		return (requested >= 1 << 30) ? 1 << 30 : Integer.highestOneBit(requested * 2 - 1);
+	}
+
+	private final long keys[];				//Packed line of each entry, 0 for an empty entry
+	private final long results[];			//Packed shifted line of each entry
+	private final int scores[];				//Score gained by each entry, -1 if the line does not change
+	private final Counts counts = new Counts();
+}
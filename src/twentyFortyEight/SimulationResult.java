@@ -0,0 +1,125 @@
+package twentyFortyEight;
+/*
+ * Class holds the statistics of a batch of games played by SimulationRunner.
+ *
+ * Scores and move counts are kept in power of 2 buckets. Bucket 0 holds the value 0 and bucket k holds values in the range
+ * [2^(k-1), 2^k). Max tiles are counted by exponent, index k is the number of games whose largest tile was 2^k.
+ *
+ * Each worker thread of the runner fills its own result and the results are merged once the workers finish, so no result is
+ * ever shared between threads while games are played.
+ */
+public class SimulationResult
+{
+	private static final int TOTAL_BUCKETS = 65;		//A bucket for 0 and one for every bit of a long
+
+	public long getTotalGames()
+	{	//Getter for the number of games played
+		return totalGames;
+	}
+
+	public long getWins()
+	{	//Getter for the number of games that reached 2048
+		return wins;
+	}
+
+	public double getWinRate()
+	{	//Returns the fraction of games that reached 2048
+		return (totalGames == 0) ? 0 : (double)wins / totalGames;
+	}
+
+	public double getAverageScore()
+	{	//Returns the mean final score
+		return (totalGames == 0) ? 0 : (double)totalScore / totalGames;
+	}
+
+	public double getAverageMoveCount()
+	{	//Returns the mean number of moves per game
+		return (totalGames == 0) ? 0 : (double)totalMoves / totalGames;
+	}
+
+	public int getMinScore()
+	{	//Getter for the lowest final score
+		return minScore;
+	}
+
+	public int getMaxScore()
+	{	//Getter for the highest final score
+		return maxScore;
+	}
+
+	public long[] getScoreHistogram()
+	{	//Returns a copy of the final score buckets
+		return scoreHistogram.clone();
+	}
+
+	public long[] getMoveCountHistogram()
+	{	//Returns a copy of the move count buckets
+		return moveCountHistogram.clone();
+	}
+
+	public long[] getMaxTileCounts()
+	{	//Returns a copy of the number of games per largest tile exponent
+		return maxTileCounts.clone();
+	}
+
+	@Override
+	public String toString()
+	{
+		/*
+		 * Returns a summary of the results, one line for the totals and one line per largest tile that was reached
+		 */
+		StringBuilder builder = new StringBuilder();
+		builder.append(String.format("Games: %d Win rate: %.4f Average score: %.1f Score range: [%d, %d] Average moves: %.1f%n",
+				totalGames, getWinRate(), getAverageScore(), minScore, maxScore, getAverageMoveCount()));
+		for(int exponent = 1; exponent < maxTileCounts.length; exponent ++)
+			if(maxTileCounts[exponent] != 0)
+				builder.append(String.format("Max tile %d: %d (%.4f)%n", 1L << exponent, maxTileCounts[exponent],
+						(double)maxTileCounts[exponent] / totalGames));
+		return builder.toString();
+	}
+
+	void record(int score, int moves, int maxExponent, boolean won)
+	{	//Adds a finished game to the results
+		totalGames ++;
+		if(won)	wins ++;
+		totalScore += score;
+		totalMoves += moves;
+		minScore = Math.min(minScore, score);
+		maxScore = Math.max(maxScore, score);
+		scoreHistogram[bucket(score)] ++;
+		moveCountHistogram[bucket(moves)] ++;
+		maxTileCounts[maxExponent] ++;
+	}
+
+	void merge(SimulationResult other)
+	{	//Adds the results of another batch to these results
+		totalGames += other.totalGames;
+		wins += other.wins;
+		totalScore += other.totalScore;
+		totalMoves += other.totalMoves;
+		minScore = Math.min(minScore, other.minScore);
+		maxScore = Math.max(maxScore, other.maxScore);
+		for(int i = 0; i < TOTAL_BUCKETS; i ++)
+		{
+			scoreHistogram[i] += other.scoreHistogram[i];
+			moveCountHistogram[i] += other.moveCountHistogram[i];
+		}
+		for(int i = 0; i < maxTileCounts.length; i ++)
+			maxTileCounts[i] += other.maxTileCounts[i];
+	}
+
+	private static int bucket(long value)
+	{	//Returns the power of 2 bucket of a value
+		return 64 - Long.numberOfLeadingZeros(value);
+	}
+
+	private long totalGames;
+	private long wins;
+	private long totalScore;
+	private long totalMoves;
+	private int minScore = Integer.MAX_VALUE;
+	private int maxScore = Integer.MIN_VALUE;
+	private final long scoreHistogram[] = new long[TOTAL_BUCKETS];
+	private final long moveCountHistogram[] = new long[TOTAL_BUCKETS];
+	private final long maxTileCounts[] = new long[PackedBoard.MAX_EXPONENT + 1];
+}
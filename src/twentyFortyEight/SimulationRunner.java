@@ -0,0 +1,217 @@
+package twentyFortyEight;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import twentyFortyEight.Twenty48Game.Direction;
+import twentyFortyEight.Twenty48Game.GameStatus;
+/*
+ * Class plays batches of complete games without a console and collects their statistics.
+ *
+ * One worker thread is started per processor. Each worker owns a single Twenty48Game that it resets between games and its own
+ * SimulationResult, so the game loop never allocates a game or touches state shared with other workers. The games are created
+ * with an undo depth of 0 so moves save no state. The workers take games in blocks from an atomic counter so workers that get
+ * short games keep taking more, and the results are merged after every worker is finished.
+ *
+ * Game i of a run spawns its pieces from a random number generator seeded with seed + i, so a run with the same seed spawns the
+ * same pieces no matter which worker plays which game. Policies that use their own random numbers are not covered by the seed.
+ * 
+ * Each move the policy picks a direction. When the policy has no preference or picks a move that is not possible the other
+ * directions are tried in order. A game is played until no moves remain. Reaching 2048 counts as a win and the game continues.
+ * 
+ * When a TrainingDataWriter is set every move of every game is recorded to it, each worker recording through its own
+ * TrainingDataRecorder.
+ */
+public class SimulationRunner
+{
+	private static final int GAMES_PER_BLOCK = 256;		//Number of games a worker takes from the counter at a time
+	private static final Direction DIRECTIONS[] = Direction.values();
+
+	public SimulationRunner(int numberOfRows, int numberOfColumns, MovePolicy policy)
+	{
+		/*
+		 * Constructor creates a runner for games of the specified size that uses every available processor
+		 */
+		this(numberOfRows, numberOfColumns, policy, Runtime.getRuntime().availableProcessors(), new SplittableRandom().nextLong());
+	}
+
+	public SimulationRunner(int numberOfRows, int numberOfColumns, MovePolicy policy, int totalThreads, long seed)
+	{
+		/*
+		 * Constructor creates a runner for games of the specified size that uses totalThreads worker threads and spawns pieces
+		 * from the seed
+		 */
+		if(totalThreads < 1)	throw new IllegalArgumentException("totalThreads must be at least 1");
+		this.numberOfRows = numberOfRows;
+		this.numberOfColumns = numberOfColumns;
+		this.policy = policy;
+		this.totalThreads = totalThreads;
+		this.seed = seed;
+	}
+
+	public final void setTrainingData(TrainingDataWriter trainingData)
+	{	//Sets the file every move is recorded to, null to record nothing. The file must be for boards of the size played
+		this.trainingData = trainingData;
+	}
+
+	public SimulationResult run(long totalGames) throws InterruptedException
+	{
+		/*
+		 * Plays totalGames complete games and returns the combined statistics
+		 */
+		final AtomicLong nextGame = new AtomicLong();
+		final long gamesToPlay = totalGames;
+		ExecutorService executor = Executors.newFixedThreadPool(totalThreads);
+		try
+		{
+			List<Future<SimulationResult>> workers = new ArrayList<Future<SimulationResult>>(totalThreads);
+			for(int i = 0; i < totalThreads; i ++)
+				workers.add(executor.submit(new Callable<SimulationResult>()
+				{
+					@Override
+					public SimulationResult call()
+					{
+						return playGames(nextGame, gamesToPlay);
+					}
+				}));
+
+			SimulationResult result = new SimulationResult();
+			for(Future<SimulationResult> worker : workers)
+				result.merge(worker.get());
+			return result;
+		}
+		catch(ExecutionException e)
+		{
+			//A policy threw an exception or the training data could not be written. Rethrow it on the caller's thread
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException)	throw (RuntimeException)cause;
+			if(cause instanceof Error)				throw (Error)cause;
+			throw new IllegalStateException(cause);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	public static void main(String[] args) throws InterruptedException, IOException
+	{
+		/*
+		 * Plays games with random moves and prints the statistics. Every move is recorded to a compressed training data file if
+		 * one is named.
+		 * Arguments: numberOfRows numberOfColumns totalGames [trainingDataFile]
+		 */
+		if(args.length != 3 && args.length != 4)
+		{
+			System.out.println("Usage: SimulationRunner numberOfRows numberOfColumns totalGames [trainingDataFile]");
+			return;
+		}
+		int numberOfRows = Integer.parseInt(args[0]), numberOfColumns = Integer.parseInt(args[1]);
+		SimulationRunner runner = new SimulationRunner(numberOfRows, numberOfColumns, new RandomMovePolicy());
+		TrainingDataWriter trainingData = (args.length == 4) ? new TrainingDataWriter(Paths.get(args[3]), numberOfRows, 
+				numberOfColumns, TrainingDataWriter.DEFAULT_CHUNK_ROWS, true, TrainingDataWriter.DEFAULT_QUEUE_CAPACITY) : null;
+		runner.setTrainingData(trainingData);
+		long start = System.nanoTime();
+		try
+		{
+			SimulationResult result = runner.run(Long.parseLong(args[2]));
+			System.out.print(result);
+		}
+		finally
+		{
+			if(trainingData != null)	trainingData.close();
+		}
+		System.out.printf("Elapsed: %.3f s%n", (System.nanoTime() - start) / 1e9);
+		if(trainingData != null)
+			System.out.printf("Training data: %d rows, %d bytes%n", trainingData.getRowsWritten(), trainingData.getBytesWritten());
+	}
+
+	private SimulationResult playGames(AtomicLong nextGame, long totalGames)
+	{
+		/*
+		 * Worker loop. Takes blocks of games from the counter until every game has been taken and plays them on one game
+		 */
+		SimulationResult result = new SimulationResult();
+		TrainingDataRecorder recorder = (trainingData == null) ? null : trainingData.createRecorder();
+		Twenty48Game game = null;
+		long first;
+		while((first = nextGame.getAndAdd(GAMES_PER_BLOCK)) < totalGames)
+		{
+			long last = Math.min(first + GAMES_PER_BLOCK, totalGames);
+			for(long i = first; i < last; i ++)
+			{
+				//Create the game for the first game played, reset it afterwards
+				SplittableRandom random = new SplittableRandom(seed + i);
+				if(game == null)	game = new Twenty48Game(numberOfRows, numberOfColumns, random, 0, false);
+				else				game.reset(random);
+				playGame(game, result, recorder);
+			}
+		}
+		try
+		{
+			if(recorder != null)	recorder.flush();
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+		return result;
+	}
+
+	private void playGame(Twenty48Game game, SimulationResult result, TrainingDataRecorder recorder)
+	{
+		/*
+		 * Plays the game until no moves remain and records it. Every move is recorded to the training data if recorder is not null
+		 */
+		boolean won = false;
+		for(GameStatus status = game.getGameStatus(); ; status = game.getGameStatus())
+		{
+			//Was the last move a winning move? If so get the status again so the game continues
+			if(status == GameStatus.WIN)
+			{
+				won = true;
+				status = game.getGameStatus();
+			}
+			if(status == GameStatus.LOST || status == GameStatus.WON_BUT_UNPLAYABLE)	break;
+
+			Direction direction = policy.chooseMove(game);
+			if(direction != null && move(game, direction, recorder))	continue;
+
+			//The policy did not pick a possible move. Make the first move that is possible
+			boolean moved = false;
+			for(int i = 0; i < DIRECTIONS.length && !moved; i ++)
+				moved = move(game, DIRECTIONS[i], recorder);
+			if(!moved)	break;
+		}
+		result.record(game.getScore(), game.getMoveCount(), game.getMaxExponent(), won);
+		try
+		{
+			if(recorder != null)	recorder.endGame(game);
+		}
+		catch(IOException e)
+		{
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static boolean move(Twenty48Game game, Direction direction, TrainingDataRecorder recorder)
+	{	//Makes a move on the game, through the recorder if there is one. Returns true if the move was made
+		return (recorder == null) ? game.move(direction) : recorder.move(game, direction);
+	}
+
+	private final int numberOfRows;
+	private final int numberOfColumns;
+	private final MovePolicy policy;
+	private final int totalThreads;
+	private final long seed;
+	private volatile TrainingDataWriter trainingData;		//File every move is recorded to, null to record nothing
+}
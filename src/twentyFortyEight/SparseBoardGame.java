@@ -0,0 +1,435 @@
+package twentyFortyEight;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import twentyFortyEight.Twenty48Game.Direction;
+import twentyFortyEight.Twenty48Game.GameStatus;
+/*
+ * Class represents a game of 2048 on a board far larger than Twenty48Game allows, up to MAX_DIMENSION rows and columns. It is
+ * meant for stress testing with boards such as 1024x1024 where most of the board is empty.
+ *
+ * The board is split into tiles of 16x16 cells. A tile is a byte array of exponents the same as a packed board (see PackedBoard)
+ * and a tile with no pieces is not allocated, so the memory used grows with the occupied part of the board rather than its
+ * area. The number of pieces on each tile is kept so empty tiles are freed as soon as a move clears them.
+ *
+ * Every row or column is shifted and combined on its own with the same rules as PackedBoard. The lines of one band of tiles (a
+ * row of tiles for a left or right move, a column of tiles for an up or down move) only touch the tiles of that band, so the bands
+ * are moved in parallel on a ForkJoinPool without locks. The bands are split between tasks by the number of pieces they hold and
+ * a board with few pieces is moved on the calling thread. Apart from one pass over the piece counts of the tiles only tiles that
+ * are allocated are read, so a move costs about the number of occupied tiles divided by the number of processors.
+ *
+ * Pieces are spawned the same as Twenty48Game, a 2 90% of the time and a 4 otherwise, into a random empty cell. The empty cell is
+ * found by picking random cells until one is empty while at most half the board is full, and by counting empty cells tile by
+ * tile otherwise. The status of the game follows the same rules as Twenty48Game. Moves can not be undone and the board can not
+ * be saved.
+ *
+ * The score is a long since a large board can score far more than an int holds.
+ */
+public class SparseBoardGame
+{
+	public static final int MAX_DIMENSION = 1 << 15;		//The maximum number of rows or columns the board can have
+
+	private static final int TILE_SHIFT = 4;
+	private static final int TILE_SIZE = 1 << TILE_SHIFT;		//Rows and columns of a tile
+	private static final int TILE_MASK = TILE_SIZE - 1;
+	private static final int TILE_CELLS = TILE_SIZE * TILE_SIZE;
+	private static final int WINNING_EXPONENT = 11;				//The exponent of 2048
+	private static final int MIN_TASK_PIECES = 1 << 12;			//Pieces a band task holds before it is split in two
+
+	public final int TOTAL_ROWS;
+	public final int TOTAL_COLUMNS;
+
+	public SparseBoardGame(int numberOfRows, int numberOfColumns)
+	{
+		/*
+		 * Constructor initializes the board with a random number generator seeded by the system and moves on the common pool
+		 */
+		this(numberOfRows, numberOfColumns, new SplittableRandom(), ForkJoinPool.commonPool());
+	}
+
+	public SparseBoardGame(int numberOfRows, int numberOfColumns, SplittableRandom random, ForkJoinPool pool)
+	{
+		/*
+		 * Constructor initializes an empty board and spawns two pieces using the random number generator. Moves of boards with
+		 * enough pieces are run on the pool
+		 */
+		this(numberOfRows, numberOfColumns, random, pool, false);
+		spawn();		//Spawn two pieces
+		spawn();
+	}
+
+	private SparseBoardGame(int numberOfRows, int numberOfColumns, SplittableRandom random, ForkJoinPool pool, boolean isEmpty)
+	{
+		/*
+		 * Constructor allocates the table of tiles and the results of each band. No tiles are allocated and no pieces are spawned.
+		 * isEmpty only tells this constructor apart from the public one
+		 */
+		if(numberOfRows < Twenty48Game.MIN_BOARD_DIMENSION || numberOfRows > MAX_DIMENSION
+				|| numberOfColumns < Twenty48Game.MIN_BOARD_DIMENSION || numberOfColumns > MAX_DIMENSION)
+			throw new IllegalArgumentException("The board must be from " + Twenty48Game.MIN_BOARD_DIMENSION + " to " + MAX_DIMENSION
+					+ " rows and columns, not " + numberOfRows + "x" + numberOfColumns);
+		TOTAL_ROWS = numberOfRows;
+		TOTAL_COLUMNS = numberOfColumns;
+		tileRows = (numberOfRows + TILE_MASK) >>> TILE_SHIFT;
+		tileColumns = (numberOfColumns + TILE_MASK) >>> TILE_SHIFT;
+		tiles = new byte[tileRows * tileColumns][];
+		tilePieces = new short[tileRows * tileColumns];
+
+		int totalBands = Math.max(tileRows, tileColumns);
+		bandPieces = new long[totalBands + 1];
+		bandScores = new long[totalBands];
+		bandMerges = new int[totalBands];
+		bandMaxExponents = new byte[totalBands];
+		bandMoved = new boolean[totalBands];
+		linePositions = new int[Math.max(numberOfRows, numberOfColumns)];
+		lineExponents = new byte[Math.max(numberOfRows, numberOfColumns)];
+		bandTiles = new int[totalBands];
+
+		this.random = random;
+		this.pool = pool;
+	}
+
+	static SparseBoardGame createEmpty(int numberOfRows, int numberOfColumns, SplittableRandom random, ForkJoinPool pool)
+	{	//Returns a game with no pieces, used to set up a board cell by cell
+		return new SparseBoardGame(numberOfRows, numberOfColumns, random, pool, true);
+	}
+
+	public final boolean move(Direction direction)
+	{
+		/*
+		 * Shifts all lines of the board in the direction, combines cells, adds to the score and spawns a new piece
+		 * Returns true if the move was made, false if the move is not possible
+		 */
+		boolean isHorizontal = (direction == Direction.LEFT || direction == Direction.RIGHT);
+		boolean isReversed = (direction == Direction.RIGHT || direction == Direction.UP);
+		int totalBands = isHorizontal ? tileRows : tileColumns;
+
+		//Count the pieces of each band as a running total so a task can split its bands by pieces
+		for(int band = 0; band < totalBands; band ++)
+		{
+			long pieces = 0;
+			for(int tile = 0; tile < (isHorizontal ? tileColumns : tileRows); tile ++)
+				pieces += tilePieces[isHorizontal ? band * tileColumns + tile : tile * tileColumns + band];
+			bandPieces[band + 1] = bandPieces[band] + pieces;
+		}
+
+		//Are there enough pieces to be worth splitting? If so move the bands on the pool, otherwise move them here
+		if(occupiedCells < 2 * MIN_TASK_PIECES || pool.getParallelism() == 1)
+			moveBands(0, totalBands, isHorizontal, isReversed, linePositions, lineExponents, bandTiles);
+		else
+			pool.invoke(new BandTask(0, totalBands, isHorizontal, isReversed));
+
+		//Combine the results of the bands. Was no band changed? If so the move was not possible
+		boolean wasShifted = false;
+		for(int band = 0; band < totalBands; band ++)
+		{
+			if(!bandMoved[band])	continue;
+			wasShifted = true;
+			currentScore += bandScores[band];
+			occupiedCells -= bandMerges[band];
+			maxExponent = Math.max(maxExponent, bandMaxExponents[band]);
+		}
+		if(!wasShifted)	return false;
+		moveCount ++;
+		spawn();
+		return true;
+	}
+
+	public final GameStatus getGameStatus()
+	{
+		/*
+		 * Returns the current status of the game. Refer to Twenty48Game.getGameStatus, the statuses change the same way. Checking
+		 * whether a move is possible scans the board only when every cell is full
+		 */
+
+		//Check for a winner only if a winner has not been found yet. Tiles never get smaller so the largest tile is kept
+		if(currentStatus == GameStatus.PLAYABLE && maxExponent >= WINNING_EXPONENT)	return (currentStatus = GameStatus.WIN);
+		if(currentStatus == GameStatus.WIN)		currentStatus = GameStatus.WON_BUT_STILL_PLAYABLE;
+		if(occupiedCells < (long)TOTAL_ROWS * TOTAL_COLUMNS || hasMergeablePair())	return currentStatus;
+		if(currentStatus == GameStatus.WON_BUT_STILL_PLAYABLE)
+			return (currentStatus = GameStatus.WON_BUT_UNPLAYABLE);
+		return (currentStatus = GameStatus.LOST);
+	}
+
+	public final long getScore()
+	{	//Getter for the current score
+		return currentScore;
+	}
+
+	public final int getMoveCount()
+	{	//Getter for the current move count
+		return moveCount;
+	}
+
+	public final long getOccupiedCells()
+	{	//Returns the number of cells that are not empty
+		return occupiedCells;
+	}
+
+	public final int getAllocatedTiles()
+	{	//Returns the number of 16x16 tiles that hold at least one piece
+		int count = 0;
+		for(byte tile[] : tiles)
+			if(tile != null)	count ++;
+		return count;
+	}
+
+	public final int getCellExponent(int row, int column)
+	{	//Getter for the exponent of the cell value. 0 is an empty cell and k is a cell with the value 2^k
+		byte tile[] = tiles[tileOf(row, column)];
+		return (tile == null) ? 0 : tile[cellOf(row, column)];
+	}
+
+	final void setCellExponent(int row, int column, int exponent)
+	{
+		/*
+		 * Sets a cell and keeps the piece counts and the largest tile up to date. Used to set up a board, not by moves
+		 */
+		int previousExponent = getCellExponent(row, column);
+		if(previousExponent == 0 && exponent != 0)		occupiedCells ++;
+		else if(previousExponent != 0 && exponent == 0)	occupiedCells --;
+		maxExponent = Math.max(maxExponent, exponent);
+		setCell(tileOf(row, column), cellOf(row, column), exponent);
+	}
+
+	private void moveBands(int firstBand, int lastBand, boolean isHorizontal, boolean isReversed, int positions[],
+			byte exponents[], int bandTiles[])
+	{
+		/*
+		 * Shifts every line of the bands from firstBand up to but not including lastBand and stores the result of each band.
+		 * positions and exponents must hold at least as many cells as the longest line and bandTiles as many as the most tiles
+		 * in a band
+		 */
+		int lineLength = isHorizontal ? TOTAL_COLUMNS : TOTAL_ROWS;
+		int tilesPerBand = isHorizontal ? tileColumns : tileRows;
+		for(int band = firstBand; band < lastBand; band ++)
+		{
+			bandMoved[band] = false;
+			if(bandPieces[band + 1] == bandPieces[band])	continue;		//Skip bands with no pieces
+			long score = 0;
+			int merges = 0, bandMaxExponent = 0;
+			boolean isMoved = false;
+
+			//List the allocated tiles of the band in the order they are shifted. Tiles allocated by the move only hold lines
+			//that are already shifted, and tiles freed by the move are skipped below
+			int totalBandTiles = 0;
+			for(int i = 0; i < tilesPerBand; i ++)
+			{
+				int tileNumber = isReversed ? tilesPerBand - 1 - i : i;
+				if(tiles[isHorizontal ? band * tileColumns + tileNumber : tileNumber * tileColumns + band] != null)
+					bandTiles[totalBandTiles ++] = tileNumber;
+			}
+			int lastLine = Math.min((band + 1) << TILE_SHIFT, isHorizontal ? TOTAL_ROWS : TOTAL_COLUMNS);
+			for(int line = band << TILE_SHIFT; line < lastLine; line ++)
+			{
+				//Gather the pieces of the line in the order they are shifted, reading only the allocated tiles
+				int count = 0;
+				for(int i = 0; i < totalBandTiles; i ++)
+				{
+					int tileNumber = bandTiles[i];
+					byte tile[] = tiles[isHorizontal ? band * tileColumns + tileNumber : tileNumber * tileColumns + band];
+					if(tile == null)	continue;
+					int firstPosition = tileNumber << TILE_SHIFT;
+					int tileLength = Math.min(TILE_SIZE, lineLength - firstPosition);
+					for(int j = 0; j < tileLength; j ++)
+					{
+						int position = firstPosition + (isReversed ? tileLength - 1 - j : j);
+						int exponent = tile[isHorizontal ? ((line & TILE_MASK) << TILE_SHIFT) | (position & TILE_MASK)
+								: ((position & TILE_MASK) << TILE_SHIFT) | (line & TILE_MASK)];
+						if(exponent == 0)	continue;
+						positions[count] = isReversed ? lineLength - 1 - position : position;	//Distance from the first cell
+						exponents[count ++] = (byte)exponent;
+					}
+				}
+
+				//Combine the same pieces next to each other in place. A combined piece is not combined again in the same move
+				int shiftedCount = 0, mergeableExponent = 0;
+				boolean isLineMoved = false;
+				for(int i = 0; i < count; i ++)
+				{
+					int exponent = exponents[i];
+					if(exponent == mergeableExponent && exponent != PackedBoard.MAX_EXPONENT)
+					{
+						exponents[shiftedCount - 1] = (byte)(exponent + 1);
+						score += 1L << (exponent + 1);
+						bandMaxExponent = Math.max(bandMaxExponent, exponent + 1);
+						merges ++;
+						mergeableExponent = 0;
+						isLineMoved = true;
+					}
+					else
+					{
+						if(positions[i] != shiftedCount)	isLineMoved = true;
+						exponents[shiftedCount ++] = (byte)(mergeableExponent = exponent);
+					}
+				}
+				if(!isLineMoved)	continue;
+				isMoved = true;
+
+				//Write the shifted pieces to the front of the line then empty the old cells behind them
+				for(int i = 0; i < shiftedCount; i ++)
+					setLineCell(line, i, isHorizontal, isReversed, lineLength, exponents[i]);
+				for(int i = count - 1; i >= 0 && positions[i] >= shiftedCount; i --)
+					setLineCell(line, positions[i], isHorizontal, isReversed, lineLength, 0);
+			}
+			bandScores[band] = score;
+			bandMerges[band] = merges;
+			bandMaxExponents[band] = (byte)bandMaxExponent;
+			bandMoved[band] = isMoved;
+		}
+	}
+
+	private void setLineCell(int line, int position, boolean isHorizontal, boolean isReversed, int lineLength, int exponent)
+	{	//Sets the cell position cells from the first cell of a line
+		if(isReversed)	position = lineLength - 1 - position;
+		int row = isHorizontal ? line : position, column = isHorizontal ? position : line;
+		setCell(tileOf(row, column), cellOf(row, column), exponent);
+	}
+
+	private void setCell(int tileNumber, int cell, int exponent)
+	{
+		/*
+		 * Sets a cell of a tile, allocating the tile when its first piece is placed and freeing it when its last piece is removed.
+		 * Only the task moving the band of the tile calls this during a move
+		 */
+		byte tile[] = tiles[tileNumber];
+		if(tile == null)
+		{
+			if(exponent == 0)	return;
+			tile = tiles[tileNumber] = new byte[TILE_CELLS];
+		}
+		int previousExponent = tile[cell];
+		tile[cell] = (byte)exponent;
+		if(previousExponent == 0 && exponent != 0)			tilePieces[tileNumber] ++;
+		else if(previousExponent != 0 && exponent == 0 && -- tilePieces[tileNumber] == 0)
+			tiles[tileNumber] = null;
+	}
+
+	private void spawn()
+	{
+		/*
+		 * Creates a random 2 or 4 and places it into a random empty cell
+		 */
+		int spawnedExponent = (random.nextInt(10) != 0) ? 1 : 2;			//Spawned number is a 2, 90% of the time otherwise it is a 4
+		long totalCells = (long)TOTAL_ROWS * TOTAL_COLUMNS;
+
+		//Is at most half the board full? If so random cells are empty at least half the time
+		if(occupiedCells * 2 <= totalCells)
+		{
+			int row, column;
+			do
+			{
+				row = random.nextInt(TOTAL_ROWS);
+				column = random.nextInt(TOTAL_COLUMNS);
+			}
+			while(getCellExponent(row, column) != 0);
+			setCellExponent(row, column, spawnedExponent);
+			return;
+		}
+
+		//Skip whole tiles until the tile holding the randomly picked empty cell is found, then search the tile
+		long skip = random.nextLong(totalCells - occupiedCells);
+		for(int tileNumber = 0; ; tileNumber ++)
+		{
+			int firstRow = (tileNumber / tileColumns) << TILE_SHIFT, firstColumn = (tileNumber % tileColumns) << TILE_SHIFT;
+			int tileHeight = Math.min(TILE_SIZE, TOTAL_ROWS - firstRow), tileWidth = Math.min(TILE_SIZE, TOTAL_COLUMNS - firstColumn);
+			int emptyCells = tileHeight * tileWidth - tilePieces[tileNumber];
+			if(skip >= emptyCells)
+			{
+				skip -= emptyCells;
+				continue;
+			}
+			for(int row = firstRow; row < firstRow + tileHeight; row ++)
+				for(int column = firstColumn; column < firstColumn + tileWidth; column ++)
+					if(getCellExponent(row, column) == 0 && skip -- == 0)
+					{
+						setCellExponent(row, column, spawnedExponent);
+						return;
+					}
+		}
+	}
+
+	private boolean hasMergeablePair()
+	{	//Returns whether two cells next to each other can be combined. Only called when every cell is full
+		for(int row = 0; row < TOTAL_ROWS; row ++)
+			for(int column = 0; column < TOTAL_COLUMNS; column ++)
+			{
+				int exponent = getCellExponent(row, column);
+				if(exponent == PackedBoard.MAX_EXPONENT)	continue;
+				if(column + 1 < TOTAL_COLUMNS && getCellExponent(row, column + 1) == exponent)	return true;
+				if(row + 1 < TOTAL_ROWS && getCellExponent(row + 1, column) == exponent)			return true;
+			}
+		return false;
+	}
+
+	private int tileOf(int row, int column)
+	{	//Returns the number of the tile holding a cell
+		return (row >>> TILE_SHIFT) * tileColumns + (column >>> TILE_SHIFT);
+	}
+
+	private static int cellOf(int row, int column)
+	{	//Returns the index of a cell within its tile
+		return ((row & TILE_MASK) << TILE_SHIFT) | (column & TILE_MASK);
+	}
+
+	private final class BandTask extends RecursiveAction
+	{
+		//Class moves a range of bands, splitting it in two while both halves hold enough pieces
+		private static final long serialVersionUID = 1L;
+
+		BandTask(int firstBand, int lastBand, boolean isHorizontal, boolean isReversed)
+		{
+			this.firstBand = firstBand;
+			this.lastBand = lastBand;
+			this.isHorizontal = isHorizontal;
+			this.isReversed = isReversed;
+		}
+
+		@Override
+		protected void compute()
+		{
+			/*
+			 * Splits the bands where half the pieces are on each side, or moves them on this thread if there are too few pieces
+			 */
+			long pieces = bandPieces[lastBand] - bandPieces[firstBand];
+			if(lastBand - firstBand > 1 && pieces >= 2 * MIN_TASK_PIECES)
+			{
+				int middleBand = firstBand + 1;
+				while(middleBand < lastBand - 1 && bandPieces[middleBand] - bandPieces[firstBand] < pieces / 2)
+					middleBand ++;
+				invokeAll(new BandTask(firstBand, middleBand, isHorizontal, isReversed),
+						new BandTask(middleBand, lastBand, isHorizontal, isReversed));
+				return;
+			}
+			int longestLine = Math.max(TOTAL_ROWS, TOTAL_COLUMNS);
+			moveBands(firstBand, lastBand, isHorizontal, isReversed, new int[longestLine], new byte[longestLine],
+					new int[Math.max(tileRows, tileColumns)]);
+		}
+
+		private final int firstBand;
+		private final int lastBand;
+		private final boolean isHorizontal;
+		private final boolean isReversed;
+	}
+
+	private final byte tiles[][];				//Exponents of each 16x16 tile row by row, null for a tile with no pieces
+	private final short tilePieces[];			//Number of pieces on each tile
+	private final int tileRows;
+	private final int tileColumns;
+	private final long bandPieces[];			//Running total of the pieces of the bands before each band, for the current move
+	private final long bandScores[];			//Score gained by each band in the current move
+	private final int bandMerges[];				//Number of pieces combined by each band in the current move
+	private final byte bandMaxExponents[];		//Largest piece made by each band in the current move
+	private final boolean bandMoved[];			//Whether each band was changed by the current move
+	private final int linePositions[];			//Lines moved on the calling thread
+	private final byte lineExponents[];
+	private final int bandTiles[];
+	private final SplittableRandom random;
+	private final ForkJoinPool pool;
+	private long currentScore;
+	private long occupiedCells;
+	private int maxExponent;
+	private int moveCount;
+	private GameStatus currentStatus = GameStatus.PLAYABLE;
+}
@@ -0,0 +1,81 @@
+package twentyFortyEight;
+import java.io.IOException;
+
+import twentyFortyEight.Twenty48Game.Direction;
+/*
+ * Class records the moves of games played on one thread as rows of a training data file. Refer to TrainingDataWriter for the
+ * format. A recorder is created by TrainingDataWriter.createRecorder.
+ *
+ * Every move of a recorded game is made through move so the board is copied before it changes, and endGame is called when the
+ * game is over so its outcome can be stored with its rows. Only one game is recorded at a time, the rows of a game that has not
+ * ended are held until it does. Moves that are not possible are not recorded. A recorder hands its rows to the writer once it
+ * holds about chunkRows rows and when flush is called.
+ *
+ * A recorder is not thread safe, each thread playing games needs its own.
+ */
+public class TrainingDataRecorder
+{
+	private static final Direction DIRECTIONS[] = Direction.values();
+
+	TrainingDataRecorder(TrainingDataWriter writer, int totalCells, int chunkRows)
+	{
+		/*
+		 * Constructor creates a recorder that hands chunks of about chunkRows rows to the writer
+		 */
+		this.writer = writer;
+		this.chunkRows = chunkRows;
+		this.board = new byte[totalCells];
+		this.chunk = new TrainingDataWriter.Chunk(chunkRows, totalCells);
+	}
+
+	public final boolean move(Twenty48Game game, Direction direction)
+	{
+		/*
+		 * Makes a move on the game and records the board before the move, the directions that were possible, the direction and
+		 * the score gained.
+		 * Returns true if the move was made, false if the move is not possible. A move that is not possible is not recorded
+		 */
+		if(game.TOTAL_ROWS != writer.TOTAL_ROWS || game.TOTAL_COLUMNS != writer.TOTAL_COLUMNS)
+			throw new IllegalArgumentException("The game is " + game.TOTAL_ROWS + "x" + game.TOTAL_COLUMNS + ", the file is "
+					+ writer.TOTAL_ROWS + "x" + writer.TOTAL_COLUMNS);
+		int possibleDirectionMask = 0;
+		for(Direction possibleDirection : DIRECTIONS)
+			if(game.canMove(possibleDirection))	possibleDirectionMask |= 1 << possibleDirection.ordinal();
+		if((possibleDirectionMask & (1 << direction.ordinal())) == 0)	return false;
+
+		game.getPosition(board);
+		int previousScore = game.getScore();
+		game.move(direction);
+		chunk.add(board, possibleDirectionMask, direction.ordinal(), game.getScore() - previousScore);
+		return true;
+	}
+
+	public final void endGame(Twenty48Game game) throws IOException
+	{
+		/*
+		 * Stores the final score and largest tile of the game in the rows recorded since the last game ended. Hands the rows
+		 * to the writer if the recorder holds enough of them
+		 */
+		chunk.endGame(firstGameRow, writer.nextGameNumber(), game.getScore(), game.getMaxExponent());
+		firstGameRow = chunk.size;
+		if(chunk.size >= chunkRows)	flush();
+	}
+
+	public final void flush() throws IOException
+	{
+		/*
+		 * Hands the rows of every game that has ended to the writer. The rows of a game that has not ended are kept
+		 */
+		if(firstGameRow == 0)	return;
+		TrainingDataWriter.Chunk finishedRows = chunk;
+		chunk = finishedRows.split(firstGameRow, chunkRows);
+		firstGameRow = 0;
+		writer.submit(finishedRows);
+	}
+
+	private final TrainingDataWriter writer;
+	private final int chunkRows;
+	private final byte board[];						//Holds the board of the game before each move
+	private TrainingDataWriter.Chunk chunk;			//Rows not yet handed to the writer
+	private int firstGameRow;						//Row of the chunk where the game being recorded starts
+}
@@ -0,0 +1,368 @@
+package twentyFortyEight;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+/*
+ * Class writes training data from games as they are played to a columnar file. Each row of the file is one move: the board before
+ * the move, which directions were possible, the direction chosen, the score gained and the outcome of the game the move was part
+ * of. Moves are recorded by a TrainingDataRecorder, one per thread playing games, and every game must have the size of the file.
+ *
+ * Recorders collect rows into chunks and hand full chunks to the writer. The writer holds at most queueCapacity chunks and
+ * writes them to the file on its own thread, so a thread playing games only waits when the disk falls that many chunks behind.
+ * Compressing and writing are both done on the writer thread. A chunk is only handed over once every game in it is over, since
+ * the outcome of a game is not known until then.
+ *
+ * The file is a header followed by chunks. Within a chunk every column is stored on its own, one value per row, so a reader can
+ * take the columns it needs without parsing the others. All values are big endian:
+ *
+ * 		Header			MAGIC (4), VERSION (2), rows (1), columns (1), flags (1), reserved (3)
+ * 		Chunk			row count (n) (4), flags (1), reserved (3), size of the columns (4), size stored in the file (4), columns
+ * 		Columns			game number (4n), boards (n * board size), possible directions (n), chosen direction (n), score gained (4n),
+ * 						final score (4n), exponent of the largest tile at the end of the game (n)
+ *
+ * A board is the exponent of every cell row by row (see PackedBoard). When no cell of a chunk holds more than 2^15 the chunk has
+ * the NIBBLE_BOARDS flag and the exponents are packed two to a byte, the first cell in the low 4 bits, so a board takes
+ * (rows * columns + 1) / 2 bytes. Otherwise a board takes one byte per cell. The possible directions are a bit mask with bit d set
+ * when the direction with ordinal d could be moved, and the chosen direction is an ordinal of Twenty48Game.Direction. Game numbers
+ * are given out by the writer in the order games end, starting at 0.
+ *
+ * When the file has the COMPRESSED flag the columns of every chunk are compressed with Deflater (zlib format) and the stored size
+ * is the size of the compressed data. Otherwise the stored size is the size of the columns.
+ */
+public class TrainingDataWriter implements Closeable
+{
+	public static final int DEFAULT_CHUNK_ROWS = 1 << 14;			//Rows collected by a recorder before they are handed over
+	public static final int DEFAULT_QUEUE_CAPACITY = 8;			//Chunks waiting to be written before recorders wait
+
+	static final int MAGIC = 0x32303454;			//"204T", the first 4 bytes of a training data file
+	static final short VERSION = 1;					//The version of the training data format
+	static final int HEADER_SIZE = 12;				//Bytes before the first chunk
+	static final int CHUNK_HEADER_SIZE = 16;		//Bytes before the columns of a chunk
+	static final byte COMPRESSED = 1;				//File flag set when the columns of every chunk are compressed
+	static final byte NIBBLE_BOARDS = 1;			//Chunk flag set when the exponents of the boards are packed two to a byte
+	private static final int MAX_NIBBLE_EXPONENT = 15;
+	private static final Chunk END = new Chunk(0, 0);	//Tells the writer thread to stop
+
+	public final int TOTAL_ROWS;
+	public final int TOTAL_COLUMNS;
+
+	public TrainingDataWriter(Path path, int numberOfRows, int numberOfColumns) throws IOException
+	{
+		/*
+		 * Constructor creates or replaces an uncompressed training data file with the default chunk size and queue capacity
+		 */
+		this(path, numberOfRows, numberOfColumns, DEFAULT_CHUNK_ROWS, false, DEFAULT_QUEUE_CAPACITY);
+	}
+
+	public TrainingDataWriter(Path path, int numberOfRows, int numberOfColumns, int chunkRows, boolean isCompressed,
+			int queueCapacity) throws IOException
+	{
+		/*
+		 * Constructor creates or replaces a training data file for boards of the specified size, writes the header and starts
+		 * the writer thread. Recorders hand over chunks of about chunkRows rows
+		 */
+		Twenty48Game.checkDimensions(numberOfRows, numberOfColumns);
+		if(chunkRows < 1)		throw new IllegalArgumentException("chunkRows must be at least 1");
+		if(queueCapacity < 1)	throw new IllegalArgumentException("queueCapacity must be at least 1");
+		TOTAL_ROWS = numberOfRows;
+		TOTAL_COLUMNS = numberOfColumns;
+		this.chunkRows = chunkRows;
+		this.deflater = isCompressed ? new Deflater() : null;
+		this.queue = new ArrayBlockingQueue<Chunk>(queueCapacity);
+		this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		header.putInt(MAGIC).putShort(VERSION).put((byte)numberOfRows).put((byte)numberOfColumns);
+		header.put(isCompressed ? COMPRESSED : 0).put((byte)0).putShort((short)0);
+		header.flip();
+		try
+		{
+			write(header);
+		}
+		catch(IOException e)
+		{
+			channel.close();
+			throw e;
+		}
+
+		//The writer thread is a daemon so a writer that is never closed does not keep the JVM running
+		thread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				writeChunks();
+			}
+		}, "TrainingDataWriter");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public final TrainingDataRecorder createRecorder()
+	{	//Returns a recorder that adds rows to the file. A recorder must only be used by one thread
+		return new TrainingDataRecorder(this, TOTAL_ROWS * TOTAL_COLUMNS, chunkRows);
+	}
+
+	public final long getRowsWritten()
+	{	//Returns the number of rows written to the file so far
+		return rowsWritten;
+	}
+
+	public final long getBytesWritten()
+	{	//Returns the size of the file so far
+		return bytesWritten;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		/*
+		 * Waits for the chunks already handed over to be written, stops the writer thread and closes the file. Rows still held
+		 * by recorders are not written, call flush on each recorder first.
+		 * Throws the IOException the writer thread failed with, if any
+		 */
+		if(isClosed)	return;
+		isClosed = true;
+		try
+		{
+			queue.put(END);
+			thread.join();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the training data file");
+		}
+		finally
+		{
+			channel.close();
+			if(deflater != null)	deflater.end();
+		}
+		if(failure != null)	throw new IOException("Writing the training data file failed", failure);
+	}
+
+	final int nextGameNumber()
+	{	//Returns the number of a game that just ended
+		return gameNumbers.getAndIncrement();
+	}
+
+	final void submit(Chunk chunk) throws IOException
+	{
+		/*
+		 * Hands a chunk to the writer thread, waiting while the queue is full.
+		 * Throws IOException if the writer is closed or the writer thread failed
+		 */
+		if(isClosed)		throw new IOException("The training data file is closed");
+		if(failure != null)	throw new IOException("Writing the training data file failed", failure);
+		try
+		{
+			queue.put(chunk);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while handing over training data");
+		}
+	}
+
+	private void writeChunks()
+	{
+		/*
+		 * Run by the writer thread. Writes chunks until END is taken. After a failure the chunks are still taken so recorders do
+		 * not wait forever, but they are not written
+		 */
+		int totalCells = TOTAL_ROWS * TOTAL_COLUMNS;
+		ByteBuffer columns = ByteBuffer.allocate(0);
+		byte compressed[] = new byte[0];
+		ByteBuffer chunkHeader = ByteBuffer.allocate(CHUNK_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+		while(true)
+		{
+			Chunk chunk;
+			try
+			{
+				chunk = queue.take();
+			}
+			catch(InterruptedException e)
+			{
+				failure = e;
+				return;
+			}
+			if(chunk == END)	return;
+			if(failure != null || chunk.size == 0)	continue;
+			try
+			{
+				//Lay out the columns. Are the boards small enough to pack two exponents to a byte? If so pack them
+				boolean isNibbleBoards = chunk.getMaxExponent() <= MAX_NIBBLE_EXPONENT;
+				int boardSize = isNibbleBoards ? (totalCells + 1) / 2 : totalCells;
+				int columnsSize = chunk.size * (4 + boardSize + 1 + 1 + 4 + 4 + 1);
+				if(columns.capacity() < columnsSize)	columns = ByteBuffer.allocate(columnsSize).order(ByteOrder.BIG_ENDIAN);
+				columns.clear();
+				chunk.putColumns(columns, totalCells, isNibbleBoards);
+				columns.flip();
+
+				//Is the file compressed? If so deflate the columns
+				ByteBuffer stored = columns;
+				if(deflater != null)
+				{
+					if(compressed.length < columnsSize + columnsSize / 1000 + 64)
+						compressed = new byte[columnsSize + columnsSize / 1000 + 64];	//Deflate never grows data more than this
+					deflater.reset();
+					deflater.setInput(columns.array(), 0, columnsSize);
+					deflater.finish();
+					int compressedSize = 0;
+					while(!deflater.finished())
+						compressedSize += deflater.deflate(compressed, compressedSize, compressed.length - compressedSize);
+					stored = ByteBuffer.wrap(compressed, 0, compressedSize);
+				}
+
+				chunkHeader.clear();
+				chunkHeader.putInt(chunk.size).put(isNibbleBoards ? NIBBLE_BOARDS : 0).put((byte)0).putShort((short)0);
+				chunkHeader.putInt(columnsSize).putInt(stored.remaining());
+				chunkHeader.flip();
+				write(chunkHeader);
+				write(stored);
+				rowsWritten += chunk.size;
+			}
+			catch(IOException e)
+			{
+				failure = e;
+			}
+		}
+	}
+
+	private void write(ByteBuffer buffer) throws IOException
+	{	//Writes the buffer to the end of the file
+		bytesWritten += buffer.remaining();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+	}
+
+	static final class Chunk
+	{
+		/*
+		 * Class holds the columns of rows collected by a recorder. The columns grow as rows are added
+		 */
+		Chunk(int capacity, int totalCells)
+		{
+			this.totalCells = totalCells;
+			gameNumbers = new int[capacity];
+			boards = new byte[capacity * totalCells];
+			possibleDirections = new byte[capacity];
+			chosenDirections = new byte[capacity];
+			scoreGains = new int[capacity];
+			finalScores = new int[capacity];
+			finalMaxExponents = new byte[capacity];
+		}
+
+		void add(byte board[], int possibleDirectionMask, int direction, int scoreGained)
+		{	//Adds a row whose game has not ended yet
+			if(size == chosenDirections.length)	grow();
+			System.arraycopy(board, 0, boards, size * totalCells, totalCells);
+			possibleDirections[size] = (byte)possibleDirectionMask;
+			chosenDirections[size] = (byte)direction;
+			scoreGains[size ++] = scoreGained;
+		}
+
+		void endGame(int firstRow, int gameNumber, int finalScore, int finalMaxExponent)
+		{	//Stores the outcome of a game in its rows, from firstRow to the last row
+			Arrays.fill(gameNumbers, firstRow, size, gameNumber);
+			Arrays.fill(finalScores, firstRow, size, finalScore);
+			Arrays.fill(finalMaxExponents, firstRow, size, (byte)finalMaxExponent);
+		}
+
+		Chunk split(int firstRow, int capacity)
+		{
+			/*
+			 * Moves the rows from firstRow to the last row to a new chunk and returns it
+			 */
+			int rows = size - firstRow;
+			Chunk tail = new Chunk(Math.max(capacity, rows), totalCells);
+			System.arraycopy(boards, firstRow * totalCells, tail.boards, 0, rows * totalCells);
+			System.arraycopy(possibleDirections, firstRow, tail.possibleDirections, 0, rows);
+			System.arraycopy(chosenDirections, firstRow, tail.chosenDirections, 0, rows);
+			System.arraycopy(scoreGains, firstRow, tail.scoreGains, 0, rows);
+			tail.size = rows;
+			size = firstRow;
+			return tail;
+		}
+
+		int getMaxExponent()
+		{	//Returns the largest exponent of every board
+			int maxExponent = 0;
+			for(int i = 0; i < size * totalCells; i ++)
+				maxExponent = Math.max(maxExponent, boards[i]);
+			return maxExponent;
+		}
+
+		void putColumns(ByteBuffer buffer, int totalCells, boolean isNibbleBoards)
+		{
+			/*
+			 * Adds every column to the buffer in the order of the format
+			 */
+			for(int row = 0; row < size; row ++)
+				buffer.putInt(gameNumbers[row]);
+			for(int row = 0; row < size; row ++)
+			{
+				int first = row * totalCells;
+				if(!isNibbleBoards)
+				{
+					buffer.put(boards, first, totalCells);
+					continue;
+				}
+				for(int cell = 0; cell < totalCells; cell += 2)
+					buffer.put((byte)(boards[first + cell] | ((cell + 1 < totalCells) ? boards[first + cell + 1] << 4 : 0)));
+			}
+			buffer.put(possibleDirections, 0, size);
+			buffer.put(chosenDirections, 0, size);
+			for(int row = 0; row < size; row ++)
+				buffer.putInt(scoreGains[row]);
+			for(int row = 0; row < size; row ++)
+				buffer.putInt(finalScores[row]);
+			buffer.put(finalMaxExponents, 0, size);
+		}
+
+		private void grow()
+		{	//Doubles the number of rows the columns hold
+			int capacity = Math.max(16, chosenDirections.length * 2);
+			gameNumbers = Arrays.copyOf(gameNumbers, capacity);
+			boards = Arrays.copyOf(boards, capacity * totalCells);
+			possibleDirections = Arrays.copyOf(possibleDirections, capacity);
+			chosenDirections = Arrays.copyOf(chosenDirections, capacity);
+			scoreGains = Arrays.copyOf(scoreGains, capacity);
+			finalScores = Arrays.copyOf(finalScores, capacity);
+			finalMaxExponents = Arrays.copyOf(finalMaxExponents, capacity);
+		}
+
+		private final int totalCells;
+		private int gameNumbers[];
+		private byte boards[];
+		private byte possibleDirections[];
+		private byte chosenDirections[];
+		private int scoreGains[];
+		private int finalScores[];
+		private byte finalMaxExponents[];
+		int size;							//Number of rows held
+	}
+
+	private final int chunkRows;
+	private final Deflater deflater;					//Used only by the writer thread, null when the file is not compressed
+	private final BlockingQueue<Chunk> queue;			//Chunks waiting to be written
+	private final FileChannel channel;
+	private final Thread thread;
+	private final AtomicInteger gameNumbers = new AtomicInteger();
+	private volatile Throwable failure;					//What stopped the writer thread from writing, null if nothing did
+	private volatile long rowsWritten;					//Only changed by the writer thread
+	private volatile long bytesWritten;					//Only changed by the writer thread after the header
+	private volatile boolean isClosed;
+}
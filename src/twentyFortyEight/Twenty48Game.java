@@ -1,7 +1,13 @@
 package twentyFortyEight;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 /*
  * Author: David Jones
  * Date: Mar. 2, 2017 
@@ -11,25 +17,73 @@ import java.io.ObjectOutputStream;
  * 2048 is typically a 4x4 board of numbers. The goal of the game is to combine like numbers by moving left, right, up or down
  * to obtain the value of 2048. When the game starts two numbers (a 2 or 4) are randomly placed on the board
  * Each time the player completes a move a single 2 or 4 is spawned into a random location. This version allows the game board to be
- * set at initialization from [3-16] x [3-16].
+ * set at initialization from [3-16] x [3-16]. Other sizes are rejected by the constructor, larger boards can be played with
+ * SparseBoardGame.
  * 
  * This class contains methods to control the game allowing for spawning a random number, making
  * a move vertically (up or down) and horizontally (right or left), undoing up to 10 moves, getting the status of the game, and displaying
  * the board via the console. 
  * 
- * It spawns random numbers by generating a 2 90% of the time and a 4 10% of the time. A list is populated
- * of all open cells and a cell to place the random number is randomly selected from the list. 
+ * It spawns random numbers by generating a 2 90% of the time and a 4 10% of the time. A set of all open cells is kept up to date
+ * as cells are changed and a cell to place the random number is randomly selected from the set. The random number generator can be
+ * passed to the constructor so games can be replayed from a seed and games on different threads never share a generator.
  * 
  * Moves are made by shifting all cells in the direction of movement removing any empty (0 valued cells) that exist between cells 
  * that are not empty (non 0 valued). Same valued cells that are adjacent are merged and added to a score. 
  * and selecting a random index
+ * A sequence of moves can be made in one call with applyMoves, which writes whether each move was made, the score it gained, the
+ * piece it spawned and the status after it to an int array supplied by the caller.
  * 
- * Moves are undone by restoring the game state, board, score and move count of the previous move.
+ * A 4x4 board is stored as a single long by the bitboard engine (see BitBoard) and each move is a handful of table lookups. 
+ * Every other size is stored as one flat array of tile exponents (see PackedBoard) and each move shifts the rows or columns of
+ * the array as lines. Lines of 5 to 16 cells can be looked up in a cache of lines shifted before (see RowCache).
+ * 
+ * A game can be forked into an independent copy for tree searches (see fork). The copy shares the board and the saved states
+ * with the game until either one changes them.
+ * 
+ * Moves are undone by restoring the game state, board, score and move count of the previous move. The saved states are kept in a
+ * circular buffer allocated when the game is created (see UndoHistory). The number of moves that can be undone is 10 unless
+ * another undo depth is passed to the constructor, 0 turns saving off. The saved states can hold only the cells changed by each
+ * move instead of copies of the board so deep histories of large boards stay small.
  * 
  * The status of the game corresponds to the last executed move. The status determines whether the game is playable, whether the last 
- * move was a winning move, whether the game has been won and is still playable and whether the game has been lost.
+ * move was a winning move, whether the game has been won and is still playable and whether the game has been lost. The number of
+ * tiles of each value and the number of same cells next to each other are kept up to date as cells are changed so the status is
+ * found without scanning the board. A 4x4 board finds the same with a few word operations on the bitboard.
+ * 
+ * The board is displayed via the console with a double edged border and cells being divided with single lined borders (see
+ * ConsoleRenderer).
+ * 
+ * Every board has a Zobrist hash and a canonical hash that is the same for every rotation and reflection of the board (see
+ * ZobristHash). A packed board keeps its Zobrist hash up to date as cells are changed and rebuilds it when the board is replaced.
+ * A 4x4 bitboard computes it from its nibbles each time it is asked for, with the same result as a packed 4x4 board with the same
+ * cells. Either hash can key a cache of positions such as PositionStore.
+ * 
+ * Moves, spawns, undos and status checks are counted, and they and the other public operations are timed, for JMX when the JVM
+ * is started with -Dtwenty48.metrics=true (see GameMetrics). The metrics cost nothing when they are off.
  * 
- * The board is displayed via the console with a double edged border and cells being divided with single lined borders.
+ * A game is saved in a fixed layout binary format that is written to and read from a ByteBuffer, so it can be saved through a
+ * FileChannel and loaded from a memory mapped file. All values are big endian:
+ * 
+ * 		Offset	Size					Value
+ * 		0		4						SAVE_MAGIC, the characters "2048"
+ * 		4		2						SAVE_VERSION
+ * 		6		1						Number of rows
+ * 		7		1						Number of columns
+ * 		8		4						Undo depth
+ * 		12		1						Flags, SAVE_DELTA_UNDO when the saved states hold only changed cells
+ * 		13		1						Ordinal of the status
+ * 		14		2						Reserved, 0
+ * 		16		4						Move count
+ * 		20		4						Score
+ * 		24		4						Number of saved states (n)
+ * 		28		rows * columns			Exponent of every cell of the board, row by row
+ * 				4 * n					Score of every saved state, oldest first
+ * 				n						Ordinal of the status of every saved state, oldest first
+ * 				n * rows * columns		Board of every saved state, oldest first
+ * 
+ * The older format written to an ObjectOutputStream by serializeToStream can still be read by the Twenty48Game(ObjectInputStream)
+ * constructor.
  * 
  * Typically the class is used in the following order. Constructor is called initializing the game to a specified number of rows and columns.
  * A loop is executed that makes calls to this class to display the board, move a piece, and check the status
@@ -37,8 +91,8 @@ import java.io.ObjectOutputStream;
  * 
  * The class is marked as public so it can be used outside the package. 
  */
-import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 
 public class Twenty48Game
 {
@@ -51,8 +105,24 @@ public class Twenty48Game
 		PLAYABLE,							//The game has not been won, possible moves exist
 		}
 	
+	public enum Direction					//Used to indicate the direction of a move
+	{
+		LEFT,								//Cells shift towards column 0
+		RIGHT,								//Cells shift towards the last column
+		UP,									//Cells shift towards the last row
+		DOWN,								//Cells shift towards row 0
+	}
+	
 	public static final int MAX_BOARD_DIMENSION = 16;		//The maximum number of rows or columns the board can have
 	public static final int MIN_BOARD_DIMENSION = 3;		//The minimum number of rows or columns the board can have
+	public static final int DEFAULT_UNDO_DEPTH = 10;		//The number of moves that can be undone unless specified
+	
+	public static final int MOVE_RESULT_SIZE = 5;			//Ints applyMoves writes for each move, at these offsets:
+	public static final int RESULT_MOVED = 0;				//1 if the move was made, 0 if it was not possible
+	public static final int RESULT_SCORE_GAINED = 1;		//Score gained by combining cells
+	public static final int RESULT_SPAWN_CELL = 2;			//Cell of the spawned piece numbered row by row, -1 if none
+	public static final int RESULT_SPAWN_EXPONENT = 3;		//Exponent of the spawned piece, 1 for a 2 and 2 for a 4, 0 if none
+	public static final int RESULT_STATUS = 4;				//Ordinal of the status returned by getGameStatus after the move
 	
 	public final int TOTAL_ROWS;									
 	public final int TOTAL_COLUMNS;	
@@ -60,43 +130,124 @@ public class Twenty48Game
     public Twenty48Game	(int numberOfRows, int numberOfColumns)
 	{
     	/*
-    	 *	Constructor initializes the current board. The constructor also creates an empty list of open cells
-    	 *  and spawns two pieces.
+    	 *	Constructor initializes the current board with a random number generator seeded by the system
     	 */
-    	TOTAL_ROWS = numberOfRows;
-		TOTAL_COLUMNS = numberOfColumns;
-		
-		//Make capacity of the save states 11 so 10 undo moves are possible. 11 is chosen because when 10 saved states already exist
-		//an eleventh one is pushed onto the stack before the bottom one is removed
-		savedStates.ensureCapacity(11);										
-		currentBoard = new int[numberOfRows][numberOfColumns];
-		openCells = new ArrayList<Integer>(numberOfRows * numberOfColumns);	//Make the capacity of the array list the total number of cells
+    	this(numberOfRows, numberOfColumns, new SplittableRandom());
+	}
+    
+    public Twenty48Game	(int numberOfRows, int numberOfColumns, SplittableRandom random)
+	{
+    	/*
+    	 *	Constructor initializes the current board with the random number generator and the default undo depth
+    	 */
+    	this(numberOfRows, numberOfColumns, random, DEFAULT_UNDO_DEPTH, false);
+	}
+    
+    public Twenty48Game	(int numberOfRows, int numberOfColumns, SplittableRandom random, int undoDepth, boolean deltaUndo)
+	{
+    	/*
+    	 *	Constructor initializes the current board. The constructor also creates an empty set of open cells, a history that can
+    	 *  undo up to undoDepth moves and spawns two pieces using the random number generator. If deltaUndo is true the history
+    	 *  saves only the cells changed by each move.
+    	 */
+    	this(numberOfRows, numberOfColumns, 
+    			numberOfRows == BitBoard.BOARD_DIMENSION && numberOfColumns == BitBoard.BOARD_DIMENSION, undoDepth, deltaUndo, random);
 		spawn();		//Spawn two pieces
 		spawn();		
 	}
     
-    public Twenty48Game(ObjectInputStream inputStream) throws IOException, ClassNotFoundException
+    private Twenty48Game(int numberOfRows, int numberOfColumns, boolean isBitBoard, int undoDepth, boolean deltaUndo, 
+    		SplittableRandom random)
     {
     	/*
-    	 * Constructor reads saved data from the input stream and initializes the board
+    	 * Constructor allocates an empty board, the set of open cells and the history. No pieces are spawned
     	 */
+    	checkDimensions(numberOfRows, numberOfColumns);
+    	TOTAL_ROWS = numberOfRows;
+		TOTAL_COLUMNS = numberOfColumns;
+		this.isBitBoard = isBitBoard;
+		
+		savedStates = new UndoHistory(undoDepth, numberOfRows * numberOfColumns, isBitBoard, deltaUndo);
+		if(!isBitBoard)	currentBoard = new byte[numberOfRows * numberOfColumns];
+		lineBuffer = new byte[Math.max(numberOfRows, numberOfColumns)];
+		openCells = new int[numberOfRows * numberOfColumns];		//Make the capacity of the set the total number of cells
+		openCellPositions = new int[numberOfRows * numberOfColumns];
+		tileCounts = isBitBoard ? null : new int[PackedBoard.MAX_EXPONENT + 1];
+		this.random = random;
+		countCells();
+    }
     
-    	//Make capacity of the save states 11 so 10 undo moves are possible. 11 is chosen because when 10 saved states already exist
-    	//an eleventh one is pushed onto the stack before the bottom one is removed
-    	savedStates.ensureCapacity(11);
+    private Twenty48Game(Twenty48Game game, SplittableRandom random)
+    {
+    	/*
+    	 * Constructor copies a game for fork. The packed board, the arrays counting its cells and the saved states are shared
+    	 * with the game until either changes them
+    	 */
+    	TOTAL_ROWS = game.TOTAL_ROWS;
+    	TOTAL_COLUMNS = game.TOTAL_COLUMNS;
+    	isBitBoard = game.isBitBoard;
+    	bitBoard = game.bitBoard;
+    	currentBoard = game.currentBoard;
+    	savedStates = game.savedStates.share();
+    	moveCount = game.moveCount;
+    	currentScore = game.currentScore;
+    	currentStatus = game.currentStatus;
+    	openCells = game.openCells;
+    	openCellPositions = game.openCellPositions;
+    	totalOpenCells = game.totalOpenCells;
+    	tileCounts = game.tileCounts;
+    	maxExponent = game.maxExponent;
+    	mergeablePairs = game.mergeablePairs;
+    	boardHash = game.boardHash;
+    	lastSpawnCell = game.lastSpawnCell;
+    	lastSpawnExponent = game.lastSpawnExponent;
+    	lineBuffer = new byte[game.lineBuffer.length];
+    	this.random = random;
+    	if(!isBitBoard)	isBoardShared = game.isBoardShared = true;
+    }
+    
+    public Twenty48Game(ObjectInputStream inputStream) throws IOException, ClassNotFoundException
+    {
+    	/*
+    	 * Constructor reads saved data from the input stream and initializes the board. The undo depth is the default depth or
+    	 * the number of saved states in the stream if that is larger. Reads the format written by serializeToStream, new saves
+    	 * should use the binary format (see deserializeFromBuffer)
+    	 */
     	
-    	//Read the current board
-    	currentBoard = (int[][])inputStream.readObject();
-    	this.TOTAL_ROWS = currentBoard.length;
-    	this.TOTAL_COLUMNS = currentBoard[0].length;
+    	//Read the current board. The stream holds an array of tile values for every size
+    	int board[][] = (int[][])inputStream.readObject();
+    	if(board.length < MIN_BOARD_DIMENSION || board.length > MAX_BOARD_DIMENSION 
+    			|| board[0].length < MIN_BOARD_DIMENSION || board[0].length > MAX_BOARD_DIMENSION)
+    		throw new IOException("The saved board is " + board.length + "x" + board[0].length);
+    	this.TOTAL_ROWS = board.length;
+    	this.TOTAL_COLUMNS = board[0].length;
+    	lineBuffer = new byte[Math.max(TOTAL_ROWS, TOTAL_COLUMNS)];
     	
-    	//Make the capacity of the array list the total number of cells
-    	openCells = new ArrayList<Integer>(TOTAL_ROWS * TOTAL_COLUMNS);
+    	//Use the bitboard engine when every tile fits in a nibble. Tiles never get smaller so the saved boards fit as well
+    	isBitBoard = BitBoard.fits(board);
+    	if(isBitBoard)	bitBoard = BitBoard.fromArray(board);
+    	else			currentBoard = PackedBoard.fromArray(board);
     	
-    	//Read the saved boards
+    	//Make the capacity of the set the total number of cells
+    	openCells = new int[TOTAL_ROWS * TOTAL_COLUMNS];
+    	openCellPositions = new int[TOTAL_ROWS * TOTAL_COLUMNS];
+    	tileCounts = isBitBoard ? null : new int[PackedBoard.MAX_EXPONENT + 1];
+    	random = new SplittableRandom();
+    	countCells();
+    	
+    	//Read the saved boards, scores and statuses oldest first
     	int totalSavedStates = inputStream.readInt();
+    	savedStates = new UndoHistory(Math.max(DEFAULT_UNDO_DEPTH, totalSavedStates), TOTAL_ROWS * TOTAL_COLUMNS, isBitBoard, false);
+    	byte savedBoards[][] = new byte[totalSavedStates][];
+    	int savedScores[] = new int[totalSavedStates];
+    	GameStatus savedStatuses[] = new GameStatus[totalSavedStates];
     	for(int i = 0; i < totalSavedStates; i ++)
-    		savedStates.push(new GameState(inputStream));
+    	{
+    		savedBoards[i] = PackedBoard.fromArray((int[][])inputStream.readObject());
+    		savedScores[i] = inputStream.readInt();
+    		savedStatuses[i] = (GameStatus)inputStream.readObject();
+    	}
+    	loadSavedStates(savedBoards, savedScores, savedStatuses);
     	
     	//Read the saved move count, score and status
     	moveCount = inputStream.readInt();
@@ -104,6 +255,60 @@ public class Twenty48Game
     	currentStatus = (GameStatus)inputStream.readObject();
     }
     
+    public final void reset()
+    {
+    	/*
+    	 * Starts a new game on the same board. The board, saved states, move count, score and status are cleared and two pieces
+    	 * are spawned. Allows a game to be reused instead of creating a new one for every game played
+    	 */
+    	if(isBitBoard)	bitBoard = 0;
+    	else
+    	{
+    		unshareBoard();
+    		Arrays.fill(currentBoard, (byte)0);
+    	}
+    	countCells();
+    	savedStates.clear();
+    	moveCount = 0;
+    	currentScore = 0;
+    	currentStatus = GameStatus.PLAYABLE;
+    	spawn();		//Spawn two pieces
+    	spawn();
+    }
+    
+    public final void reset(SplittableRandom random)
+    {
+    	/*
+    	 * Starts a new game the same as reset() that spawns pieces with the specified random number generator
+    	 */
+    	this.random = random;
+    	reset();
+    }
+    
+    public final Twenty48Game fork()
+    {
+    	/*
+    	 * Returns a copy of the game that spawns pieces from a random number generator split from the one of this game
+    	 */
+    	return fork(random.split());
+    }
+    
+    public final Twenty48Game fork(SplittableRandom random)
+    {
+    	/*
+    	 * Returns a copy of the game that spawns pieces with the random number generator. The copy can be played and undone
+    	 * without changing this game. The board and the saved states are shared with the copy rather than copied, each game
+    	 * copies the board the first time it changes a cell and copies the saved states the first time it saves a state, so a
+    	 * fork costs about the same as creating an empty game object. The games can be played on different threads, but a game
+    	 * must not be used by another thread while it is being forked
+    	 */
+    	if(!GameMetrics.ENABLED)	return new Twenty48Game(this, random);
+    	long startTime = GameMetrics.startTimer();
+    	Twenty48Game copy = new Twenty48Game(this, random);
+    	GameMetrics.recordOperation(GameMetrics.FORK, startTime);
+    	return copy;
+    }
+    
     public boolean isUndoPossible()
     {
     	/*
@@ -117,44 +322,11 @@ public class Twenty48Game
     public void displayBoard	()
 	{
     	/*
-    	 * Prints the game board on the console with a pretty boarder. Accommodates for cells that have a width up to 4 numbers. Also
-    	 * prints the move count and current score.
+    	 * Prints the game board on the console with a pretty boarder. Cells are as wide as the largest tile, at least 4 numbers. Also
+    	 * prints the move count and current score. The board is drawn by a ConsoleRenderer that is created on the first call
     	 */
-    	
-		//Print the top border. The top border will have double border style. 
-		System.out.print("\u2554");									//Top Left Double Border
-		for(int column = 0; column < TOTAL_COLUMNS - 1; column ++)
-			System.out.print("\u2550\u2550\u2550\u2550\u2564");		// 4 '=' and one top double border with downward single vertical bar
-		System.out.println("\u2550\u2550\u2550\u2550\u2557");		// 4 '=' and 1 top right double corner
-		
-		//Display the rows and their bottom borders. Do not display last row BOTTOM BORDER in the loop, it is different
-		//(last row values are displayed in the loop)
-		for(int row = TOTAL_ROWS - 1; row >= 0; row --)							
-		{
-			System.out.print('\u2551');	 //	 	'||'
-			
-			//Display the cells except the last one with a vertical border '|' in the current row. 
-			for(int column = 0; column < TOTAL_COLUMNS - 1; column ++)	
-				if(currentBoard[row][column] != 0)		System.out.printf("%4d\u2502",currentBoard[row][column]);	
-				else									System.out.print("    \u2502");	
-			
-			//Display the last cell of the current row with a double vertical boarder '||'. 
-			if(currentBoard[row][TOTAL_COLUMNS -1] != 0)	System.out.printf("%4d\u2551%n",currentBoard[row][TOTAL_COLUMNS - 1]);
-			else										System.out.println("    \u2551");						
-			if(row == 0)	break;	//Is this the last row? If so exit the loop because the bottom border is different
-	
-			//Display the bottom border of the current row
-			System.out.print("\u255F");									// 		'||-'
-			for(int column = 0; column < TOTAL_COLUMNS - 1; column ++)			
-				System.out.print("\u2500\u2500\u2500\u2500\u253C");		// 4 	'-' and 1 '-|-'
-			System.out.println("\u2500\u2500\u2500\u2500\u2562");		// 4 	'-' and  1 '-||'
-		}
-		//Display the bottom border of board
-		System.out.print("\u255A");										// Bottom left double corner
-		for(int column = 0; column < TOTAL_COLUMNS - 1; column ++)			
-			System.out.print("\u2550\u2550\u2550\u2550\u2567");			// 4	'=' and double border with single vertical bar
-		System.out.println("\u2550\u2550\u2550\u2550\u255D");			// 4	'=' and the bottom right corner
-		System.out.println("Moves Made: " + moveCount + " Score: " + currentScore);	//Display move count and score
+    	if(renderer == null)	renderer = new ConsoleRenderer(System.out);
+    	renderer.render(this);
 	}
    
     public final boolean moveDown () 
@@ -164,67 +336,11 @@ public class Twenty48Game
     	 * Returns true if the move was made, false if the move is not possible
     	 */
     	
-    	boolean wasShifted = false;	//Determines if any cells have been changed.
-
-    	//Go through each column and shift and combine cells in a downward direction
-    	for(int column = 0; column < TOTAL_COLUMNS; column ++)				
-    	{
-    		int zeroIndex, count; 	//zeroIndex is the row index of a zero valued cell. Count is the number of subsequent non-zero cells
-    		
-    		//Find the first cell with a zero searching from bottom to top (loop does not contain a body)					
-    		for(zeroIndex = 0; zeroIndex < TOTAL_ROWS - 1 && currentBoard[zeroIndex][column] != 0; zeroIndex ++);
-    		
-    		//Find a cell above zeroIndex that has a non-zero value. Move subsequent non-zero cells to the location of the non-zero value
-    		for(int nonZeroIndex = zeroIndex + 1; nonZeroIndex < TOTAL_ROWS; nonZeroIndex ++) 
-    		{
-    			//Does the cell contain a 0? If so skip it
-    			if(currentBoard[nonZeroIndex][column] == 0)	continue; 	
-    			
-    			//Has the board not been changed yet? If so save the state of the game
-    			if(!wasShifted)			
-    			{
-    				saveCurrentState();
-    				wasShifted = true;						
-    			}
-    			
-    			//Move all subsequent non-zero cells above [nonZeroIndex][column] down to [zeroIndex][column].
-    			for(count = 0;nonZeroIndex + count < TOTAL_ROWS && currentBoard[nonZeroIndex + count][column] != 0; count ++) 
-    			{
-    				currentBoard[zeroIndex + count][column] = currentBoard[nonZeroIndex + count][column];
-    				currentBoard[nonZeroIndex + count][column] = 0;
-    			}
-    			
-    			//[zeroIndex][column] -> [zeroIndex + count][column] are in proper position. [zeroIndex + count][column] now contains a 0
-    			nonZeroIndex = (zeroIndex += count);	 
-    		}	
-    		//Combine the cells with the same value next to each other in the current column. Once a zero valued cell has been reached all
-    		//other cells after it are guaranteed to be a 0
-    		for(int row = 0; row < TOTAL_ROWS - 1 && currentBoard[row][column] != 0; row ++)	
-    		{
-    			//Is the current cell different then the cell following it? If so skip it
-    			if(currentBoard[row][column] != currentBoard[row + 1][column]) 	continue;
-    			
-    			//Has the board not been changed yet? If so save the state of the game
-    			if(!wasShifted) 		
-    			{
-    				saveCurrentState();
-    				wasShifted = true;
-    			}
-    			
-    			//Shift cells above [row+1][column] down one position. Set the top most cell to 0
-    			for(int i = row + 1; i < TOTAL_ROWS - 1;i ++)								 
-    				currentBoard[i][column] = currentBoard[i + 1][column];			
-    			currentBoard[TOTAL_ROWS- 1][column] = 0;		
-    			
-    			//Double the cell value since it was merged and add to the current score
-    			currentScore += (currentBoard[row][column] <<= 1);					
-    		}
-    	}
-    	//Was the board not changed? If so then the move was not possible
-    	if(!wasShifted)	return false;
-    	moveCount ++;	//At this point in code the move was possible. Spawn a new piece
-    	spawn();
-    	return true;
+    	//Is the board 4x4? If so the bitboard engine makes the move
+    	if(useBitBoard())	return makeBitBoardMove(Direction.DOWN, BitBoard.down(bitBoard), BitBoard.verticalScore(bitBoard), true);
+    	
+    	//Each column is a line shifted towards row 0
+    	return movePackedBoard(0, 1, TOTAL_COLUMNS, TOTAL_COLUMNS, TOTAL_ROWS, true);
     }
     
     public final boolean moveLeft () 
@@ -234,66 +350,11 @@ public class Twenty48Game
     	 * Returns true if the move was made, false if the move is not possible
     	 */
     	
-    	boolean wasShifted = false;	//Determines if any cells been changed.
+    	//Is the board 4x4? If so the bitboard engine makes the move
+    	if(useBitBoard())	return makeBitBoardMove(Direction.LEFT, BitBoard.left(bitBoard), BitBoard.horizontalScore(bitBoard), true);
     	
-    	//Go through each row and shift and combine cells in a left direction
-    	for(int row = 0; row < TOTAL_ROWS; row ++)						
-    	{
-    		int zeroIndex, count;//zeroIndex is the column index of a zero valued cell. Count is the number of subsequent non-zero cells
-    		 
-    		//Find the first cell with a 0 in it searching from left to right (loop does not contain a body)	
-    		for(zeroIndex = 0;zeroIndex < TOTAL_COLUMNS - 1 && currentBoard[row][zeroIndex] != 0; zeroIndex ++);	
-    		
-    		//Find the next non-zero cell to the right of zeroIndex. Move all subsequent non-zero cells to the location of the non-zero cell
-    		for(int nonZeroIndex = zeroIndex + 1; nonZeroIndex < TOTAL_COLUMNS; nonZeroIndex ++)		
-    		{
-    			//Does the current cell contain a 0? If so skip it
-    			if(currentBoard[row][nonZeroIndex] == 0)	continue;
-    			
-    			//Has the board not been changed yet? If so save the state of the game
-    			if(!wasShifted)		
-    			{
-    				saveCurrentState();
-    				wasShifted = true;
-    			}
-    			
-    			//Shift all subsequent non-zero cells to the right of [row][nonZeroIndex] to [row][zeroIndex]
-    			for(count = 0;nonZeroIndex + count < TOTAL_COLUMNS && currentBoard[row][nonZeroIndex + count] != 0; count ++) 
-    			{
-    				currentBoard[row][zeroIndex + count] = currentBoard[row][nonZeroIndex + count];
-    				currentBoard[row][nonZeroIndex + count] = 0;
-    			}
-    			
-    			//[row][zeroIndex] -> [row][zeroIndex + count] are in proper position. [row][zeroIndex + count] now contains a 0
-    			nonZeroIndex = (zeroIndex += count);							
-    		}
-    		//Combine the same cells next to each other in the current row. Once a cell has a 0 the rest are guaranteed to have 0's
-    		for(int column = 0; column < TOTAL_COLUMNS - 1 && currentBoard[row][column] != 0; column ++)
-    		{
-    			//Is the current cell different then the cell to the right of it? If so skip it
-    			if(currentBoard[row][column] != currentBoard[row][column + 1]) 	continue;
-    			
-    			//Has the board NOT been changed yet? If so save the state of the game
-    			if(!wasShifted)			
-    			{
-    				saveCurrentState();
-    				wasShifted = true;
-    			}
-    			
-    			//Move cells right of [row][column + 1] left one position
-    			for(int i = column + 1; i < TOTAL_COLUMNS - 1;i ++)								 
-    				currentBoard[row][i] = currentBoard[row][i + 1];		
-    			currentBoard[row][TOTAL_COLUMNS - 1] = 0;	
-    			
-    			//Double the cell value since it was merged and add to the current score
-    			currentScore += (currentBoard[row][column] <<= 1);					
-    		}
-    	}
-    	//Was the board not changed? If so the move was not possible
-    	if(!wasShifted)		return false;
-    	moveCount ++;	//At this point in code the move was possible. Spawn a new piece
-    	spawn();
-    	return true;
+    	//Each row is a line shifted towards column 0
+    	return movePackedBoard(0, TOTAL_COLUMNS, 1, TOTAL_ROWS, TOTAL_COLUMNS, true);
     }
     
     public final boolean moveUp () 
@@ -303,66 +364,11 @@ public class Twenty48Game
     	 * Returns true if the move was made, false if the move is not possible
     	 */
     	
-    	boolean wasShifted = false;	//Determines if any cells been changed. 
+    	//Is the board 4x4? If so the bitboard engine makes the move
+    	if(useBitBoard())	return makeBitBoardMove(Direction.UP, BitBoard.up(bitBoard), BitBoard.verticalScore(bitBoard), true);
     	
-    	//Go through each column, shift and combine cells in a upward direction
-    	for(int column = 0; column < TOTAL_COLUMNS; column ++)				
-    	{
-    		int zeroIndex,count;	//zeroIndex is the row index of a zero valued cell. Count is the number of subsequent non-zero cells.
-    		
-    		//Find the first cell with a zero searching from top to bottom (loop does not contain a body)	
-    		for(zeroIndex = TOTAL_ROWS - 1;zeroIndex > 0 && currentBoard[zeroIndex][column] != 0; zeroIndex --);	
-    		
-    		//Find the next non-zero cell below zeroIndex. Move all subsequent non-zero cells to the location of the non-zero cell
-    		for(int nonZeroIndex = zeroIndex - 1; nonZeroIndex >= 0; nonZeroIndex --)
-    		{
-    			//Does the current cell contain a 0? If so skip it
-    			if(currentBoard[nonZeroIndex][column] == 0)		continue;
-    			
-    			//Has the board NOT been changed yet? If so save the state of the game
-    			if(!wasShifted)														
-    			{
-    				saveCurrentState();
-    				wasShifted = true;
-    			}
-    			
-    			//Shift all subsequent non-zero cells below [nonZeroIndex][column] to [zeroIndex][column]
-    			for(count = 0;nonZeroIndex - count >= 0 && currentBoard[nonZeroIndex - count][column] != 0; count ++) 
-    			{
-    				currentBoard[zeroIndex - count][column] = currentBoard[nonZeroIndex - count][column];
-    				currentBoard[nonZeroIndex - count][column] = 0;
-    			}
-    			
-    			//Range [zeroIndex][column] -> [zeroIndex - count][column] are in proper position. [zeroIndex - count][column] now has a 0
-    			nonZeroIndex = (zeroIndex -= count);							
-    		}
-    		//Combine the same cells next to each other. Once a zero-valued cell is reached all cells below are guaranteed to be a 0
-    		for(int row = TOTAL_ROWS - 1; row > 0 && currentBoard[row][column] != 0; row --)					
-    		{
-    			//Is the current cell not equal to the cell below it? If so skip it
-    			if(currentBoard[row][column] != currentBoard[row - 1][column]) continue;
-    			
-    			//Has the board not been changed yet? If so save the state of the game
-    			if(!wasShifted)													
-    			{
-    				saveCurrentState();
-    				wasShifted = true;
-    			}
-    			
-    			//Shift cells below [row-1][column] up one position
-    			for(int i = row - 1; i > 0;i --)								 
-    				currentBoard[i][column] = currentBoard[i - 1][column];		
-    			currentBoard[0][column] = 0;							
-    			
-    			//Double the cell value since it was merged and add to the current score
-    			currentScore += (currentBoard[row][column] <<= 1);					
-    		}
-    	}
-    	//Has the board not been changed? If so the move was not possible
-    	if(!wasShifted)		return false;
-    	moveCount ++;	//At this point in code the move was possible. Spawn a new piece
-    	spawn();
-    	return true;
+    	//Each column is a line shifted towards the last row
+    	return movePackedBoard((TOTAL_ROWS - 1) * TOTAL_COLUMNS, 1, -TOTAL_COLUMNS, TOTAL_COLUMNS, TOTAL_ROWS, true);
     }
     
     public final boolean moveRight () 
@@ -371,67 +377,212 @@ public class Twenty48Game
     	 * Shifts all cells right, combines cells, and calculates the new score. Spawns a new piece if the move was successful
     	 * Returns true if the move was made, false if the move is not possible
     	 */
+    	
+    	//Is the board 4x4? If so the bitboard engine makes the move
+    	if(useBitBoard())	return makeBitBoardMove(Direction.RIGHT, BitBoard.right(bitBoard), BitBoard.horizontalScore(bitBoard), true);
   
-    	boolean wasShifted = false;			//Determines if any cells have been changed
+    	//Each row is a line shifted towards the last column
+    	return movePackedBoard(TOTAL_COLUMNS - 1, TOTAL_COLUMNS, -1, TOTAL_ROWS, TOTAL_COLUMNS, true);
+    }
+    
+    public final boolean move (Direction direction)
+    {
+    	/*
+    	 * Makes a move in the specified direction. Same as calling moveLeft, moveRight, moveUp or moveDown
+    	 * Returns true if the move was made, false if the move is not possible
+    	 */
+    	switch(direction)
+    	{
+    		case LEFT:	return moveLeft();
+    		case RIGHT:	return moveRight();
+    		case UP:	return moveUp();
+    		default:	return moveDown();
+    	}
+    }
+    
+    public final int applyMoves(byte directions[], int offset, int length, int results[])
+    {
+    	/*
+    	 * Makes the moves in directions[offset] to directions[offset + length - 1], each the ordinal of a Direction, as if move
+    	 * and then getGameStatus were called for each. The result of move i is written to results[i * MOVE_RESULT_SIZE] onwards
+    	 * (see RESULT_MOVED and the offsets after it), so a sequence of moves is played without allocating. A move that is not
+    	 * possible leaves the game unchanged and the moves after it are still made.
+    	 * Returns the number of moves that were made. The time of the whole sequence is recorded by GameMetrics along with each move
+    	 */
+    	if(offset < 0 || length < 0 || offset + length > directions.length)
+    		throw new IndexOutOfBoundsException("offset " + offset + " and length " + length + " are outside the directions");
+    	if(results.length < length * MOVE_RESULT_SIZE)	
+    		throw new IllegalArgumentException("results must hold " + MOVE_RESULT_SIZE + " ints for each move");
+    	long startTime = GameMetrics.ENABLED ? GameMetrics.startTimer() : 0;
+    	int totalMoved = 0;
+    	for(int i = 0, result = 0; i < length; i ++, result += MOVE_RESULT_SIZE)
+    	{
+    		int ordinal = directions[offset + i];
+    		if(ordinal < 0 || ordinal >= DIRECTIONS.length)	
+    			throw new IllegalArgumentException("directions[" + (offset + i) + "] is not a direction: " + ordinal);
+    		int previousScore = currentScore;
+    		boolean moved = move(DIRECTIONS[ordinal]);
+    		results[result + RESULT_MOVED] = moved ? 1 : 0;
+    		results[result + RESULT_SCORE_GAINED] = currentScore - previousScore;
+    		results[result + RESULT_SPAWN_CELL] = moved ? lastSpawnCell : -1;
+    		results[result + RESULT_SPAWN_EXPONENT] = moved ? lastSpawnExponent : 0;
+    		results[result + RESULT_STATUS] = getGameStatus().ordinal();
+    		if(moved)	totalMoved ++;
+    	}
+    	if(GameMetrics.ENABLED)	GameMetrics.recordOperation(GameMetrics.APPLY_MOVES, startTime);
+    	return totalMoved;
+    }
+    
+    public final boolean canMove(Direction direction)
+    {
+    	/*
+    	 * Returns whether a move in the specified direction is possible. The game is not changed
+    	 */
+    	long startTime = GameMetrics.ENABLED ? GameMetrics.startTimer() : 0;
+    	boolean isPossible = useBitBoard() ? BitBoard.move(bitBoard, direction) != bitBoard
+    			: PackedBoard.canMove(currentBoard, TOTAL_ROWS, TOTAL_COLUMNS, direction);
+    	if(GameMetrics.ENABLED)	GameMetrics.recordOperation(GameMetrics.CAN_MOVE, startTime);
+    	return isPossible;
+    }
+    
+    public final MovePreview previewMove(Direction direction)
+    {
+    	/*
+    	 * Returns what a move in the specified direction would do without making it. Refer to MovePreview
+    	 */
+    	MovePreview preview = new MovePreview();
+    	previewMove(direction, preview);
+    	return preview;
+    }
+    
+    public final boolean previewMove(Direction direction, MovePreview preview)
+    {
+    	/*
+    	 * Stores what a move in the specified direction would do in preview without making it. The board, score, saved states
+    	 * and random number generator of the game are not changed and no piece is spawned.
+    	 * Returns true if the move is possible
+    	 */
+    	if(!GameMetrics.ENABLED)	return fillPreview(direction, preview);
+    	long startTime = GameMetrics.startTimer();
+    	boolean isLegal = fillPreview(direction, preview);
+    	GameMetrics.recordOperation(GameMetrics.PREVIEW, startTime);
+    	return isLegal;
+    }
+    
+    private boolean fillPreview(Direction direction, MovePreview preview)
+    {
+    	/*
+    	 * Stores what a move in the specified direction would do in preview, see previewMove
+    	 */
     	
-    	//Go through each row, shift and combine cells
-    	for(int row = 0; row < TOTAL_ROWS; row ++)										
+    	//Each merge removes one tile, so the number of merges is the number of tiles lost by the move
+    	if(useBitBoard())
     	{
-    		int zeroIndex, count;	//zeroIndex is the column index of a zero valued cell. Count is the number of subsequent non-zero cells
-    		
-    		//Find the first cell with a zero in it searching from right to left (loop does not contain a body)	
-    		for(zeroIndex = TOTAL_COLUMNS - 1;zeroIndex > 0 && currentBoard[row][zeroIndex] != 0; zeroIndex --);	
-    		
-    		//Find the next non-zero cell right of zeroIndex. Move all subsequent non-zero cells to the location of the non-zero cell
-    		for(int nonZeroIndex = zeroIndex - 1; nonZeroIndex >= 0; nonZeroIndex --)	//Find non-zero cells left of zero and shift right
-    		{
-    			//Does the current cell contain a 0? If so skip it
-    			if(currentBoard[row][nonZeroIndex] == 0)	continue;
-    			
-    			//Has the board not been changed? Is so then save the state of the game
-    			if(!wasShifted)															
-    			{
-    				saveCurrentState();
-    				wasShifted = true;
-    			}
-    			
-    			//Shift all subsequent non-zero cells to the left of [row][nonZeroIndex] to [row][zeroIndex]
-    			for(count = 0;nonZeroIndex - count >= 0 && currentBoard[row][nonZeroIndex - count] != 0; count ++) 
-    			{
-    				currentBoard[row][zeroIndex - count] = currentBoard[row][nonZeroIndex - count];
-    				currentBoard[row][nonZeroIndex - count] = 0;
-    			}
-    			
-    			//Range [row][zeroIndex] -> [row][zeroIndex - count] are in proper position. [row][zeroIndex - count] now contains a 0
-    			nonZeroIndex = (zeroIndex -= count);							
-    		}
-    		//Combine the same cells next to each other. Once a zero-valued cell is reached all cells left of it are guaranteed to be a 0
-    		for(int column = TOTAL_COLUMNS - 1; column > 0 && currentBoard[row][column] != 0; column --)
-    		{
-    			//Is the current cell not equal to the cell to the left of it? If so skip it 
-    			if(currentBoard[row][column] != currentBoard[row][column -1]) 	continue;
-    			
-    			//Has the board not been changed? Is so then save the state of the game
-    			if(!wasShifted)													
-    			{
-    				saveCurrentState();
-    				wasShifted = true;
-    			}
-    			
-    			//Shift cells left of [row-1][column] right one position
-    			for(int i = column - 1; i > 0;i --)								 
-    				currentBoard[row][i] = currentBoard[row][i-1];			
-    			currentBoard[row][0] = 0;	
-    			
-    			//Double the cell value and add to score
-    			currentScore += (currentBoard[row][column] <<= 1);					
-    		}
+    		long movedBoard = BitBoard.move(bitBoard, direction);
+    		boolean isLegal = (movedBoard != bitBoard);
+    		int mergeCount = Long.bitCount(BitBoard.emptyCellMask(movedBoard)) - Long.bitCount(BitBoard.emptyCellMask(bitBoard));
+    		preview.setBitBoard(direction, movedBoard, isLegal ? BitBoard.score(bitBoard, direction) : 0, mergeCount, isLegal);
+    		return isLegal;
     	}
-    	//Has the board not been changed? If so then the move was not possible
-    	if(!wasShifted)		return false;
-    	moveCount ++;	//At this point in code the move was possible. Spawn a new piece
-    	spawn();
-    	return true;
+    	byte movedBoard[] = preview.preparePackedBoard(TOTAL_ROWS, TOTAL_COLUMNS);
+    	int scoreGained = PackedBoard.move(currentBoard, TOTAL_ROWS, TOTAL_COLUMNS, direction, movedBoard, preview.getLineBuffer());
+    	int movedOpenCells = 0;
+    	if(scoreGained > 0)
+    		for(int cell = 0; cell < movedBoard.length; cell ++)
+    			if(movedBoard[cell] == 0)	movedOpenCells ++;
+    	preview.setPackedResult(direction, Math.max(scoreGained, 0), (scoreGained > 0) ? movedOpenCells - totalOpenCells : 0, 
+    			scoreGained >= 0);
+    	return scoreGained >= 0;
+    }
+    
+    final boolean moveWithoutSpawn(Direction direction)
+    {
+    	/*
+    	 * Makes a move in the specified direction the same as move but does not spawn a new piece. Used to replay moves whose
+    	 * spawns are already known (see placeTile)
+    	 */
+    	switch(direction)
+    	{
+    		case LEFT:	
+    			if(useBitBoard())	return makeBitBoardMove(Direction.LEFT, BitBoard.left(bitBoard), BitBoard.horizontalScore(bitBoard), false);
+    			return movePackedBoard(0, TOTAL_COLUMNS, 1, TOTAL_ROWS, TOTAL_COLUMNS, false);
+    		case RIGHT:	
+    			if(useBitBoard())	return makeBitBoardMove(Direction.RIGHT, BitBoard.right(bitBoard), BitBoard.horizontalScore(bitBoard), false);
+    			return movePackedBoard(TOTAL_COLUMNS - 1, TOTAL_COLUMNS, -1, TOTAL_ROWS, TOTAL_COLUMNS, false);
+    		case UP:	
+    			if(useBitBoard())	return makeBitBoardMove(Direction.UP, BitBoard.up(bitBoard), BitBoard.verticalScore(bitBoard), false);
+    			return movePackedBoard((TOTAL_ROWS - 1) * TOTAL_COLUMNS, 1, -TOTAL_COLUMNS, TOTAL_COLUMNS, TOTAL_ROWS, false);
+    		default:	
+    			if(useBitBoard())	return makeBitBoardMove(Direction.DOWN, BitBoard.down(bitBoard), BitBoard.verticalScore(bitBoard), false);
+    			return movePackedBoard(0, 1, TOTAL_COLUMNS, TOTAL_COLUMNS, TOTAL_ROWS, false);
+    	}
+    }
+    
+    final void placeTile(int cell, int exponent)
+    {
+    	/*
+    	 * Places a tile into an empty cell the same as a spawn. The cell is numbered row by row, the same as a packed board
+    	 */
+    	if(isBitBoard)	bitBoard |= (long)exponent << (cell << 2);
+    	else			setCell(cell, exponent);
+    	lastSpawnCell = cell;
+    	lastSpawnExponent = exponent;
+    }
+    
+    final GameStatus getCurrentStatus()
+    {	//Getter for the status without updating it the way getGameStatus does
+    	return currentStatus;
+    }
+    
+    final int getLastSpawnCell()
+    {	//Getter for the cell of the last spawned piece, numbered row by row
+    	return lastSpawnCell;
+    }
+    
+    final int getLastSpawnExponent()
+    {	//Getter for the exponent of the last spawned piece, 1 for a 2 and 2 for a 4
+    	return lastSpawnExponent;
+    }
+    
+    final void loadPosition(byte board[], int score, int moveCount, GameStatus status)
+    {
+    	/*
+    	 * Replaces the board, score, move count and status. The board is a packed board of exponents. The saved states are not
+    	 * changed
+    	 */
+    	if(isBitBoard && !BitBoard.fits(board))	switchToPackedBoard();
+    	if(isBitBoard)	bitBoard = BitBoard.fromPacked(board);
+    	else
+    	{
+    		unshareBoard();
+    		System.arraycopy(board, 0, currentBoard, 0, currentBoard.length);
+    		countCells();
+    	}
+    	currentScore = score;
+    	this.moveCount = moveCount;
+    	currentStatus = status;
+    }
+    
+    final void getPosition(byte board[])
+    {	//Copies the exponent of every cell into board, row by row
+    	if(isBitBoard)
+    		for(int cell = 0; cell < board.length; cell ++)
+    			board[cell] = (byte)((bitBoard >>> (cell << 2)) & 0xF);
+    	else
+    		System.arraycopy(currentBoard, 0, board, 0, currentBoard.length);
+    }
+    
+    static void checkDimensions(int numberOfRows, int numberOfColumns)
+    {	//Throws IllegalArgumentException if a board of the size can not be played. Larger boards can use SparseBoardGame
+    	if(numberOfRows < MIN_BOARD_DIMENSION || numberOfRows > MAX_BOARD_DIMENSION 
+    			|| numberOfColumns < MIN_BOARD_DIMENSION || numberOfColumns > MAX_BOARD_DIMENSION)
+    		throw new IllegalArgumentException("The board must be from " + MIN_BOARD_DIMENSION + " to " + MAX_BOARD_DIMENSION 
+    				+ " rows and columns, not " + numberOfRows + "x" + numberOfColumns);
+    }
+    
+    static Twenty48Game createEmpty(int numberOfRows, int numberOfColumns, boolean isBitBoard, int undoDepth)
+    {	//Returns a game with an empty board and no spawned pieces. isBitBoard may only be true for a 4x4 board
+    	return new Twenty48Game(numberOfRows, numberOfColumns, isBitBoard, undoDepth, false, new SplittableRandom());
     }
     
     public final boolean undo ()
@@ -449,15 +600,23 @@ public class Twenty48Game
 		 */
     	
     	//if there are no saved states return false
-    	if(this.savedStates.size() == 0)	return false;
+    	if(savedStates.size() == 0)	return false;
+    	long startTime = GameMetrics.ENABLED ? GameMetrics.startTimer() : 0;
+    	Object event = GameEvents.ENABLED ? GameEvents.beginUndo() : null;
     	
-    	//remove the saved state from the top of the stack
-    	GameState savedState = this.savedStates.pop();
+    	//restore and remove the newest saved state
     	moveCount --;												//Undo is available at this point so revert the move count
-		for(int row = 0; row < TOTAL_ROWS; row++)					//Copy the previous board to the current board
-			System.arraycopy(savedState.board[row],0, currentBoard[row], 0, TOTAL_COLUMNS);
-		currentScore = savedState.score;
-		currentStatus = savedState.status;
+		currentScore = savedStates.getScore();
+		currentStatus = savedStates.getStatus();
+    	if(isBitBoard)	bitBoard = savedStates.popBitBoard();
+    	else
+    	{
+    		unshareBoard();
+    		savedStates.popBoard(currentBoard);						//Restore the previous board into the current board
+    		countCells();
+    	}
+    	if(GameMetrics.ENABLED)	GameMetrics.recordUndo(startTime);
+    	if(GameEvents.ENABLED)	GameEvents.commitUndo(event, currentScore, moveCount);
 		return true;
 	}
     
@@ -470,35 +629,27 @@ public class Twenty48Game
     	 * playing after a win. Once the method is called again the status is changed to WON_BUT_UNPLAYABLE or WON_BUT_STILL_PLAYABLE
     	 * depending on if moves can be made.
     	 */
+    	if(!GameMetrics.ENABLED)	return updateGameStatus();
+    	long startTime = GameMetrics.startTimer();
+    	GameStatus status = updateGameStatus();
+    	GameMetrics.recordStatusCheck(startTime);
+    	return status;
+	}
+    
+    private GameStatus updateGameStatus()
+    {
+    	/*
+    	 * Finds the status of the game for getGameStatus
+    	 */
     	
     	//Check for a winner only if a winner has not been found yet
-    	if(currentStatus == GameStatus.PLAYABLE)
-    		for(int row = 0; row < TOTAL_ROWS; row ++)
-    			for(int column = 0; column < TOTAL_COLUMNS; column ++)
-    				if(currentBoard[row][column] == 2048)	return (currentStatus = GameStatus.WIN);
+    	if(currentStatus == GameStatus.PLAYABLE && hasWinningTile())	return (currentStatus = GameStatus.WIN);
     	
     	//If the last game status was a win then change it to won but still playable. This ensures that a win will not be shown twice
     	if(currentStatus == GameStatus.WIN)		currentStatus = GameStatus.WON_BUT_STILL_PLAYABLE;
     	
-    	/*
-    	 *If a zero exists anywhere then it is definitely possible for a move to be made. 
-    	 *Return the current status since it will not change
-    	*/
-    	for(int row = 0; row < TOTAL_ROWS; row ++)
-    		for(int column = 0; column < TOTAL_COLUMNS; column ++)
-    			if(currentBoard[row][column] == 0)								return currentStatus;
-		
-    	//Check to see if it possible to shift up or down.
-    	for(int row = 0; row < TOTAL_ROWS - 1; row ++)
-    		for(int column = 0; column < TOTAL_COLUMNS; column ++)
-    			//Are vertically adjacent cells the same? If so a move up or down is possible. The game state does not change
-    			if(currentBoard[row][column] == currentBoard[row + 1][column])	return currentStatus;
-    	
-    	//Check to see if it possible to shift left or right
-    	for(int row = 0; row < TOTAL_ROWS ; row ++)
-    		for(int column = 0; column < TOTAL_COLUMNS - 1; column ++)
-    			//Are horizontally adjacent cells the same? Is so a move left or right is possible. The game state does not change
-    			if(currentBoard[row][column] == currentBoard[row][column + 1])	return currentStatus;
+    	//Is a move possible? If so return the current status since it will not change
+    	if(isMovePossible())	return currentStatus;
     	
     	//At this point no moves are possible, if the game was already won then return that a win has already occurred but no moves exist
     	if(currentStatus == GameStatus.WON_BUT_STILL_PLAYABLE)
@@ -517,108 +668,567 @@ public class Twenty48Game
     }
     
     public final int getCellValue(int row, int column)
-    {	//Getter for the cell value
-    	return currentBoard[row][column];
+    {	//Getter for the cell value. Tiles larger than 2^30 do not fit in an int and return Integer.MAX_VALUE, see getCellExponent
+    	return PackedBoard.tileValue(getCellExponent(row, column));
+    }
+    
+    public final int getCellExponent(int row, int column)
+    {	//Getter for the exponent of the cell value. 0 is an empty cell and k is a cell with the value 2^k
+    	if(isBitBoard)	return BitBoard.getExponent(bitBoard, row, column);
+    	return currentBoard[row * TOTAL_COLUMNS + column];
+    }
+    
+    public final long getHash()
+    {	//Returns the Zobrist hash of the board. Boards with the same cells have the same hash (see ZobristHash)
+    	if(isBitBoard)	return ZobristHash.hash(bitBoard);
+    	return boardHash;
+    }
+    
+    public final long getCanonicalHash()
+    {
+    	/*
+    	 * Returns the hash shared by the board and every rotation and reflection of it, so positions that only differ by symmetry
+    	 * can be looked up once (see ZobristHash and PositionStore)
+    	 */
+    	if(isBitBoard)	return ZobristHash.canonicalHash(bitBoard);
+    	return ZobristHash.canonicalHash(currentBoard, TOTAL_ROWS, TOTAL_COLUMNS);
+    }
+    
+    final int getMaxExponent()
+    {	//Returns the exponent of the largest tile on the board
+    	if(isBitBoard)	return BitBoard.maxExponent(bitBoard);
+    	return maxExponent;
+    }
+    
+    final long getRetainedSize()
+    {
+    	/*
+    	 * Returns an estimate of the bytes used by the game and everything it owns, counting 16 bytes for the header of every
+    	 * object and array. Used to decide how many games fit in memory
+    	 */
+    	int totalCells = TOTAL_ROWS * TOTAL_COLUMNS;
+    	long bytes = 104 + 32;												//The game and its random number generator
+    	if(!isBitBoard)	bytes += 16 + totalCells + 16 + 4L * tileCounts.length;
+    	bytes += 2 * (16 + 4L * totalCells) + 16 + lineBuffer.length;			//The set of open cells and the line buffer
+    	return bytes + savedStates.getRetainedSize();
+    }
+    
+    final boolean isBitBoard()
+    {	//Returns whether the board is stored in a bitboard
+    	return isBitBoard;
+    }
+    
+    final long getBitBoard()
+    {	//Getter for the bitboard. Only valid when isBitBoard() is true
+    	return bitBoard;
     }
     
     public final void serializeToStream(ObjectOutputStream outputStream) throws IOException
     {
     	/*
-    	 * Writes the state of this object to the specified stream
+    	 * Writes the state of this object to the specified stream.
+    	 * Throws IOException if a tile is larger than 2^31, which the stream format can not hold
     	 */
     	
-    	//Write the board and saved states
-    	outputStream.writeObject(currentBoard);
+    	//Write the board and saved states. A bitboard is written as an array of rows so the stream format is the same for every size
+    	outputStream.writeObject(toArray(bitBoard, currentBoard));
     	outputStream.writeInt(savedStates.size());
+    	byte savedBoards[][] = isBitBoard ? null : savedStates.getBoards(currentBoard);
     	for(int i = 0; i < savedStates.size(); i ++)
-    		savedStates.elementAt(i).serializeToStream(outputStream);
+    	{
+    		outputStream.writeObject(isBitBoard ? BitBoard.toArray(savedStates.getBitBoard(i)) : toArray(0, savedBoards[i]));
+    		outputStream.writeInt(savedStates.getScore(i));
+    		outputStream.writeObject(savedStates.getStatus(i));
+    	}
     	
     	//Write the move count, current score, and status
     	outputStream.writeInt(moveCount);
     	outputStream.writeInt(currentScore);
     	outputStream.writeObject(this.currentStatus);
     }
+    
+    public final int getSerializedSize()
+    {	//Returns the number of bytes serializeToBuffer writes
+    	int totalCells = TOTAL_ROWS * TOTAL_COLUMNS;
+    	return SAVE_HEADER_SIZE + totalCells + savedStates.size() * (5 + totalCells);
+    }
+    
+    public final void serializeToBuffer(ByteBuffer buffer)
+    {
+    	/*
+    	 * Writes the game in the binary format (see the class comment) at the position of the buffer and moves the position past it.
+    	 * The buffer must have getSerializedSize() bytes remaining
+    	 */
+    	ByteBuffer output = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    	
+    	//Write the header
+    	output.putInt(SAVE_MAGIC).putShort(SAVE_VERSION);
+    	output.put((byte)TOTAL_ROWS).put((byte)TOTAL_COLUMNS);
+    	output.putInt(savedStates.getDepth());
+    	output.put(savedStates.isDeltaEncoded() ? SAVE_DELTA_UNDO : 0);
+    	output.put((byte)currentStatus.ordinal()).putShort((short)0);
+    	output.putInt(moveCount).putInt(currentScore).putInt(savedStates.size());
+    	
+    	//Write the board then the scores, statuses and boards of the saved states
+    	if(isBitBoard)	putBitBoard(output, bitBoard);
+    	else			output.put(currentBoard);
+    	for(int i = 0; i < savedStates.size(); i ++)
+    		output.putInt(savedStates.getScore(i));
+    	for(int i = 0; i < savedStates.size(); i ++)
+    		output.put((byte)savedStates.getStatus(i).ordinal());
+    	if(!isBitBoard)	savedStates.writeBoards(currentBoard, output);
+    	else
+    		for(int i = 0; i < savedStates.size(); i ++)
+    			putBitBoard(output, savedStates.getBitBoard(i));
+    	buffer.position(output.position());
+    }
+    
+    public static Twenty48Game deserializeFromBuffer(ByteBuffer buffer) throws IOException
+    {
+    	/*
+    	 * Reads a game in the binary format (see the class comment) from the position of the buffer and moves the position past it.
+    	 * Throws IOException if the buffer does not hold a saved game or was written by a newer version
+    	 */
+    	ByteBuffer input = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    	
+    	//Read and check the header
+    	if(input.remaining() < SAVE_HEADER_SIZE)	throw new EOFException("The saved game is incomplete");
+    	if(input.getInt() != SAVE_MAGIC)			throw new IOException("The buffer does not hold a saved game");
+    	int version = input.getShort();
+    	if(version != SAVE_VERSION)					throw new IOException("Unsupported save format version " + version);
+    	int numberOfRows = input.get(), numberOfColumns = input.get();
+    	if(numberOfRows < MIN_BOARD_DIMENSION || numberOfRows > MAX_BOARD_DIMENSION 
+    			|| numberOfColumns < MIN_BOARD_DIMENSION || numberOfColumns > MAX_BOARD_DIMENSION)
+    		throw new IOException("The saved board is " + numberOfRows + "x" + numberOfColumns);
+    	int undoDepth = input.getInt();
+    	boolean deltaUndo = (input.get() & SAVE_DELTA_UNDO) != 0;
+    	GameStatus status = readStatus(input);
+    	input.getShort();														//Reserved
+    	int moveCount = input.getInt(), score = input.getInt(), totalSavedStates = input.getInt();
+    	int totalCells = numberOfRows * numberOfColumns;
+    	if(undoDepth < 0 || totalSavedStates < 0)	throw new IOException("The saved game is corrupt");
+    	if(input.remaining() < totalCells + totalSavedStates * (5L + totalCells))	throw new EOFException("The saved game is incomplete");
+    	
+    	//Read the board and the saved states. Every board is read with one bulk copy
+    	byte board[] = new byte[totalCells];
+    	input.get(board);
+    	int savedScores[] = new int[totalSavedStates];
+    	input.asIntBuffer().get(savedScores);
+    	input.position(input.position() + 4 * totalSavedStates);
+    	GameStatus savedStatuses[] = new GameStatus[totalSavedStates];
+    	for(int i = 0; i < totalSavedStates; i ++)
+    		savedStatuses[i] = readStatus(input);
+    	byte savedBoards[][] = new byte[totalSavedStates][totalCells];
+    	for(int i = 0; i < totalSavedStates; i ++)
+    		input.get(savedBoards[i]);
+    	
+    	//Use the bitboard engine when the board is 4x4 and every tile fits in a nibble
+    	boolean isBitBoard = (numberOfRows == BitBoard.BOARD_DIMENSION && numberOfColumns == BitBoard.BOARD_DIMENSION);
+    	for(int i = -1; i < totalSavedStates && isBitBoard; i ++)
+    		for(byte exponent : (i < 0) ? board : savedBoards[i])
+    			if(exponent < 0 || exponent > BitBoard.MAX_EXPONENT)	isBitBoard = false;
+    	
+    	Twenty48Game game = new Twenty48Game(numberOfRows, numberOfColumns, isBitBoard, Math.max(undoDepth, totalSavedStates), 
+    			deltaUndo, new SplittableRandom());
+    	game.loadPosition(board, score, moveCount, status);
+    	game.loadSavedStates(savedBoards, savedScores, savedStatuses);
+    	buffer.position(input.position());
+    	return game;
+    }
+    
+    public final void saveToFile(Path path) throws IOException
+    {
+    	/*
+    	 * Writes the game in the binary format to a file. The file is created or replaced
+    	 */
+    	long startTime = GameMetrics.ENABLED ? GameMetrics.startTimer() : 0;
+    	ByteBuffer buffer = ByteBuffer.allocate(getSerializedSize());
+    	serializeToBuffer(buffer);
+    	buffer.flip();
+    	try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, 
+    			StandardOpenOption.TRUNCATE_EXISTING))
+    	{
+    		while(buffer.hasRemaining())
+    			channel.write(buffer);
+    	}
+    	if(GameMetrics.ENABLED)	GameMetrics.recordOperation(GameMetrics.SAVE, startTime);
+    }
+    
+    public static Twenty48Game loadFromFile(Path path) throws IOException
+    {
+    	/*
+    	 * Reads a game saved by saveToFile. The file is memory mapped so the board and saved states are copied straight from the
+    	 * page cache
+    	 */
+    	long startTime = GameMetrics.ENABLED ? GameMetrics.startTimer() : 0;
+    	Twenty48Game game;
+    	try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ))
+    	{
+    		game = deserializeFromBuffer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    	}
+    	if(GameMetrics.ENABLED)	GameMetrics.recordOperation(GameMetrics.LOAD, startTime);
+    	return game;
+    }
    
 	/*
-	 * Game board Dimensions: totalRows x totalColumns. [0][0] is bottom left visually
-	 * A cell value of 0 represents an empty cell.
+	 * Game board Dimensions: totalRows x totalColumns stored row by row. [0][0] is bottom left visually
+	 * Each cell holds the exponent of its value, an exponent of 0 represents an empty cell. The board is null when the bitboard is used
 	 */
-	private int 	  	currentBoard[][];		
+	private byte 	  	currentBoard[];		
+	private long 		bitBoard;								//The 4x4 board as nibble exponents. Refer to BitBoard
+	private boolean 	isBitBoard;								//Whether the bitboard engine is used instead of currentBoard
 	
-	/*
-	 * A stack of 11 GameState. This is a first in last out stack. 
-	 */
-	private Stack<GameState> savedStates 	= new Stack<GameState>();    
+	private UndoHistory savedStates;						//The states saved before each move, newest last
 	private int 		moveCount = 0;							
 	private int 		currentScore = 0;
 	private GameStatus 	currentStatus = GameStatus.PLAYABLE;	//The current status of the game. 
-	private ArrayList<Integer> openCells;						//A list of cells that are able to spawn a number on a new move
 	
-	class GameState
+	/*
+	 * The set of cells that are able to spawn a number on a new move. The first totalOpenCells entries of openCells are the indexes
+	 * of the open cells of the packed board in no particular order. openCellPositions holds the position of each open cell in
+	 * openCells so a cell can be removed in constant time by moving the last entry into its place. Not used by the bitboard
+	 */
+	private int 		openCells[];
+	private int 		openCellPositions[];
+	private int 		totalOpenCells;
+	
+	/*
+	 * The number of cells holding each exponent (tileCounts[0] is the number of empty cells), the largest exponent on the board
+	 * and the number of pairs of cells next to each other that can be combined. Kept up to date by setCell so the status of the
+	 * game is found without scanning the board. Not used by the bitboard
+	 */
+	private int 		tileCounts[];
+	private int 		maxExponent;
+	private int 		mergeablePairs;
+	private long 		boardHash;								//Zobrist hash of the packed board, kept up to date by setCell
+	private SplittableRandom random;							//Generates the spawned numbers and their locations
+	private int 		lastSpawnCell;							//The cell of the last spawned piece, numbered row by row
+	private int 		lastSpawnExponent;						//The exponent of the last spawned piece
+	private final byte 	lineBuffer[];							//Holds a shifted row or column before it is copied to the board
+	private ConsoleRenderer renderer;							//Draws the board for displayBoard, created when first needed
+	private boolean 	isBoardShared;							//Whether a forked game may read the packed board and its counts
+	
+	private static final int WINNING_EXPONENT = 11;				//The exponent of 2048
+	private static final GameStatus STATUSES[] = GameStatus.values();
+	private static final Direction DIRECTIONS[] = Direction.values();
+	
+	private static final int SAVE_MAGIC = 0x32303438;			//"2048", the first 4 bytes of the binary format
+	private static final short SAVE_VERSION = 1;				//The version of the binary format written by serializeToBuffer
+	private static final int SAVE_HEADER_SIZE = 28;				//Bytes before the board in the binary format
+	private static final byte SAVE_DELTA_UNDO = 1;				//Flag set when the saved states hold only changed cells
+	
+	private static void putBitBoard(ByteBuffer buffer, long board)
+	{	//Writes the exponent of every cell of a bitboard, the same layout as a packed board
+		for(int cell = 0; cell < BitBoard.BOARD_DIMENSION * BitBoard.BOARD_DIMENSION; cell ++, board >>>= 4)
+			buffer.put((byte)(board & 0xF));
+	}
+	
+	private static GameStatus readStatus(ByteBuffer buffer) throws IOException
+	{	//Reads the ordinal of a status
+		int ordinal = buffer.get();
+		if(ordinal < 0 || ordinal >= STATUSES.length)	throw new IOException("The saved game is corrupt");
+		return STATUSES[ordinal];
+	}
+	
+	private void saveCurrentState()
+	{
+		/*
+		 * Saves the state of the game when a move is made. Saves the status, score, and board. The oldest saved state is
+		 * removed when the undo depth is reached
+		 */
+		savedStates.push(bitBoard, currentBoard, currentScore, currentStatus);
+		if(GameMetrics.ENABLED && savedStates.getDepth() > 0)	GameMetrics.recordSavedState();
+	}
+	
+	final void loadSavedStates(byte savedBoards[][], int savedScores[], GameStatus savedStatuses[])
 	{
-		//Class holds a saved board and score and the status of the game
-		int board[][];
-		int score;
-		GameStatus status;
+		/*
+		 * Replaces the saved states with packed boards, scores and statuses listed oldest first. The board must be loaded first
+		 * since the newest saved board is compared with it. Nothing is allocated
+		 */
+		savedStates.clear();
+		for(int i = 0; i < savedBoards.length; i ++)
+		{
+			if(isBitBoard)
+				savedStates.push(BitBoard.fromPacked(savedBoards[i]), null, savedScores[i], savedStatuses[i]);
+			else
+			{
+				//Each board is saved along with the changes made to get to the next board or to the current board
+				byte nextBoard[] = (i + 1 < savedBoards.length) ? savedBoards[i + 1] : currentBoard;
+				savedStates.pushDifference(savedBoards[i], nextBoard, savedScores[i], savedStatuses[i]);
+			}
+		}
+	}
+	
+	private boolean movePackedBoard(int firstLineStart, int lineStep, int cellStride, int totalLines, int lineLength, 
+			boolean spawnPiece)
+	{
+		/*
+		 * Shifts all lines of the packed board towards their first cell, combines cells, and calculates the new score. The lines
+		 * start at firstLineStart, firstLineStart + lineStep, ... and the cells of a line are cellStride apart.
+		 * Spawns a new piece if the move was successful and spawnPiece is true
+		 * Returns true if the move was made, false if the move is not possible
+		 */
 		
-		GameState(ObjectInputStream inputStream) throws IOException, ClassNotFoundException
-		{//Read the class state from the input stream
-			board = (int[][])inputStream.readObject();
-			score = inputStream.readInt();
-			status = (GameStatus)inputStream.readObject();
+		boolean wasShifted = false;	//Determines if any cells have been changed
+		long startTime = GameMetrics.ENABLED ? GameMetrics.startTimer() : 0;
+		Object event = GameEvents.ENABLED ? GameEvents.beginMove() : null;
+		int previousScore = currentScore, previousOpenCells = totalOpenCells, changedCells = 0;
+		RowCache rowCache = RowCache.forLineLength(lineLength);		//null if lines of the length are not cached
+		
+		for(int line = 0, start = firstLineStart; line < totalLines; line ++, start += lineStep)
+		{
+			//Shift and combine the line into the line buffer. Was the line not changed? If so skip it
+			int scoreGained = (rowCache != null) ? rowCache.shiftLine(currentBoard, start, cellStride, lineLength, lineBuffer)
+					: PackedBoard.shiftLine(currentBoard, start, cellStride, lineLength, lineBuffer);
+			if(scoreGained < 0)	continue;
+			
+			//Has the board not been changed yet? If so save the state of the game
+			if(!wasShifted)
+			{
+				saveCurrentState();
+				wasShifted = true;
+			}
+			
+			//Copy the shifted line to the board and add to the current score
+			for(int i = 0, cell = start; i < lineLength; i ++, cell += cellStride)
+				if(currentBoard[cell] != lineBuffer[i])
+				{
+					setCell(cell, lineBuffer[i]);
+					changedCells ++;
+				}
+			currentScore = PackedBoard.addScore(currentScore, scoreGained);
 		}
-		GameState()
-		{	//Initializes the class by creating a copy of the currentBoard, currentScore and currentStatus
-			this.board = new int[TOTAL_ROWS][TOTAL_COLUMNS];
-			for(int row = 0; row < TOTAL_ROWS; row++)		//Copy the current board to the previous board (save the board)
-				System.arraycopy(currentBoard[row], 0, board[row], 0, TOTAL_COLUMNS);
-			score = currentScore;
-			status = currentStatus;
+		//Was the board not changed? If so the move was not possible
+		if(!wasShifted)
+		{
+			if(GameMetrics.ENABLED)	GameMetrics.recordMove(startTime, false, 0, 0);
+			if(GameEvents.ENABLED)	GameEvents.commitMove(event, directionOf(cellStride), false, 0, 0, 0);
+			return false;
 		}
-		void serializeToStream(ObjectOutputStream outputStream) throws IOException
-		{	//Writes the state of the object to the output stream
-			outputStream.writeObject(board);
-			outputStream.writeInt(score);
-			outputStream.writeObject(status);
+		moveCount ++;	//At this point in code the move was possible. Spawn a new piece
+		int merges = totalOpenCells - previousOpenCells;			//Each merge empties one cell
+		if(spawnPiece)	spawn();
+		if(GameMetrics.ENABLED)	GameMetrics.recordMove(startTime, true, currentScore - previousScore, merges);
+		if(GameEvents.ENABLED)
+			GameEvents.commitMove(event, directionOf(cellStride), true, changedCells, merges, currentScore - previousScore);
+		return true;
+	}
+	
+	private Direction directionOf(int cellStride)
+	{	//Returns the direction a packed board move with the cell stride shifts towards (see PackedBoard.cellStride)
+		if(cellStride == 1)		return Direction.LEFT;
+		if(cellStride == -1)	return Direction.RIGHT;
+		return (cellStride < 0) ? Direction.UP : Direction.DOWN;
+	}
+	
+	private boolean makeBitBoardMove(Direction direction, long movedBoard, int scoreGained, boolean spawnPiece)
+	{
+		/*
+		 * Replaces the bitboard with the board moved in the direction, adds the score and spawns a new piece if spawnPiece is true
+		 * Returns true if the move was made, false if the move did not change the board
+		 */
+		long startTime = GameMetrics.ENABLED ? GameMetrics.startTimer() : 0;
+		Object event = GameEvents.ENABLED ? GameEvents.beginMove() : null;
+		if(movedBoard == bitBoard)
+		{
+			if(GameMetrics.ENABLED)	GameMetrics.recordMove(startTime, false, 0, 0);
+			if(GameEvents.ENABLED)	GameEvents.commitMove(event, direction, false, 0, 0, 0);
+			return false;
 		}
-		
-		
+		int merges = Long.bitCount(BitBoard.emptyCellMask(movedBoard)) - Long.bitCount(BitBoard.emptyCellMask(bitBoard));
+		int changedCells = GameEvents.ENABLED ?
+				BitBoard.BOARD_DIMENSION * BitBoard.BOARD_DIMENSION - Long.bitCount(BitBoard.emptyCellMask(movedBoard ^ bitBoard)) : 0;
+		saveCurrentState();
+		bitBoard = movedBoard;
+		currentScore += scoreGained;
+		moveCount ++;
+		if(spawnPiece)	spawn();
+		if(GameMetrics.ENABLED)	GameMetrics.recordMove(startTime, true, scoreGained, merges);
+		if(GameEvents.ENABLED)	GameEvents.commitMove(event, direction, true, changedCells, merges, scoreGained);
+		return true;
 	}
 	
-	private void saveCurrentState()
+	private boolean hasWinningTile()
+	{	//Returns whether any cell holds 2048
+		if(isBitBoard)	return BitBoard.containsExponent(bitBoard, WINNING_EXPONENT);
+		return tileCounts[WINNING_EXPONENT] != 0;
+	}
+	
+	private boolean isMovePossible()
+	{
+		/*
+		 * Returns whether any move can be made. A move is possible when a cell is empty or two cells next to each other can be
+		 * combined
+		 */
+		if(useBitBoard())	return BitBoard.emptyCellMask(bitBoard) != 0 || BitBoard.hasMergeablePair(bitBoard);
+		return totalOpenCells != 0 || mergeablePairs != 0;
+	}
+	
+	final void spawn()
 	{
 		/*
-		 * Saves the state of the game when a move is made. Saves the status, score, and board
+		 * Creates a random 2 or 4, picks a random open cell and places the random 2 or 4 into the open cell
 		 */
-		GameState saveState = new  GameState();	//Create a save state
-		this.savedStates.push(saveState);		//Push the saved state onto the top of the stack
+		long startTime = GameMetrics.ENABLED ? GameMetrics.startTimer() : 0;
+		Object event = GameEvents.ENABLED ? GameEvents.beginSpawn() : null;
+		int spawnedExponent = (random.nextInt(10) != 0) ? 1 : 2;			//Spawned number is a 2, 90% of the time otherwise it is a 4
 		
-		//If ten saved states already exist then remove the bottom saved state (oldest)
-		if(this.savedStates.size() > 10)	this.savedStates.remove(0);
+		//Is the board 4x4? If so pick a random empty nibble of the bitboard
+		if(isBitBoard)
+		{
+			long emptyCells = BitBoard.emptyCellMask(bitBoard);
+			for(int skip = random.nextInt(Long.bitCount(emptyCells)); skip > 0; skip --)
+				emptyCells &= emptyCells - 1;									//Remove the lowest empty cell
+			placeTile(Long.numberOfTrailingZeros(emptyCells) >>> 2, spawnedExponent);
+		}
+		else
+			placeTile(openCells[random.nextInt(totalOpenCells)], spawnedExponent);	//Set a random open cell to the random 2 or 4
+		if(GameMetrics.ENABLED)	GameMetrics.recordSpawn(startTime);
+		if(GameEvents.ENABLED)	GameEvents.commitSpawn(event, lastSpawnCell, lastSpawnExponent);
 	}
 	
-	private final void spawn()
+	private void setCell(int cell, int exponent)
 	{
 		/*
-		 * Populates a list of open cells. Creates a random 2 or 4, finds an empty cell and places the random 2 or 4 into the empty cell
+		 * Sets a cell of the packed board and keeps the set of open cells, the tile counts, the number of mergeable pairs and the
+		 * hash of the board up to date
 		 */
+		if(isBoardShared)	unshareBoard();
+		int previousExponent = currentBoard[cell];
+		mergeablePairs -= countMergeableNeighbors(cell, previousExponent);
+		currentBoard[cell] = (byte)exponent;
+		mergeablePairs += countMergeableNeighbors(cell, exponent);
+		boardHash ^= ZobristHash.key(cell, previousExponent) ^ ZobristHash.key(cell, exponent);
+		savedStates.recordChange(cell, previousExponent);			//Saves the change when the saved states hold only changes
 		
+		//Count the new tile. Was the largest tile removed? If so find the next largest tile
+		tileCounts[previousExponent] --;
+		tileCounts[exponent] ++;
+		if(exponent > maxExponent)	maxExponent = exponent;
+		while(tileCounts[maxExponent] == 0)
+			maxExponent --;
+		
+		//Was the cell filled? If so move the last open cell into its place in the set
+		if(previousExponent == 0 && exponent != 0)
+		{
+			int lastOpenCell = openCells[-- totalOpenCells];
+			openCells[openCellPositions[cell]] = lastOpenCell;
+			openCellPositions[lastOpenCell] = openCellPositions[cell];
+		}
+		//Was the cell emptied? If so add it to the end of the set
+		else if(previousExponent != 0 && exponent == 0)
+		{
+			openCellPositions[cell] = totalOpenCells;
+			openCells[totalOpenCells ++] = cell;
+		}
+	}
+	
+	private void unshareBoard()
+	{	//Replaces the packed board and the arrays counting its cells by copies if they are shared with a forked game
+		if(!isBoardShared)	return;
+		currentBoard = currentBoard.clone();
+		openCells = openCells.clone();
+		openCellPositions = openCellPositions.clone();
+		tileCounts = tileCounts.clone();
+		isBoardShared = false;
+	}
+	
+	private boolean useBitBoard()
+	{	//Returns whether the bitboard engine makes the next move. Switches to the packed board first if it can not (see BitBoard)
+		if(isBitBoard && BitBoard.hasMaxExponentLine(bitBoard))	switchToPackedBoard();
+		return isBitBoard;
+	}
+	
+	private void switchToPackedBoard()
+	{
 		/*
-		 * Reset the list of open cells and add every open cell to the list. The value added to the list is encoded so only 
-    	 * an integer is needed to represent a column and row. The value is encoded as follows
-    	 * encodedLocation = row * MAX_BOARD_DIMENSIONS + column;
-    	 * row = encodedLocation / MAX_BOARD_DIMENSIONS; column = encodedLocation % MAX_BOARD_DIMENSIONS
-    	*/
-		openCells.clear();
-		for(int row = 0; row < TOTAL_ROWS; row ++)
-			for(int column = 0; column < TOTAL_COLUMNS; column ++)
-				if(currentBoard[row][column] == 0)	openCells.add(row * MAX_BOARD_DIMENSION + column);	//Is the cell 0? If so encode and add to the list
+		 * Moves a 4x4 game from the bitboard to the packed board, which can hold tiles larger than 32768. The saved states are
+		 * copied into a new history since the old one may be shared with a forked game. The game keeps the packed board from
+		 * then on
+		 */
+		int totalCells = TOTAL_ROWS * TOTAL_COLUMNS;
+		byte board[] = new byte[totalCells];
+		getPosition(board);
+		int totalSavedStates = savedStates.size();
+		byte savedBoards[][] = new byte[totalSavedStates][totalCells];
+		int savedScores[] = new int[totalSavedStates];
+		GameStatus savedStatuses[] = new GameStatus[totalSavedStates];
+		for(int i = 0; i < totalSavedStates; i ++)
+		{
+			long savedBitBoard = savedStates.getBitBoard(i);
+			for(int cell = 0; cell < totalCells; cell ++)
+				savedBoards[i][cell] = (byte)((savedBitBoard >>> (cell << 2)) & 0xF);
+			savedScores[i] = savedStates.getScore(i);
+			savedStatuses[i] = savedStates.getStatus(i);
+		}
 		
-		//Create the random 2 or 4, find an empty cell and set the value of empty cell to the random generator 2 or 4
-		int spawnedNumber = (Math.random()  < 0.9) ? 2 : 4;					//Spawned number is a 2, 90% of the time otherwise it is a 4  
-		int spawnOpenCellIndex = (int)(Math.random() * openCells.size());	//Get a random index in the range of [0,# open cells) 
-		int encodedLocation = openCells.get(spawnOpenCellIndex);			//Get the encoded location and decode it below
-		int spawnRow = encodedLocation / MAX_BOARD_DIMENSION, spawnColumn = encodedLocation % MAX_BOARD_DIMENSION; 
-		currentBoard[spawnRow][spawnColumn] = spawnedNumber;				//Spawn the random number to a random location
+		isBitBoard = false;
+		bitBoard = 0;
+		currentBoard = board;
+		openCells = new int[totalCells];
+		openCellPositions = new int[totalCells];
+		tileCounts = new int[PackedBoard.MAX_EXPONENT + 1];
+		isBoardShared = false;
+		countCells();
+		savedStates = new UndoHistory(savedStates.getDepth(), totalCells, false, false);
+		loadSavedStates(savedBoards, savedScores, savedStatuses);
+	}
+	
+	private int countMergeableNeighbors(int cell, int exponent)
+	{	//Returns the number of cells next to a cell that hold the exponent and could be combined with it
+		if(exponent == 0 || exponent == PackedBoard.MAX_EXPONENT)	return 0;
+		int count = 0;
+		int column = cell % TOTAL_COLUMNS;
+		if(column != 0 && currentBoard[cell - 1] == exponent)									count ++;
+		if(column != TOTAL_COLUMNS - 1 && currentBoard[cell + 1] == exponent)					count ++;
+		if(cell >= TOTAL_COLUMNS && currentBoard[cell - TOTAL_COLUMNS] == exponent)				count ++;
+		if(cell + TOTAL_COLUMNS < currentBoard.length && currentBoard[cell + TOTAL_COLUMNS] == exponent)	count ++;
+		return count;
+	}
+	
+	private void countCells()
+	{
+		/*
+		 * Rebuilds the set of open cells, the tile counts, the largest tile and the number of mergeable pairs from the packed
+		 * board. Used when the whole board is replaced
+		 */
+		totalOpenCells = 0;
+		if(isBitBoard)	return;
+		boardHash = ZobristHash.hash(currentBoard);
+		Arrays.fill(tileCounts, 0);
+		maxExponent = 0;
+		mergeablePairs = 0;
+		for(int cell = 0; cell < currentBoard.length; cell ++)
+		{
+			int exponent = currentBoard[cell];
+			tileCounts[exponent] ++;
+			maxExponent = Math.max(maxExponent, exponent);
+			
+			//Count each pair once, from its cell in the lower row or column
+			if(exponent != 0 && exponent != PackedBoard.MAX_EXPONENT)
+			{
+				if(cell % TOTAL_COLUMNS != TOTAL_COLUMNS - 1 && currentBoard[cell + 1] == exponent)			mergeablePairs ++;
+				if(cell + TOTAL_COLUMNS < currentBoard.length && currentBoard[cell + TOTAL_COLUMNS] == exponent)	mergeablePairs ++;
+			}
+			if(exponent == 0)
+			{
+				openCellPositions[cell] = totalOpenCells;
+				openCells[totalOpenCells ++] = cell;
+			}
+		}
+	}
+	
+	private int[][] toArray(long bitBoard, byte packedBoard[]) throws IOException
+	{
+		/*
+		 * Decodes a board into an array of tile values, the format written to streams.
+		 * Throws IOException if a tile is larger than 2^31, which an int can not hold
+		 */
+		if(isBitBoard)	return BitBoard.toArray(bitBoard);
+		for(byte exponent : packedBoard)
+			if(exponent >= Integer.SIZE)
+				throw new IOException("A tile of 2^" + exponent + " can not be written to a stream, use serializeToBuffer");
+		return PackedBoard.toArray(packedBoard, TOTAL_ROWS, TOTAL_COLUMNS);
 	}
-}
+}
\ No newline at end of file
@@ -0,0 +1,326 @@
+package twentyFortyEight;
+import java.nio.ByteBuffer;
+
+import twentyFortyEight.Twenty48Game.GameStatus;
+/*
+ * Class holds the saved states of a Twenty48Game used to undo moves.
+ *
+ * The history is a circular buffer with a fixed number of entries (the undo depth) that is allocated once when the game is
+ * created. When the buffer is full the oldest entry is overwritten by the newest one. Each entry holds the score and status
+ * from before a move plus the board from before the move in one of three ways:
+ *
+ * 		Bitboard 		The 4x4 board is a long so every entry holds the whole board
+ * 		Full 			Every entry holds a copy of the packed board
+ * 		Delta			Every entry holds only the cells changed by the move and its spawn, each as the index of the cell and
+ * 						the exponent the cell had before it was changed. The changes of all entries share one circular pool.
+ * 						When the pool runs out of room the oldest entries are dropped, so on busy boards fewer moves than the
+ * 						undo depth may be kept. The pool holds an average of POOL_CELLS_PER_ENTRY of the board per entry
+ *
+ * In delta mode an entry is opened by push and every change reported with recordChange is added to the newest entry until
+ * the next push, pop or clear.
+ *
+ * A history can be shared by a forked game (see share). Both histories read the same arrays and each copies them the first time
+ * it saves a state or a change, so a fork that only undoes never copies the history.
+ *
+ * The class is package private, it is an implementation detail of Twenty48Game.
+ */
+final class UndoHistory
+{
+	private static final int POOL_CELLS_PER_ENTRY = 8;		//Entries hold 1/8 of the cells of the board on average in delta mode
+	private static final GameStatus STATUSES[] = GameStatus.values();
+
+	UndoHistory(int depth, int totalCells, boolean isBitBoard, boolean isDeltaEncoded)
+	{
+		/*
+		 * Constructor allocates a history of depth entries for a board of totalCells cells
+		 */
+		if(depth < 0)	throw new IllegalArgumentException("The undo depth can not be negative");
+		this.depth = depth;
+		this.totalCells = totalCells;
+		this.isDeltaEncoded = isDeltaEncoded && !isBitBoard && depth > 0;
+		scores = new int[depth];
+		statuses = new byte[depth];
+		if(isBitBoard)
+			bitBoards = new long[depth];
+		else if(this.isDeltaEncoded)
+		{
+			//A move changes each cell at most twice, once when shifted and once when spawned into, so one entry always fits
+			int poolSize = Math.max(2 * totalCells + 1, depth * (totalCells / POOL_CELLS_PER_ENTRY + 2));
+			changeStarts = new int[depth];
+			changedCells = new short[poolSize];
+			previousExponents = new byte[poolSize];
+		}
+		else
+			boards = new byte[depth * totalCells];
+	}
+
+	private UndoHistory(UndoHistory history)
+	{
+		/*
+		 * Constructor creates a history with the entries of another that shares its arrays
+		 */
+		depth = history.depth;
+		totalCells = history.totalCells;
+		isDeltaEncoded = history.isDeltaEncoded;
+		scores = history.scores;
+		statuses = history.statuses;
+		bitBoards = history.bitBoards;
+		boards = history.boards;
+		changeStarts = history.changeStarts;
+		changedCells = history.changedCells;
+		previousExponents = history.previousExponents;
+		changeEnd = history.changeEnd;
+		totalChanges = history.totalChanges;
+		newest = history.newest;
+		size = history.size;
+		isShared = true;
+	}
+
+	UndoHistory share()
+	{
+		/*
+		 * Returns a history with the same entries that shares the arrays of this history until either one changes them
+		 */
+		isShared = true;
+		return new UndoHistory(this);
+	}
+
+	int getDepth()
+	{	//Getter for the maximum number of entries
+		return depth;
+	}
+
+	boolean isDeltaEncoded()
+	{	//Returns whether entries hold changed cells instead of whole boards
+		return isDeltaEncoded;
+	}
+
+	int size()
+	{	//Returns the number of saved entries
+		return size;
+	}
+
+	long getRetainedSize()
+	{	//Returns an estimate of the bytes used by the history, counting 16 bytes for the header of every object and array
+		long bytes = 64 + 16 + 4L * depth + 16 + depth;
+		if(bitBoards != null)	bytes += 16 + 8L * depth;
+		if(boards != null)		bytes += 16 + boards.length;
+		if(changeStarts != null)	bytes += 16 + 4L * depth + 16 + 2L * changedCells.length + 16 + previousExponents.length;
+		return bytes;
+	}
+
+	void clear()
+	{	//Removes every entry
+		size = 0;
+		totalChanges = 0;
+	}
+
+	void push(long bitBoard, byte board[], int score, GameStatus status)
+	{
+		/*
+		 * Saves the state from before a move. The oldest entry is removed if the history is full. In delta mode the board is not
+		 * copied, its changes must be reported with recordChange
+		 */
+		if(depth == 0)	return;
+		if(isShared)	copyArrays();
+		if(size == depth)	removeOldest();
+		newest = (newest + 1) % depth;
+		size ++;
+		scores[newest] = score;
+		statuses[newest] = (byte)status.ordinal();
+		if(bitBoards != null)		bitBoards[newest] = bitBoard;
+		else if(isDeltaEncoded)		changeStarts[newest] = changeEnd;
+		else						System.arraycopy(board, 0, boards, newest * totalCells, totalCells);
+	}
+
+	void recordChange(int cell, int previousExponent)
+	{
+		/*
+		 * Adds a changed cell to the newest entry in delta mode. Oldest entries are dropped until the pool has room
+		 */
+		if(!isDeltaEncoded || size == 0)	return;
+		if(isShared)	copyArrays();
+		while(totalChanges == changedCells.length && size > 1)
+			removeOldest();
+		changedCells[changeEnd] = (short)cell;
+		previousExponents[changeEnd] = (byte)previousExponent;
+		changeEnd = (changeEnd + 1) % changedCells.length;
+		totalChanges ++;
+	}
+
+	int getScore()
+	{	//Getter for the score of the newest entry
+		return scores[newest];
+	}
+
+	GameStatus getStatus()
+	{	//Getter for the status of the newest entry
+		return STATUSES[statuses[newest]];
+	}
+
+	long popBitBoard()
+	{	//Removes the newest entry and returns its bitboard
+		long bitBoard = bitBoards[newest];
+		removeNewest();
+		return bitBoard;
+	}
+
+	void popBoard(byte board[])
+	{
+		/*
+		 * Removes the newest entry and restores its board into board. In delta mode board must be the current board, its changed
+		 * cells are reverted newest first
+		 */
+		if(isDeltaEncoded)
+		{
+			int changes = changesOf(newest);
+			for(int i = 0; i < changes; i ++)
+			{
+				changeEnd = (changeEnd - 1 + changedCells.length) % changedCells.length;
+				board[changedCells[changeEnd]] = previousExponents[changeEnd];
+			}
+			totalChanges -= changes;
+		}
+		else
+			System.arraycopy(boards, newest * totalCells, board, 0, totalCells);
+		removeNewest();
+	}
+
+	int getScore(int age)
+	{	//Getter for the score of an entry. Age 0 is the oldest entry
+		return scores[entry(age)];
+	}
+
+	GameStatus getStatus(int age)
+	{	//Getter for the status of an entry. Age 0 is the oldest entry
+		return STATUSES[statuses[entry(age)]];
+	}
+
+	long getBitBoard(int age)
+	{	//Getter for the bitboard of an entry. Age 0 is the oldest entry
+		return bitBoards[entry(age)];
+	}
+
+	byte[][] getBoards(byte currentBoard[])
+	{
+		/*
+		 * Returns a copy of the board of every entry, oldest first. In delta mode the boards are rebuilt by reverting the changes
+		 * of each entry from the current board, newest first
+		 */
+		byte result[][] = new byte[size][];
+		if(!isDeltaEncoded)
+		{
+			for(int age = 0; age < size; age ++)
+			{
+				result[age] = new byte[totalCells];
+				System.arraycopy(boards, entry(age) * totalCells, result[age], 0, totalCells);
+			}
+			return result;
+		}
+		byte board[] = currentBoard.clone();
+		int change = changeEnd;
+		for(int age = size - 1; age >= 0; age --)
+		{
+			for(int i = changesOf(entry(age)); i > 0; i --)
+			{
+				change = (change - 1 + changedCells.length) % changedCells.length;
+				board[changedCells[change]] = previousExponents[change];
+			}
+			result[age] = board.clone();
+		}
+		return result;
+	}
+
+	void writeBoards(byte currentBoard[], ByteBuffer buffer)
+	{
+		/*
+		 * Writes the board of every entry to the buffer oldest first, the same boards returned by getBoards. The boards are
+		 * copied straight from the buffer of entries or rebuilt one at a time in delta mode so no array is allocated per entry
+		 */
+		int start = buffer.position();
+		if(!isDeltaEncoded)
+		{
+			for(int age = 0; age < size; age ++)
+				buffer.put(boards, entry(age) * totalCells, totalCells);
+			return;
+		}
+		byte board[] = currentBoard.clone();
+		int change = changeEnd;
+		for(int age = size - 1; age >= 0; age --)
+		{
+			for(int i = changesOf(entry(age)); i > 0; i --)
+			{
+				change = (change - 1 + changedCells.length) % changedCells.length;
+				board[changedCells[change]] = previousExponents[change];
+			}
+			buffer.position(start + age * totalCells);
+			buffer.put(board);
+		}
+		buffer.position(start + size * totalCells);
+	}
+
+	void pushDifference(byte board[], byte nextBoard[], int score, GameStatus status)
+	{
+		/*
+		 * Saves board as the state from before a move that resulted in nextBoard. Used to rebuild a history from whole boards
+		 */
+		push(0, board, score, status);
+		if(isDeltaEncoded)
+			for(int cell = 0; cell < totalCells; cell ++)
+				if(board[cell] != nextBoard[cell])	recordChange(cell, board[cell]);
+	}
+
+	private int entry(int age)
+	{	//Returns the buffer index of an entry. Age 0 is the oldest entry
+		return (newest - size + 1 + age + depth) % depth;
+	}
+
+	private int changesOf(int entry)
+	{	//Returns the number of changes held by an entry in delta mode
+		int end = (entry == newest) ? changeEnd : changeStarts[(entry + 1) % depth];
+		return (end - changeStarts[entry] + changedCells.length) % changedCells.length;
+	}
+
+	private void copyArrays()
+	{	//Replaces the arrays shared with another history by copies of them
+		scores = scores.clone();
+		statuses = statuses.clone();
+		if(bitBoards != null)		bitBoards = bitBoards.clone();
+		if(boards != null)			boards = boards.clone();
+		if(changeStarts != null)
+		{
+			changeStarts = changeStarts.clone();
+			changedCells = changedCells.clone();
+			previousExponents = previousExponents.clone();
+		}
+		isShared = false;
+	}
+
+	private void removeOldest()
+	{	//Drops the oldest entry and frees its changes
+		if(isDeltaEncoded)	totalChanges -= changesOf(entry(0));
+		size --;
+	}
+
+	private void removeNewest()
+	{	//Drops the newest entry. Its changes must already be freed
+		newest = (newest - 1 + depth) % depth;
+		size --;
+	}
+
+	private final int depth;
+	private final int totalCells;
+	private final boolean isDeltaEncoded;
+	private int scores[];
+	private byte statuses[];						//Ordinal of the GameStatus of each entry
+	private long bitBoards[];						//Bitboard of each entry. Only used for 4x4 boards
+	private byte boards[];							//Packed board of each entry, entry i starts at i * totalCells. Only used in full mode
+	private int changeStarts[];						//Index of the first change of each entry in the pool. Only used in delta mode
+	private short changedCells[];					//Pool of changed cell indexes. Only used in delta mode
+	private byte previousExponents[];				//Pool of exponents the changed cells had. Only used in delta mode
+	private int changeEnd;							//Index in the pool after the last change
+	private int totalChanges;						//Number of changes in the pool
+	private int newest = -1;						//Buffer index of the newest entry
+	private int size;								//Number of entries
+	private boolean isShared;						//Whether the arrays may be read by another history
+}
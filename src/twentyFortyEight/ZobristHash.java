@@ -0,0 +1,119 @@
+package twentyFortyEight;
+import java.util.SplittableRandom;
+/*
+ * Class holds the keys and helper methods for the Zobrist hash of a board used by Twenty48Game.
+ *
+ * Every cell of the largest board and every exponent a cell can hold has a random 64 bit key. The hash of a board is the xor of
+ * the keys of its cells that are not empty, so changing one cell changes the hash by xoring out the key of the old exponent and
+ * xoring in the key of the new one. Cells are numbered row by row the same as a packed board (row * totalColumns + column), and
+ * a 4x4 bitboard hashes the same as a 4x4 packed board with the same cells. The keys are generated from a fixed seed so a board
+ * has the same hash on every run.
+ *
+ * The canonical hash of a board is the smallest hash of the boards it becomes when it is rotated or reflected, so every board
+ * that is a rotation or reflection of another has the same canonical hash. A square board has 8 such boards. A board that is
+ * not square has 4 (itself, flipped left to right, flipped top to bottom and rotated half a turn) since a quarter turn changes
+ * its size.
+ *
+ * The class is package private, it is an implementation detail of Twenty48Game.
+ */
+final class ZobristHash
+{
+	private static final int EXPONENTS = PackedBoard.MAX_EXPONENT + 1;
+	private static final long SEED = 0x2048204820482048L;
+	private static final long KEYS[] = new long[Twenty48Game.MAX_BOARD_DIMENSION * Twenty48Game.MAX_BOARD_DIMENSION * EXPONENTS];
+
+	static
+	{
+		/*
+		 * Static initializer generates the key of every cell and exponent. The key of an empty cell is 0 so empty cells do not
+		 * change the hash
+		 */
+		SplittableRandom random = new SplittableRandom(SEED);
+		for(int i = 0; i < KEYS.length; i ++)
+			KEYS[i] = (i % EXPONENTS == 0) ? 0 : random.nextLong();
+	}
+
+	private ZobristHash()
+	{	//The class only contains static members
+	}
+
+	static long key(int cell, int exponent)
+	{	//Returns the key of a cell holding the exponent
+		return KEYS[cell * EXPONENTS + exponent];
+	}
+
+	static long hash(byte board[])
+	{	//Returns the hash of a packed board
+		long hash = 0;
+		for(int cell = 0; cell < board.length; cell ++)
+			hash ^= KEYS[cell * EXPONENTS + board[cell]];
+		return hash;
+	}
+
+	static long hash(long bitBoard)
+	{	//Returns the hash of a bitboard
+		long hash = 0;
+		for(int cell = 0; bitBoard != 0; cell ++, bitBoard >>>= 4)
+			hash ^= KEYS[cell * EXPONENTS + (int)(bitBoard & 0xF)];
+		return hash;
+	}
+
+	static long canonicalHash(byte board[], int totalRows, int totalColumns)
+	{
+		/*
+		 * Returns the smallest hash of the rotations and reflections of a packed board. The hashes of all of them are built in
+		 * one pass by xoring the key of each cell at the place the cell moves to
+		 */
+		long identity = 0, flippedColumns = 0, flippedRows = 0, halfTurn = 0;
+		long transposed = 0, quarterTurn = 0, threeQuarterTurn = 0, antiTransposed = 0;
+		boolean isSquare = (totalRows == totalColumns);
+		for(int row = 0, cell = 0; row < totalRows; row ++)
+			for(int column = 0; column < totalColumns; column ++, cell ++)
+			{
+				int exponent = board[cell];
+				if(exponent == 0)	continue;
+				int flippedRow = totalRows - 1 - row, flippedColumn = totalColumns - 1 - column;
+				identity ^= key(cell, exponent);
+				flippedColumns ^= key(row * totalColumns + flippedColumn, exponent);
+				flippedRows ^= key(flippedRow * totalColumns + column, exponent);
+				halfTurn ^= key(flippedRow * totalColumns + flippedColumn, exponent);
+				if(!isSquare)	continue;
+				transposed ^= key(column * totalRows + row, exponent);
+				quarterTurn ^= key(column * totalRows + flippedRow, exponent);
+				threeQuarterTurn ^= key(flippedColumn * totalRows + row, exponent);
+				antiTransposed ^= key(flippedColumn * totalRows + flippedRow, exponent);
+			}
+		long hash = Math.min(Math.min(identity, flippedColumns), Math.min(flippedRows, halfTurn));
+		if(!isSquare)	return hash;
+		return Math.min(hash, Math.min(Math.min(transposed, quarterTurn), Math.min(threeQuarterTurn, antiTransposed)));
+	}
+
+	static long canonicalHash(long bitBoard)
+	{
+		/*
+		 * Returns the smallest hash of the rotations and reflections of a bitboard. The 8 boards are made with a transpose and
+		 * by reversing the order of the rows and of the columns
+		 */
+		long hash = Long.MAX_VALUE;
+		for(int symmetry = 0; symmetry < 8; symmetry ++)
+		{
+			long board = bitBoard;
+			if((symmetry & 1) != 0)	board = reverseColumns(board);
+			if((symmetry & 2) != 0)	board = reverseRows(board);
+			if((symmetry & 4) != 0)	board = BitBoard.transpose(board);
+			hash = Math.min(hash, hash(board));
+		}
+		return hash;
+	}
+
+	private static long reverseRows(long bitBoard)
+	{	//Returns the bitboard with row 0 swapped with row 3 and row 1 swapped with row 2
+		return (bitBoard >>> 48) | ((bitBoard >>> 16) & 0xFFFF0000L) | ((bitBoard << 16) & 0xFFFF00000000L) | (bitBoard << 48);
+	}
+
+	private static long reverseColumns(long bitBoard)
+	{	//Returns the bitboard with column 0 swapped with column 3 and column 1 swapped with column 2 in every row
+		bitBoard = ((bitBoard >>> 8) & 0x00FF00FF00FF00FFL) | ((bitBoard & 0x00FF00FF00FF00FFL) << 8);
+		return ((bitBoard >>> 4) & 0x0F0F0F0F0F0F0F0FL) | ((bitBoard & 0x0F0F0F0F0F0F0F0FL) << 4);
+	}
+}